@@ -2,34 +2,103 @@ package grupo3;
 
 import grupo3.arguments.Arguments;
 import grupo3.bmp.Bitmap;
+import grupo3.bmp.BitmapHeaders;
+import grupo3.bmp.BitmapRowStreamer;
+import grupo3.encryption.EncryptionMode;
+import grupo3.encryption.EncryptionOptions;
+import grupo3.encryption.algorithms.AES128Encryption;
+import grupo3.encryption.algorithms.DESEncryption;
+import grupo3.exceptions.CarrierEndedException;
 import grupo3.exceptions.EncryptionException;
 import grupo3.exceptions.FileExtensionNotFoundException;
 import grupo3.exceptions.ProgramArgumentsException;
+import grupo3.exceptions.CarrierNotLargeEnoughException;
+import grupo3.steganography.Container;
+import grupo3.steganography.Payload;
+import grupo3.steganography.PixelPermutation;
 import grupo3.steganography.SteganographyMethod;
+import grupo3.steganography.VectorSupport;
+import grupo3.utils.BitSource;
+import grupo3.utils.BitSourceInputStream;
+import grupo3.utils.BufferPool;
 import grupo3.utils.FileUtils;
-import grupo3.utils.SteganographyDataProcessor;
+import grupo3.utils.InputStreamBitSource;
+import grupo3.utils.LongByteBuffer;
 
-import java.io.IOException;
+import javax.crypto.Cipher;
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
 import java.nio.file.Files;
+import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicLong;
 
 public class Main {
+    /**
+     * The extension given to a hidden message read from standard input, as it has no filename to take one from.
+     */
+    private static final String STANDARD_INPUT_EXTENSION = ".bin";
+
+    /**
+     * How many bytes past the end of a hidden message are read when extracting it, to hold its file extension without
+     * having to read the rest of the carrier.
+     */
+    private static final int EXTENSION_READ_AHEAD = 32;
+
+    /**
+     * The fraction of the maximum heap size above which a message is streamed from its file into the carrier instead
+     * of being read whole into memory.
+     */
+    private static final int MAX_BUFFERED_MESSAGE_FRACTION = 4;
+
+    /**
+     * Where progress is reported. This is standard error when the result is written to standard output, so the two
+     * don't get mixed up.
+     */
+    private static PrintStream log = System.out;
+
+    /**
+     * The pool on which large carriers, and the chunks of containers, are processed in parallel, or null if they're
+     * processed on the calling thread. It's created once the arguments are parsed and shut down when the program ends.
+     */
+    private static ForkJoinPool pool;
 
     public static void main(String[] args) {
         final Arguments arguments = parseArguments(args);
+        VectorSupport.setEnabled(arguments.vectorized());
+        log = FileUtils.isStandardStream(arguments.outputFile()) ? System.err : System.out;
+
+        pool = createPool(arguments);
 
         try {
             switch (arguments.request()) {
                 case Embed:
-                    embedMessage(arguments);
+                    if (arguments.streaming()) {
+                        embedMessageStreaming(arguments);
+                    } else if (arguments.pipelined()) {
+                        embedMessagePipelined(arguments);
+                    } else {
+                        embedMessage(arguments);
+                    }
                     break;
                 case Extract:
                     extractMessage(arguments);
                     break;
+                case Probe:
+                    probeCarrier(arguments);
+                    break;
             }
         } catch (Exception e) {
             System.err.println("An unexpected error occurred during execution: " + e.getMessage());
+        } finally {
+            shutdownPool(pool);
         }
     }
 
@@ -46,69 +115,710 @@ public class Main {
 
     private static void embedMessage(Arguments arguments) {
         try {
-            System.out.format("Reading file \"%s\"...%n", arguments.messageFile());
-            byte[] message = Files.readAllBytes(Paths.get(arguments.messageFile()));
+            String fileExtension = getMessageExtension(arguments.messageFile());
+            byte[] message = null;
+            Bitmap bitmap = null;
+            BitmapHeaders headers;
 
-            System.out.format("Reading file \"%s\"...%n", arguments.carrierFile());
-            Bitmap bitmap = Bitmap.readFromFile(arguments.carrierFile());
-            System.out.format("\"%s\" has a width of %d and height of %d%n", arguments.carrierFile(), bitmap.getWidth(), bitmap.getHeight());
-
-            String fileExtension = FileUtils.getFileExtension(arguments.messageFile());
+            // Standard input can only be read once, so anything coming from it has to be read before checking it fits
+            if (FileUtils.isStandardStream(arguments.messageFile())) {
+                log.println("Reading hidden message from standard input...");
+                message = FileUtils.readAllBytes(arguments.messageFile());
+            }
 
-            int carrierSize = bitmap.getData().length;
-            int maxHiddenSize = arguments.steganographyMethod().calculateHiddenSize(carrierSize, fileExtension);
-            System.out.format("This means it can carry a message of up to %d bytes%n", maxHiddenSize);
+            if (FileUtils.isStandardStream(arguments.carrierFile())) {
+                log.println("Reading carrier from standard input...");
+                bitmap = Bitmap.readFromFile(arguments.carrierFile());
+                headers = bitmap.getHeaders();
+            } else {
+                // Check the message fits using only the headers, before reading the files or deriving any keys
+                headers = BitmapHeaders.readFromFile(arguments.carrierFile());
+            }
 
-            if (message.length > maxHiddenSize) {
-                System.err.format("The message to hide is too long for this carrier! %d > %d%n", message.length, maxHiddenSize);
+            SteganographyMethod method = steganographyMethod(arguments, headers.getBytesPerPixel());
+            long messageSize = message != null ? message.length : Files.size(Paths.get(arguments.messageFile()));
+            log.format("\"%s\" has a width of %d and height of %d%n", arguments.carrierFile(), headers.getWidth(), headers.getHeight());
+            // The size of a container is only known once its chunks are compressed, so it's checked when hiding it
+            if (arguments.container() == null && !checkCapacity(arguments, method, headers.getPixelDataSize(), fileExtension, messageSize)) {
                 return;
             }
-            if (arguments.encryptionOptions() == null) {
-                arguments.steganographyMethod().hideMessageWithExtension(bitmap.getData(), message, fileExtension);
+
+            // Messages that would take up a large part of the heap are read as they're hidden instead, unless they go
+            // in a container, whose chunks are compressed in parallel from memory
+            boolean streamMessage = arguments.container() == null && message == null && messageSize > Runtime.getRuntime().maxMemory() / MAX_BUFFERED_MESSAGE_FRACTION;
+            if (message == null && !streamMessage) {
+                log.format("Reading file \"%s\"...%n", arguments.messageFile());
+                message = Files.readAllBytes(Paths.get(arguments.messageFile()));
+            }
+
+            if (bitmap == null) {
+                log.format("Reading file \"%s\"...%n", arguments.carrierFile());
+                bitmap = Bitmap.readFromFile(arguments.carrierFile());
+            }
+
+            long modifiedSize;
+
+            // A scattered message is hidden as usual in a view of the pixels in the order given by the key
+            LongByteBuffer carrier = bitmap.getPixels();
+            if (arguments.scatterKey() != null) {
+                carrier = new PixelPermutation(arguments.scatterKey(), carrier.size() / bitmap.getBytesPerPixel()).apply(carrier, bitmap.getBytesPerPixel());
+            }
+
+            if (streamMessage) {
+                log.format("Streaming file \"%s\"...%n", arguments.messageFile());
+                try (InputStream stream = Files.newInputStream(Path.of(arguments.messageFile()))) {
+                    modifiedSize = hideMessage(arguments, method, carrier, stream, messageSize, fileExtension);
+                }
+            } else if (arguments.container() != null) {
+                log.format("Packing %d bytes in a version %d container...%n", message.length, Container.VERSION);
+                Payload container = Container.pack(method, message, fileExtension, arguments.encryptionOptions(), arguments.container(),
+                        Container.DEFAULT_CHUNK_SIZE, pool);
+                method.hidePayload(carrier, container);
+                modifiedSize = method.calculatePayloadCarrierSize(container.size());
+            } else if (arguments.encryptionOptions() == null) {
+                method.hideMessageWithExtension(carrier, message, fileExtension);
+                modifiedSize = method.calculateModifiedSize(message.length, fileExtension);
             } else {
-                byte[] extendedMessage = arguments.steganographyMethod().getExtendedMessageWithLength(bitmap.getData(), message, fileExtension);
-                byte[] encryptedMessage = arguments.encryptionOptions().encrypt(extendedMessage);
-                arguments.steganographyMethod().hideMessage(bitmap.getData(), encryptedMessage);
+                // The length and trailer are encrypted along with the message, without copying it next to them
+                Payload payload = method.getPayload(carrier, message, fileExtension);
+                byte[] encryptedMessage = arguments.encryptionOptions().encrypt(payload);
+                method.hideMessage(carrier, encryptedMessage);
+                modifiedSize = method.calculateModifiedSize(encryptedMessage.length, null);
+                BufferPool.shared().release(encryptedMessage);
             }
 
-            System.out.format("Saving result to \"%s\"...", arguments.outputFile());
-            bitmap.writeToFile(arguments.outputFile());
-            System.out.println(" Done!");
-        } catch (IOException | FileExtensionNotFoundException | EncryptionException e) {
+            if (arguments.scatterKey() != null) {
+                // The modified pixels may be anywhere in the carrier
+                modifiedSize = bitmap.getPixels().size();
+            }
+
+            // Only the start of the pixels is modified, so the rest doesn't need to be written from memory
+            if (arguments.inPlace()) {
+                log.format("Saving result to \"%s\" in place...", arguments.carrierFile());
+                bitmap.writeInPlace(arguments.carrierFile(), modifiedSize);
+            } else {
+                log.format("Saving result to \"%s\"...", arguments.outputFile());
+                bitmap.writeToFile(arguments.outputFile(), arguments.carrierFile(), modifiedSize);
+            }
+            bitmap.release();
+            log.println(" Done!");
+        } catch (IOException | UncheckedIOException | FileExtensionNotFoundException | EncryptionException | CarrierNotLargeEnoughException e) {
             System.err.println("Error embedding message: " + e.getMessage());
         }
     }
 
-    private static void extractMessage(Arguments arguments) {
+    /**
+     * Hides a message read from a stream in a carrier, encrypting it on the fly if needed, exactly as the in-memory
+     * path would.
+     *
+     * @return The size of the prefix of the carrier that was modified.
+     */
+    private static long hideMessage(Arguments arguments, SteganographyMethod method, LongByteBuffer carrier, InputStream message,
+                                    long messageSize, String fileExtension) throws EncryptionException {
+        EncryptionOptions encryptionOptions = arguments.encryptionOptions();
+        if (encryptionOptions == null) {
+            method.hideMessageWithExtension(carrier, message, messageSize, fileExtension);
+            return method.calculateModifiedSize(messageSize, fileExtension);
+        }
+
+        long encryptedSize = encryptionOptions.getEncryptedSize(getFramedSize(messageSize, fileExtension));
+        method.hideMessage(carrier, encryptionOptions.encrypt(frameMessage(message, messageSize, fileExtension)), encryptedSize);
+        return method.calculateModifiedSize(encryptedSize, null);
+    }
+
+    /**
+     * Frames a message read from a stream with its length and a trailer with the file extension, as
+     * {@link Payload#frame(byte[], String)} does, so it can be encrypted on the fly.
+     */
+    private static InputStream frameMessage(InputStream message, long messageSize, String fileExtension) {
+        return new SequenceInputStream(
+                new SequenceInputStream(
+                        new ByteArrayInputStream(ByteBuffer.allocate(SteganographyMethod.MESSAGE_LENGTH_BYTES).putInt((int) messageSize).array()),
+                        message
+                ),
+                new ByteArrayInputStream(SteganographyMethod.createTrailer(fileExtension))
+        );
+    }
+
+    /**
+     * Calculates the size of a message framed with its length and a trailer with the file extension.
+     */
+    private static long getFramedSize(long messageSize, String fileExtension) {
+        return SteganographyMethod.MESSAGE_LENGTH_BYTES + messageSize + SteganographyMethod.createTrailer(fileExtension).length;
+    }
+
+    private static void embedMessageStreaming(Arguments arguments) {
+        try (BitmapRowStreamer carrier = BitmapRowStreamer.open(arguments.carrierFile())) {
+            log.format("Streaming file \"%s\"...%n", arguments.carrierFile());
+            BitmapHeaders headers = carrier.getHeaders();
+            log.format("\"%s\" has a width of %d and height of %d%n", arguments.carrierFile(), headers.getWidth(), headers.getHeight());
+
+            SteganographyMethod method = steganographyMethod(arguments, headers.getBytesPerPixel());
+            String fileExtension = getMessageExtension(arguments.messageFile());
+            long messageSize = Files.size(Path.of(arguments.messageFile()));
+            if (!checkCapacity(arguments, method, headers.getPixelDataSize(), fileExtension, messageSize)) {
+                return;
+            }
+
+            try (InputStream message = Files.newInputStream(Path.of(arguments.messageFile()))) {
+                BitSource payload;
+                if (arguments.encryptionOptions() == null) {
+                    payload = SteganographyMethod.createPayload((int) messageSize, new InputStreamBitSource(message), fileExtension);
+                } else {
+                    // Encrypt the length, message and trailer on the fly, exactly as the in-memory path would
+                    long encryptedSize = arguments.encryptionOptions().getEncryptedSize(getFramedSize(messageSize, fileExtension));
+                    InputStream encrypted = arguments.encryptionOptions().encrypt(frameMessage(message, messageSize, fileExtension));
+                    payload = SteganographyMethod.createPayload((int) encryptedSize, new InputStreamBitSource(encrypted), null);
+                }
+
+                log.format("Saving result to \"%s\"...", arguments.outputFile());
+                SteganographyMethod.Embedder embedder = method.createEmbedder(payload);
+                carrier.transferTo(arguments.outputFile(), embedder::hide);
+                log.println(" Done!");
+            }
+        } catch (IOException | UncheckedIOException | FileExtensionNotFoundException | EncryptionException e) {
+            System.err.println("Error embedding message: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Embeds a message like {@link #embedMessage}, producing the same output, but running each phase as soon as what
+     * it needs is ready. The message and carrier are read while the key is derived, and the rows of the carrier that
+     * won't be modified are copied to the output while the message is encrypted and embedded.
+     * <p>
+     * The phases run on the pool given by <code>-threads</code>, so with a single thread they run one after another.
+     */
+    private static void embedMessagePipelined(Arguments arguments) {
+        PhaseTimer timer = new PhaseTimer(pool != null ? pool : Runnable::run);
         try {
-            System.out.format("Reading file \"%s\"...%n", arguments.carrierFile());
-            final Bitmap bitmap = Bitmap.readFromFile(arguments.carrierFile());
+            if (Files.exists(Path.of(arguments.outputFile())) && Files.isSameFile(Path.of(arguments.outputFile()), Path.of(arguments.carrierFile()))) {
+                log.println("The output is the carrier itself, so it can't be written while the carrier is read");
+                embedMessage(arguments);
+                return;
+            }
 
-            System.out.println("Extracting message...");
+            String fileExtension = getMessageExtension(arguments.messageFile());
+            long messageSize = Files.size(Paths.get(arguments.messageFile()));
 
-            byte[] messageData;
-            String fileExtension;
+            BitmapHeaders headers = BitmapHeaders.readFromFile(arguments.carrierFile());
+            log.format("\"%s\" has a width of %d and height of %d%n", arguments.carrierFile(), headers.getWidth(), headers.getHeight());
+            SteganographyMethod method = steganographyMethod(arguments, headers.getBytesPerPixel());
+            if (!checkCapacity(arguments, method, headers.getPixelDataSize(), fileExtension, messageSize)) {
+                return;
+            }
+
+            // How much of the carrier is modified only depends on the sizes, so the rest can be copied right away
+            EncryptionOptions encryptionOptions = arguments.encryptionOptions();
+            byte[] trailer = SteganographyMethod.createTrailer(fileExtension);
+            long modifiedSize = encryptionOptions == null
+                    ? method.calculateModifiedSize(messageSize, fileExtension)
+                    : method.calculateModifiedSize(encryptionOptions.getEncryptedSize(SteganographyMethod.MESSAGE_LENGTH_BYTES + messageSize + trailer.length), null);
+
+            try (FileChannel output = FileChannel.open(Path.of(arguments.outputFile()), StandardOpenOption.CREATE,
+                    StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+                log.format("Reading files \"%s\" and \"%s\"...%n", arguments.messageFile(), arguments.carrierFile());
+                CompletableFuture<byte[]> message = timer.run("read message", () -> Files.readAllBytes(Paths.get(arguments.messageFile())));
+                CompletableFuture<Bitmap> bitmap = timer.run("read carrier", () -> Bitmap.readFromFile(arguments.carrierFile()));
+                CompletableFuture<Void> copy = timer.run("copy unmodified rows", () -> {
+                    Bitmap.copyUnmodifiedRows(arguments.carrierFile(), output, headers.getSize(), modifiedSize);
+                    return null;
+                });
+
+                CompletableFuture<byte[]> payload;
+                if (encryptionOptions == null) {
+                    payload = message;
+                } else {
+                    CompletableFuture<Cipher> cipher = timer.run("derive key", () -> encryptionOptions.createCipher(Cipher.ENCRYPT_MODE));
+                    payload = timer.then("encrypt", message.thenCombine(cipher, (m, c) -> null), () -> {
+                        return Payload.frame(message.join(), fileExtension).encrypt(cipher.join());
+                    });
+                }
+
+                CompletableFuture<Void> write = timer.then("embed and write modified rows", bitmap.thenCombine(payload, (b, p) -> null), () -> {
+                    if (encryptionOptions == null) {
+                        method.hideMessageWithExtension(bitmap.join().getPixels(), payload.join(), fileExtension);
+                    } else {
+                        method.hideMessage(bitmap.join().getPixels(), payload.join());
+                    }
+
+                    bitmap.join().writeModifiedRows(output, modifiedSize);
+                    bitmap.join().release();
+                    return null;
+                });
+
+                log.format("Saving result to \"%s\"...", arguments.outputFile());
+                CompletableFuture.allOf(copy, write).join();
+                log.println(" Done!");
+            }
+
+            timer.getPhases().forEach(phase -> log.println("  " + phase));
+            log.format("Took %d ms, while its phases took %d ms in total, so running them concurrently saved %d ms%n",
+                    timer.getElapsedMillis(), timer.getTotalMillis(), timer.getTotalMillis() - timer.getElapsedMillis());
+            log.println("Buffer pool: " + BufferPool.shared().getStatistics());
+        } catch (CompletionException e) {
+            System.err.println("Error embedding message: " + e.getCause().getMessage());
+        } catch (IOException | FileExtensionNotFoundException e) {
+            System.err.println("Error embedding message: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Runs the phases of a pipelined operation, keeping track of how long each took.
+     */
+    private static class PhaseTimer {
+        private final Executor executor;
+        private final long start = System.nanoTime();
+        private final AtomicLong total = new AtomicLong();
+        private final List<String> phases = Collections.synchronizedList(new ArrayList<>());
+
+        private PhaseTimer(Executor executor) {
+            this.executor = executor;
+        }
+
+        /**
+         * Starts running a phase right away.
+         */
+        private <T> CompletableFuture<T> run(String name, Phase<T> phase) {
+            return CompletableFuture.supplyAsync(() -> time(name, phase), executor);
+        }
+
+        /**
+         * Runs a phase once another future completes.
+         */
+        private <T> CompletableFuture<T> then(String name, CompletableFuture<?> previous, Phase<T> phase) {
+            return previous.thenApplyAsync(ignored -> time(name, phase), executor);
+        }
+
+        private <T> T time(String name, Phase<T> phase) {
+            long phaseStart = System.nanoTime();
+            try {
+                return phase.run();
+            } catch (Exception e) {
+                throw new CompletionException(e);
+            } finally {
+                long duration = System.nanoTime() - phaseStart;
+                total.addAndGet(duration);
+                phases.add(String.format("%s: %d ms", name, duration / 1_000_000));
+            }
+        }
+
+        /**
+         * Gets how long each phase took, in the order they finished.
+         */
+        private List<String> getPhases() {
+            return phases;
+        }
+
+        /**
+         * Gets the wall-clock time since this timer was created.
+         */
+        private long getElapsedMillis() {
+            return (System.nanoTime() - start) / 1_000_000;
+        }
+
+        /**
+         * Gets the sum of the time taken by each phase, which is how long they'd take run one after another.
+         */
+        private long getTotalMillis() {
+            return total.get() / 1_000_000;
+        }
+    }
+
+    /**
+     * A phase of a pipelined operation.
+     */
+    private interface Phase<T> {
+        T run() throws Exception;
+    }
+
+    /**
+     * Gets the extension to store along a hidden message, which is taken from its filename.
+     */
+    private static String getMessageExtension(String messageFile) throws FileExtensionNotFoundException {
+        return FileUtils.isStandardStream(messageFile) ? STANDARD_INPUT_EXTENSION : FileUtils.getFileExtension(messageFile);
+    }
+
+    /**
+     * Checks whether a message fits in a carrier with the chosen method and encryption, accounting for the length of
+     * the message, the file extension and any padding added by the cipher.
+     *
+     * @return Whether the message fits. If it doesn't, the reason has already been printed.
+     */
+    private static boolean checkCapacity(Arguments arguments, SteganographyMethod method, long carrierSize, String fileExtension, long messageSize) {
+        EncryptionOptions encryptionOptions = arguments.encryptionOptions();
+        long maxHiddenSize = encryptionOptions == null
+                ? method.calculateHiddenSize(carrierSize, fileExtension)
+                : method.calculateHiddenSize(carrierSize, fileExtension, encryptionOptions.algorithm(), encryptionOptions.mode());
+        log.format("This means it can carry a message of up to %d bytes%n", maxHiddenSize);
+
+        if (messageSize > maxHiddenSize) {
+            System.err.format("The message to hide is too long for this carrier! %d > %d%n", messageSize, maxHiddenSize);
+            return false;
+        }
 
-            if (arguments.encryptionOptions() == null) {
-                SteganographyMethod.ExtractResult result = arguments.steganographyMethod().extractMessageWithExtension(bitmap.getData());
-                messageData = result.message;
-                fileExtension = result.fileExtension;
+        // The length of whatever is hidden (the message itself, or the encrypted block) is stored in 4 bytes
+        long hiddenLength = encryptionOptions == null ? messageSize : encryptionOptions.getEncryptedSize(
+                SteganographyMethod.MESSAGE_LENGTH_BYTES + messageSize + SteganographyMethod.createTrailer(fileExtension).length);
+        if (hiddenLength > Integer.MAX_VALUE) {
+            System.err.format("The message to hide is too long to store its length in %d bytes! %d%n", SteganographyMethod.MESSAGE_LENGTH_BYTES, messageSize);
+            return false;
+        }
+
+        return true;
+    }
+
+    private static void probeCarrier(Arguments arguments) {
+        try {
+            BitmapHeaders headers = BitmapHeaders.readFromFile(arguments.carrierFile());
+            long carrierSize = headers.getPixelDataSize();
+            log.format("\"%s\" has a width of %d and height of %d at %d bits per pixel, for %d bytes of pixel data%n",
+                    arguments.carrierFile(), headers.getWidth(), headers.getHeight(), headers.getBytesPerPixel() * 8, carrierSize);
+
+            String fileExtension = null;
+            long messageSize = -1;
+            if (arguments.messageFile() != null) {
+                fileExtension = FileUtils.getFileExtension(arguments.messageFile());
+                messageSize = Files.size(Paths.get(arguments.messageFile()));
+            }
+
+            log.format("Maximum message size in bytes for each method%s:%n",
+                    fileExtension == null ? " (without a file extension)" : " (with file extension \"" + fileExtension + "\")");
+            log.format("%-8s%16s%16s%16s%16s%n", "Method", "Plain", "CFB/OFB", "AES ECB/CBC", "DES ECB/CBC");
+
+            StringBuilder fits = new StringBuilder();
+            SteganographyMethod[] methods = arguments.steganographyMethods(headers.getBytesPerPixel());
+            for (int i = 0; i < methods.length; i++) {
+                SteganographyMethod method = methods[i];
+                String name = Arguments.STEGANOGRAPHY_METHODS[i];
+
+                // Stream modes add no padding, so the block size of the algorithm doesn't matter for them
+                long plain = method.calculateHiddenSize(carrierSize, fileExtension);
+                long stream = method.calculateHiddenSize(carrierSize, fileExtension, AES128Encryption.getInstance(), EncryptionMode.OFB);
+                long aes = method.calculateHiddenSize(carrierSize, fileExtension, AES128Encryption.getInstance(), EncryptionMode.CBC);
+                long des = method.calculateHiddenSize(carrierSize, fileExtension, DESEncryption.getInstance(), EncryptionMode.CBC);
+                log.format("%-8s%16d%16d%16d%16d%n", name, plain, stream, aes, des);
+
+                if (messageSize >= 0 && messageSize <= Math.min(Math.min(plain, stream), Math.min(aes, des))) {
+                    fits.append(fits.length() == 0 ? "" : ", ").append(name);
+                }
+            }
+
+            if (messageSize >= 0) {
+                log.format("\"%s\" (%d bytes) fits with and without encryption using: %s%n",
+                        arguments.messageFile(), messageSize, fits.length() == 0 ? "none" : fits);
+            }
+        } catch (IOException | FileExtensionNotFoundException e) {
+            System.err.println("Error probing carrier: " + e.getMessage());
+        }
+    }
+
+    private static void extractMessage(Arguments arguments) {
+        try {
+            SteganographyMethod method;
+            // The message is extracted from the carrier, which is a view of the pixels if it's scattered
+            LongByteBuffer pixels;
+            LongByteBuffer carrier;
+            long carrierSize;
+            if (arguments.detectMethod() || arguments.scatterKey() != null) {
+                // Every method is tried on the same pixels, and a scattered message may be anywhere in them, so the
+                // whole carrier is decoded once up front
+                int bytesPerPixel;
+                if (FileUtils.isStandardStream(arguments.carrierFile())) {
+                    log.println("Reading carrier from standard input...");
+                    Bitmap bitmap = Bitmap.readFromFile(arguments.carrierFile());
+                    bytesPerPixel = bitmap.getBytesPerPixel();
+                    pixels = bitmap.getPixels();
+                } else {
+                    BitmapHeaders headers = BitmapHeaders.readFromFile(arguments.carrierFile());
+                    bytesPerPixel = headers.getBytesPerPixel();
+                    log.format("Reading file \"%s\"...%n", arguments.carrierFile());
+                    pixels = Bitmap.readPixelsFromFile(arguments.carrierFile(), headers.getPixelDataSize());
+                }
+
+                // Extract from the pixels in the order the message was hidden in, so it's extracted as usual
+                carrier = arguments.scatterKey() == null ? pixels
+                        : new PixelPermutation(arguments.scatterKey(), pixels.size() / bytesPerPixel).apply(pixels, bytesPerPixel);
+                carrierSize = carrier.size();
+                method = arguments.detectMethod() ? detectMethod(arguments, bytesPerPixel, carrier) : steganographyMethod(arguments, bytesPerPixel);
+                if (method == null) {
+                    releasePixels(pixels);
+                    System.err.println("Error extracting message: no steganography method finds a message in the carrier");
+                    return;
+                }
+            } else if (FileUtils.isStandardStream(arguments.carrierFile())) {
+                log.println("Reading carrier from standard input...");
+                Bitmap bitmap = Bitmap.readFromFile(arguments.carrierFile());
+                method = steganographyMethod(arguments, bitmap.getBytesPerPixel());
+                carrier = bitmap.getPixels();
+                pixels = carrier;
+                carrierSize = carrier.size();
             } else {
-                final byte[] encryptedMessage = arguments.steganographyMethod().extractMessage(bitmap.getData());
-                final byte[] decryptedBytes = arguments.encryptionOptions().decrypt(encryptedMessage);
+                // Only read the rows holding the length of the message, and then those holding the rest of it
+                BitmapHeaders headers = BitmapHeaders.readFromFile(arguments.carrierFile());
+                method = steganographyMethod(arguments, headers.getBytesPerPixel());
+                carrierSize = headers.getPixelDataSize();
+                log.format("Reading the start of file \"%s\"...%n", arguments.carrierFile());
+                LongByteBuffer prefix = Bitmap.readPixelsFromFile(arguments.carrierFile(), method.calculateCarrierSize(0, null));
+                int hiddenLength = method.extractMessageLength(prefix);
+                releasePixels(prefix);
+                // The length can't be trusted yet, so it's widened before adding to it
+                long neededSize = hiddenLength <= 0 ? carrierSize
+                        : Math.min(carrierSize, method.calculateModifiedSize((long) hiddenLength + EXTENSION_READ_AHEAD, null));
+                if (arguments.isRange() && hiddenLength > 0) {
+                    // Only up to the end of the range is needed, and the bytes before it aren't extracted at all
+                    long rangeEnd = Math.min(hiddenLength, Math.min(arguments.rangeOffset(), hiddenLength) + Math.min(arguments.rangeLength(), hiddenLength));
+                    neededSize = method.calculateModifiedSize(rangeEnd, null);
+                }
+                carrier = Bitmap.readPixelsFromFile(arguments.carrierFile(), neededSize);
+                if (!arguments.isRange() && arguments.encryptionOptions() == null && hiddenLength > 0
+                        && carrier.size() < carrierSize && !hasExtensionTerminator(method, carrier, hiddenLength)) {
+                    // The file extension is longer than what was read ahead, so read the rest of the carrier too
+                    releasePixels(carrier);
+                    log.format("Reading the rest of file \"%s\"...%n", arguments.carrierFile());
+                    carrier = Bitmap.readPixelsFromFile(arguments.carrierFile(), carrierSize);
+                }
+                log.format("Read %d of %d bytes of pixels%n", carrier.size(), carrierSize);
+                pixels = carrier;
+            }
 
-                final SteganographyDataProcessor steganographyDataProcessor = new SteganographyDataProcessor(decryptedBytes);
-                messageData = steganographyDataProcessor.getData();
-                fileExtension = steganographyDataProcessor.getFileExtension();
+            if (arguments.isRange()) {
+                log.format("Extracting the message from offset %d...%n", arguments.rangeOffset());
+                long count;
+                try (OutputStream stream = FileUtils.openOutputStream(arguments.outputFile())) {
+                    count = extractMessageRange(arguments, method, carrier, stream);
+                }
+
+                releasePixels(pixels);
+                log.format("Wrote %d bytes to \"%s\"%n", count, arguments.outputFile());
+                return;
             }
 
-            final String outputFilePath = arguments.outputFile() + fileExtension;
-            FileUtils.writeToFile(outputFilePath, messageData);
+            log.println("Extracting message...");
+
+            // The message is written as it's extracted. Its extension comes after it, so it's written to a temporary
+            // file that's renamed once the extension is known.
+            boolean toStandardOutput = FileUtils.isStandardStream(arguments.outputFile());
+            Path output = Path.of(arguments.outputFile()).toAbsolutePath();
+            Path temporaryFile = toStandardOutput ? null : FileUtils.createSiblingFile(output);
+            String fileExtension;
+            try {
+                try (OutputStream stream = toStandardOutput ? FileUtils.openOutputStream(arguments.outputFile()) : Files.newOutputStream(temporaryFile)) {
+                    fileExtension = extractMessage(arguments, method, carrier, stream);
+                }
+
+                releasePixels(pixels);
 
-            System.out.format("Saving result to \"%s%s\"... Done!%n", arguments.outputFile(), fileExtension);
+                // Standard output gets the raw message, as there's no filename to add the extension to
+                if (toStandardOutput) {
+                    log.format("Wrote message with extension \"%s\" to standard output%n", fileExtension);
+                    return;
+                }
 
-        } catch (IOException | EncryptionException e) {
+                FileUtils.replaceFile(temporaryFile, Path.of(arguments.outputFile() + fileExtension));
+            } finally {
+                if (temporaryFile != null) {
+                    Files.deleteIfExists(temporaryFile);
+                }
+            }
+
+            log.format("Saving result to \"%s%s\"... Done!%n", arguments.outputFile(), fileExtension);
+
+        } catch (IOException | UncheckedIOException | IllegalStateException | EncryptionException e) {
             System.err.println("Error extracting message: " + e.getMessage());
         }
     }
+
+    /**
+     * Checks whether the '\0' that ends the file extension of a plain message is within the start of a carrier that
+     * was read, so the message can be extracted from it without reading the rest of the carrier.
+     */
+    private static boolean hasExtensionTerminator(SteganographyMethod method, LongByteBuffer carrier, int hiddenLength) {
+        BitSource bits = method.openPayload(carrier);
+        bits.skip((SteganographyMethod.MESSAGE_LENGTH_BYTES + (long) hiddenLength) * 8);
+        while (bits.available() >= 8) {
+            if (bits.readBits(8) == 0) {
+                return true;
+            }
+        }
+
+        return false;
+    }
+
+    /**
+     * Finds out which steganography method hid a message in a carrier, by trying all of them on its pixels, as many at
+     * once as the pool given by <code>-threads</code> runs. Each attempt gives up as soon as the hidden length is
+     * implausible or the message isn't followed by a valid extension, without extracting the message itself.
+     *
+     * @return The first method, in the order of {@link Arguments#STEGANOGRAPHY_METHODS}, that finds a plausible
+     * message, or null if none of them does.
+     */
+    private static SteganographyMethod detectMethod(Arguments arguments, int bytesPerPixel, LongByteBuffer carrier) {
+        SteganographyMethod[] methods = arguments.steganographyMethods(bytesPerPixel);
+        List<Callable<String>> attempts = new ArrayList<>();
+        for (SteganographyMethod method : methods) {
+            attempts.add(() -> checkHiddenMessage(method, carrier, arguments.encryptionOptions()));
+        }
+
+        log.format("Detecting the steganography method among %d candidates...%n", methods.length);
+        Executor executor = pool != null ? pool : Runnable::run;
+        List<Future<String>> results = new ArrayList<>();
+        for (Callable<String> attempt : attempts) {
+            FutureTask<String> result = new FutureTask<>(attempt);
+            executor.execute(result);
+            results.add(result);
+        }
+
+        try {
+            SteganographyMethod detected = null;
+            for (int i = 0; i < methods.length; i++) {
+                String name = Arguments.STEGANOGRAPHY_METHODS[i];
+                try {
+                    String found = results.get(i).get();
+                    if (detected == null) {
+                        log.format("Detected %s, which finds %s%n", name, found);
+                        detected = methods[i].withParallelism(pool);
+                    } else {
+                        log.format("%s also finds %s, ignoring it%n", name, found);
+                    }
+                } catch (ExecutionException e) {
+                    log.format("%s ruled out: %s%n", name, e.getCause().getMessage());
+                }
+            }
+
+            return detected;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return null;
+        }
+    }
+
+    /**
+     * Checks whether a method finds a plausible message in a carrier. A container is recognized from its header
+     * alone, which names the method it was hidden with. Otherwise, a plain message is skipped over to check the
+     * printable extension after it, while only the start of an encrypted one is decrypted to check the length of the
+     * message within it, as its extension is encrypted too.
+     *
+     * @return A description of the message that was found.
+     * @throws IllegalStateException If the method finds no plausible message.
+     */
+    private static String checkHiddenMessage(SteganographyMethod method, LongByteBuffer carrier, EncryptionOptions encryptionOptions)
+            throws IOException, EncryptionException {
+        Container container = Container.read(method.openPayload(carrier));
+        if (container != null) {
+            if (!container.getMethodName().equals(method.getName())) {
+                throw new IllegalStateException("Found a container hidden with " + container.getMethodName());
+            }
+            return "a " + container;
+        }
+
+        BitSource bits = method.openPayload(carrier);
+        int length = SteganographyMethod.readMessageLength(bits);
+        if (length == 0) {
+            throw new IllegalStateException("The hidden message is empty");
+        }
+
+        if (encryptionOptions != null) {
+            try (InputStream decrypted = encryptionOptions.decrypt(new BitSourceInputStream(bits, length))) {
+                byte[] header = decrypted.readNBytes(SteganographyMethod.MESSAGE_LENGTH_BYTES);
+                if (header.length < SteganographyMethod.MESSAGE_LENGTH_BYTES) {
+                    throw new IllegalStateException("The encrypted message is too short");
+                }
+
+                SteganographyMethod.checkMessageLength(ByteBuffer.wrap(header).getInt(), length - header.length);
+            }
+
+            return "an encrypted message of " + length + " bytes";
+        }
+
+        if (bits.skip(length * 8L) < length * 8L) {
+            throw new CarrierEndedException();
+        }
+
+        String fileExtension = SteganographyMethod.readFileExtension(bits);
+        if (fileExtension.isEmpty() || !fileExtension.chars().allMatch(c -> c > ' ' && c < 0x7F)) {
+            throw new IllegalStateException("Expected a printable file extension, found \"" + fileExtension + "\"");
+        }
+
+        return "a message of " + length + " bytes with extension \"" + fileExtension + "\"";
+    }
+
+    /**
+     * Extracts a message from a carrier, decrypting it on the fly if needed, and writes it to a stream.
+     *
+     * @return The file extension of the message.
+     */
+    private static String extractMessage(Arguments arguments, SteganographyMethod method, LongByteBuffer carrier, OutputStream output)
+            throws IOException, EncryptionException {
+        // A container says how it was hidden, so it's extracted as it describes rather than as the arguments say
+        Container container = Container.read(method.openPayload(carrier));
+        if (container != null) {
+            log.format("Found a %s%n", container);
+            String password = arguments.encryptionOptions() == null ? null : arguments.encryptionOptions().password();
+            return container.extract(() -> method.openPayload(carrier), password, pool, output);
+        }
+
+        if (arguments.encryptionOptions() == null) {
+            return method.extractMessageWithExtension(carrier, output);
+        }
+
+        // The encrypted block holds the length of the message, the message and its extension, as it was framed
+        BitSource bits = method.openPayload(carrier);
+        int encryptedLength = SteganographyMethod.readMessageLength(bits);
+        try (InputStream decrypted = arguments.encryptionOptions().decrypt(new BitSourceInputStream(bits, encryptedLength))) {
+            BitSource plain = new InputStreamBitSource(decrypted);
+            int messageLength = (int) plain.readBits(SteganographyMethod.MESSAGE_LENGTH_BYTES * 8);
+            SteganographyMethod.checkMessageLength(messageLength, encryptedLength);
+            SteganographyMethod.transferMessage(plain, messageLength, output);
+            return SteganographyMethod.readFileExtension(plain);
+        }
+    }
+
+    /**
+     * Extracts the range of a message given with -offset and -length from a carrier, and writes it to a stream.
+     *
+     * @return How many bytes were extracted.
+     */
+    private static long extractMessageRange(Arguments arguments, SteganographyMethod method, LongByteBuffer carrier, OutputStream output)
+            throws IOException, EncryptionException {
+        // The length read for a container is its magic, which is negative, so the whole carrier was read for it
+        Container container = Container.read(method.openPayload(carrier));
+        if (container != null) {
+            log.format("Found a %s%n", container);
+            return container.extractRange(() -> method.openPayload(carrier), pool, arguments.rangeOffset(), arguments.rangeLength(), output);
+        }
+
+        return method.extractMessageRange(carrier, arguments.rangeOffset(), arguments.rangeLength(), output);
+    }
+
+    /**
+     * Gets the steganography algorithm to use for a carrier with the given amount of bytes per pixel, processing large
+     * carriers on the pool.
+     */
+    private static SteganographyMethod steganographyMethod(Arguments arguments, int bytesPerPixel) {
+        return arguments.steganographyMethod(bytesPerPixel).withParallelism(pool);
+    }
+
+    /**
+     * Creates the pool on which large carriers and the chunks of containers are processed in parallel, or returns null
+     * if they should be processed on the calling thread.
+     */
+    private static ForkJoinPool createPool(Arguments arguments) {
+        return arguments.threads() > 1 ? new ForkJoinPool(arguments.threads()) : null;
+    }
+
+    private static void shutdownPool(ForkJoinPool pool) {
+        if (pool != null) {
+            pool.shutdown();
+        }
+    }
+
+    /**
+     * Returns the pixels read from a carrier to the pool, if they were copied into an array borrowed from it rather
+     * than mapped from the file.
+     */
+    private static void releasePixels(LongByteBuffer pixels) {
+        if (pixels.hasArray()) {
+            BufferPool.shared().release(pixels.array());
+        }
+    }
 }
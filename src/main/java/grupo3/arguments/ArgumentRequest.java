@@ -13,4 +13,9 @@ public enum ArgumentRequest {
      * The user wants to extract a message from a carrier.
      */
     Extract,
+
+    /**
+     * The user wants to know how large a message a carrier can hold with each method.
+     */
+    Probe,
 }
@@ -4,9 +4,13 @@ import grupo3.encryption.EncryptionMode;
 import grupo3.encryption.EncryptionOptions;
 import grupo3.encryption.algorithms.*;
 import grupo3.exceptions.ProgramArgumentsException;
+import grupo3.steganography.CarrierLayout;
+import grupo3.steganography.Container;
 import grupo3.steganography.LsbiSteganography;
+import grupo3.steganography.LsbmSteganography;
 import grupo3.steganography.LsbxSteganography;
 import grupo3.steganography.SteganographyMethod;
+import grupo3.utils.FileUtils;
 
 import java.util.Iterator;
 import java.util.logging.Logger;
@@ -15,11 +19,24 @@ import java.util.logging.Logger;
  * Represents the parsed arguments passed to this program.
  *
  * @param request             Specifies whether the user requested to embed or extract a message.
- * @param carrierFile         A path to the file that contains the carrier message.
- * @param messageFile         A path to the file with the hidden message.
- * @param outputFile          A path to the file where the result should be written.
- * @param steganographyMethod The steganography algorithm to use.
+ * @param carrierFile         A path to the file that contains the carrier message, or "-" for standard input.
+ * @param messageFile         A path to the file with the hidden message, or "-" for standard input.
+ * @param outputFile          A path to the file where the result should be written, or "-" for standard output.
+ * @param steganographyMethod The steganography algorithm to use, or null if it should be detected.
  * @param encryptionOptions   The (optional) encryption options.
+ * @param streaming           Whether to embed by streaming the carrier row by row instead of loading it in memory.
+ * @param inPlace             Whether to embed by rewriting only the modified pixels of the carrier file itself.
+ * @param pipelined           Whether to embed by running reading, key derivation, embedding and writing concurrently.
+ * @param excludeAlpha        Whether to leave the alpha channel of 32-bit carriers intact.
+ * @param threads             The amount of threads to hide or extract the message with.
+ * @param vectorized          Whether to process the carrier with the Vector API where it's available.
+ * @param rangeOffset         The index in the hidden message of the first byte to extract, or -1 to extract all of it.
+ * @param rangeLength         The maximum amount of bytes of the hidden message to extract from rangeOffset.
+ * @param detectMethod        Whether to find out which steganography algorithm was used, given with -steg auto.
+ * @param container           How to compress the message when embedding it in a version 2 container, or null to embed
+ *                            it in the legacy layout.
+ * @param scatterKey          The password that scatters the message across the pixels of the carrier, or null to hide
+ *                            it in the first pixels.
  */
 public record Arguments(
         ArgumentRequest request,
@@ -27,9 +44,25 @@ public record Arguments(
         String messageFile,
         String outputFile,
         SteganographyMethod steganographyMethod,
-        EncryptionOptions encryptionOptions
+        EncryptionOptions encryptionOptions,
+        boolean streaming,
+        boolean inPlace,
+        boolean pipelined,
+        boolean excludeAlpha,
+        int threads,
+        boolean vectorized,
+        long rangeOffset,
+        long rangeLength,
+        boolean detectMethod,
+        Container.Compression container,
+        String scatterKey
 ) {
 
+    /**
+     * The names of every steganography method, in the order they're listed and tried when detecting which was used.
+     */
+    public static final String[] STEGANOGRAPHY_METHODS = {"LSB1", "LSB2", "LSB3", "LSB4", "LSB5", "LSB6", "LSB7", "LSB8", "LSBI", "LSBM"};
+
     private static final Logger logger = Logger.getLogger(Arguments.class.getName());
 
     public static Arguments parse(Iterator<String> args) throws ProgramArgumentsException {
@@ -38,6 +71,19 @@ public record Arguments(
         String messageFile = null;
         String outputFile = null;
         SteganographyMethod steganographyMethod = null;
+        boolean streaming = false;
+        boolean inPlace = false;
+        boolean pipelined = false;
+        boolean excludeAlpha = false;
+        int threads = 0;
+        boolean vectorized = true;
+        long rangeOffset = -1;
+        long rangeLength = -1;
+        boolean detectMethod = false;
+        boolean container = false;
+        boolean compress = false;
+        String scatterKey = null;
+        Long seed = null;
 
         EncryptionAlgorithm encryptionAlgorithm = null;
         EncryptionMode encryptionMode = null;
@@ -48,14 +94,19 @@ public record Arguments(
 
             if (arg.equalsIgnoreCase("-embed")) {
                 if (request != null) {
-                    throw new ProgramArgumentsException("Please specify -embed or -extract only once");
+                    throw new ProgramArgumentsException("Please specify -embed, -extract or -probe only once");
                 }
                 request = ArgumentRequest.Embed;
             } else if (arg.equalsIgnoreCase("-extract")) {
                 if (request != null) {
-                    throw new ProgramArgumentsException("Please specify -embed or -extract only once");
+                    throw new ProgramArgumentsException("Please specify -embed, -extract or -probe only once");
                 }
                 request = ArgumentRequest.Extract;
+            } else if (arg.equalsIgnoreCase("-probe")) {
+                if (request != null) {
+                    throw new ProgramArgumentsException("Please specify -embed, -extract or -probe only once");
+                }
+                request = ArgumentRequest.Probe;
             } else if (arg.equalsIgnoreCase("-in")) {
                 if (messageFile != null) {
                     throw new ProgramArgumentsException("Please specify -in only once");
@@ -96,7 +147,7 @@ public record Arguments(
                     throw new ProgramArgumentsException("Output file may not be empty");
                 }
             } else if (arg.equalsIgnoreCase("-steg")) {
-                if (steganographyMethod != null) {
+                if (steganographyMethod != null || detectMethod) {
                     throw new ProgramArgumentsException("Please specify -steg only once");
                 }
 
@@ -105,19 +156,110 @@ public record Arguments(
                 }
 
                 String methodRaw = args.next();
-                String method = methodRaw.toLowerCase().trim();
-                if (method.startsWith("lsb") && method.length() == 4) {
-                    char ch = method.charAt(3);
-                    if (ch > '0' && ch <= '8') {
-                        steganographyMethod = new LsbxSteganography(ch - '0');
-                    } else if (ch == 'i') {
-                        steganographyMethod = new LsbiSteganography();
-                    }
+                detectMethod = methodRaw.trim().equalsIgnoreCase("auto");
+                steganographyMethod = parseSteganographyMethod(methodRaw);
+                if (steganographyMethod == null && !detectMethod) {
+                    throw new ProgramArgumentsException("Unknown steganography method: " + methodRaw);
+                }
+            } else if (arg.equalsIgnoreCase("-stream")) {
+                if (streaming) {
+                    throw new ProgramArgumentsException("Please specify -stream only once");
+                }
+                streaming = true;
+            } else if (arg.equalsIgnoreCase("-inplace")) {
+                if (inPlace) {
+                    throw new ProgramArgumentsException("Please specify -inplace only once");
+                }
+                inPlace = true;
+            } else if (arg.equalsIgnoreCase("-pipeline")) {
+                if (pipelined) {
+                    throw new ProgramArgumentsException("Please specify -pipeline only once");
+                }
+                pipelined = true;
+            } else if (arg.equalsIgnoreCase("-container")) {
+                if (container) {
+                    throw new ProgramArgumentsException("Please specify -container only once");
+                }
+                container = true;
+            } else if (arg.equalsIgnoreCase("-compress")) {
+                if (compress) {
+                    throw new ProgramArgumentsException("Please specify -compress only once");
+                }
+                compress = true;
+            } else if (arg.equalsIgnoreCase("-scatter")) {
+                if (scatterKey != null) {
+                    throw new ProgramArgumentsException("Please specify -scatter only once");
                 }
 
-                if (steganographyMethod == null) {
-                    throw new ProgramArgumentsException("Unknown steganography method: " + methodRaw);
+                if (!args.hasNext()) {
+                    throw new ProgramArgumentsException("Expected scattering password after -scatter");
+                }
+
+                scatterKey = args.next();
+            } else if (arg.equalsIgnoreCase("-noalpha")) {
+                if (excludeAlpha) {
+                    throw new ProgramArgumentsException("Please specify -noalpha only once");
+                }
+                excludeAlpha = true;
+            } else if (arg.equalsIgnoreCase("-threads")) {
+                if (threads != 0) {
+                    throw new ProgramArgumentsException("Please specify -threads only once");
+                }
+
+                if (!args.hasNext()) {
+                    throw new ProgramArgumentsException("Expected amount of threads after -threads");
+                }
+
+                String threadsRaw = args.next();
+                try {
+                    threads = Integer.parseInt(threadsRaw.trim());
+                } catch (NumberFormatException e) {
+                    throw new ProgramArgumentsException("Invalid amount of threads: " + threadsRaw);
                 }
+
+                if (threads <= 0) {
+                    throw new ProgramArgumentsException("The amount of threads must be greater than 0");
+                }
+            } else if (arg.equalsIgnoreCase("-novector")) {
+                if (!vectorized) {
+                    throw new ProgramArgumentsException("Please specify -novector only once");
+                }
+                vectorized = false;
+            } else if (arg.equalsIgnoreCase("-seed")) {
+                if (seed != null) {
+                    throw new ProgramArgumentsException("Please specify -seed only once");
+                }
+
+                if (!args.hasNext()) {
+                    throw new ProgramArgumentsException("Expected number after -seed");
+                }
+
+                String seedRaw = args.next();
+                try {
+                    seed = Long.parseLong(seedRaw.trim());
+                } catch (NumberFormatException e) {
+                    throw new ProgramArgumentsException("Invalid seed: " + seedRaw);
+                }
+            } else if (arg.equalsIgnoreCase("-offset")) {
+                if (rangeOffset != -1) {
+                    throw new ProgramArgumentsException("Please specify -offset only once");
+                }
+
+                if (!args.hasNext()) {
+                    throw new ProgramArgumentsException("Expected amount of bytes after -offset");
+                }
+
+                rangeOffset = parseByteCount("-offset", args.next());
+            } else if (arg.equalsIgnoreCase("-length")) {
+                if (rangeLength != -1) {
+                    throw new ProgramArgumentsException("Please specify -length only once");
+                }
+
+                if (!args.hasNext()) {
+                    throw new ProgramArgumentsException("Expected amount of bytes after -length");
+                }
+
+                rangeLength = parseByteCount("-length", args.next());
             } else if (arg.equalsIgnoreCase("-a")) {
                 if (encryptionAlgorithm != null) {
                     throw new ProgramArgumentsException("Please specify -a only once");
@@ -169,7 +311,7 @@ public record Arguments(
         }
 
         if (request == null) {
-            throw new ProgramArgumentsException("You must specify an operation with either -embed or -extract");
+            throw new ProgramArgumentsException("You must specify an operation with either -embed, -extract or -probe");
         }
 
         if (carrierFile == null) {
@@ -184,12 +326,110 @@ public record Arguments(
             throw new ProgramArgumentsException("Do not specify an -in file when using -extract");
         }
 
-        if (outputFile == null) {
+        if (outputFile == null && request != ArgumentRequest.Probe && !inPlace) {
             throw new ProgramArgumentsException("You must specify an output file with -out <file>");
         }
 
-        if (steganographyMethod == null) {
-            throw new ProgramArgumentsException("You must specify a steganography method with -steg <LSB1 | LSB2 | ... | LSB7 | LSBI>");
+        if (steganographyMethod == null && !detectMethod && request != ArgumentRequest.Probe) {
+            throw new ProgramArgumentsException("You must specify a steganography method with -steg <LSB1 | LSB2 | ... | LSB8 | LSBI | LSBM>");
+        }
+
+        if (detectMethod && request != ArgumentRequest.Extract) {
+            throw new ProgramArgumentsException("-steg auto can only be used with -extract");
+        }
+
+        if (streaming && request != ArgumentRequest.Embed) {
+            throw new ProgramArgumentsException("-stream can only be used with -embed");
+        }
+
+        if (streaming && !(steganographyMethod instanceof LsbxSteganography)) {
+            throw new ProgramArgumentsException("-stream is only supported by the LSB1 ... LSB8 and LSBM methods");
+        }
+
+        if (inPlace && request != ArgumentRequest.Embed) {
+            throw new ProgramArgumentsException("-inplace can only be used with -embed");
+        }
+
+        if (inPlace && outputFile != null) {
+            throw new ProgramArgumentsException("Do not specify an -out file when using -inplace, the carrier file is modified instead");
+        }
+
+        if (inPlace && streaming) {
+            throw new ProgramArgumentsException("-inplace and -stream can't be used together");
+        }
+
+        if (inPlace && FileUtils.isStandardStream(carrierFile)) {
+            throw new ProgramArgumentsException("-inplace needs a carrier file, so -p can't be standard input");
+        }
+
+        if (pipelined && request != ArgumentRequest.Embed) {
+            throw new ProgramArgumentsException("-pipeline can only be used with -embed");
+        }
+
+        if (pipelined && (streaming || inPlace)) {
+            throw new ProgramArgumentsException("-pipeline can't be used together with -stream or -inplace");
+        }
+
+        if (pipelined && (FileUtils.isStandardStream(carrierFile) || FileUtils.isStandardStream(messageFile) || FileUtils.isStandardStream(outputFile))) {
+            throw new ProgramArgumentsException("-pipeline reads and writes files concurrently, so -p, -in and -out can't be standard streams");
+        }
+
+        if (FileUtils.isStandardStream(carrierFile) && FileUtils.isStandardStream(messageFile)) {
+            throw new ProgramArgumentsException("Only one of -p and -in can be read from standard input");
+        }
+
+        if (request == ArgumentRequest.Probe && (FileUtils.isStandardStream(carrierFile) || FileUtils.isStandardStream(messageFile))) {
+            throw new ProgramArgumentsException("-probe can't read from standard input, as it only reads the headers of the carrier");
+        }
+
+        if (streaming && FileUtils.isStandardStream(messageFile)) {
+            throw new ProgramArgumentsException("-stream needs to know the size of the hidden message upfront, so -in can't be standard input");
+        }
+
+        if (container && request != ArgumentRequest.Embed) {
+            throw new ProgramArgumentsException("-container can only be used with -embed, containers are recognized when extracting");
+        }
+
+        if (container && (streaming || pipelined)) {
+            throw new ProgramArgumentsException("-container can't be used together with -stream or -pipeline");
+        }
+
+        if (compress && !container) {
+            throw new ProgramArgumentsException("-compress can only be used with -container");
+        }
+
+        if (scatterKey != null && (streaming || pipelined)) {
+            throw new ProgramArgumentsException("-scatter can't be used together with -stream or -pipeline, as the message is spread across the whole carrier");
+        }
+
+        if (scatterKey != null && request == ArgumentRequest.Probe) {
+            throw new ProgramArgumentsException("-scatter can only be used with -embed or -extract");
+        }
+
+        if (seed != null && (request != ArgumentRequest.Embed || !(steganographyMethod instanceof LsbmSteganography))) {
+            throw new ProgramArgumentsException("-seed can only be used with -embed and -steg LSBM");
+        }
+
+        if (seed != null) {
+            steganographyMethod = new LsbmSteganography(seed);
+        }
+
+        boolean range = rangeOffset != -1 || rangeLength != -1;
+        if (range && request != ArgumentRequest.Extract) {
+            throw new ProgramArgumentsException("-offset and -length can only be used with -extract");
+        }
+
+        if (range && encryptionPassword != null) {
+            throw new ProgramArgumentsException("-offset and -length can't be used with encryption, as the bytes before the range would have to be decrypted");
+        }
+
+        if (range) {
+            rangeOffset = Math.max(0, rangeOffset);
+            rangeLength = rangeLength == -1 ? Long.MAX_VALUE : rangeLength;
+        }
+
+        if (threads == 0) {
+            threads = 1;
         }
 
         EncryptionOptions encryptionOptions = null;
@@ -210,7 +450,68 @@ public record Arguments(
             encryptionOptions = new EncryptionOptions(encryptionAlgorithm, encryptionMode, encryptionPassword);
         }
 
-        return new Arguments(request, carrierFile, messageFile, outputFile, steganographyMethod, encryptionOptions);
+        Container.Compression compression = !container ? null : compress ? Container.Compression.DEFLATE : Container.Compression.NONE;
+        return new Arguments(request, carrierFile, messageFile, outputFile, steganographyMethod, encryptionOptions, streaming, inPlace, pipelined, excludeAlpha, threads, vectorized, rangeOffset, rangeLength, detectMethod, compression, scatterKey);
+    }
+
+    /**
+     * Parses an amount of bytes given after a flag, which can't be negative.
+     */
+    private static long parseByteCount(String flag, String countRaw) throws ProgramArgumentsException {
+        long count;
+        try {
+            count = Long.parseLong(countRaw.trim());
+        } catch (NumberFormatException e) {
+            throw new ProgramArgumentsException("Invalid amount of bytes after " + flag + ": " + countRaw);
+        }
+
+        if (count < 0) {
+            throw new ProgramArgumentsException("The amount of bytes after " + flag + " can't be negative");
+        }
+
+        return count;
+    }
+
+    /**
+     * Parses the name of a steganography method, such as LSB1, LSBI or LSBM, ignoring case.
+     *
+     * @param methodRaw The name of the method.
+     * @return The steganography method, or null if the name isn't known.
+     */
+    public static SteganographyMethod parseSteganographyMethod(String methodRaw) {
+        String method = methodRaw.toLowerCase().trim();
+        if (method.startsWith("lsb") && method.length() == 4) {
+            char ch = method.charAt(3);
+            if (ch > '0' && ch <= '8') {
+                return new LsbxSteganography(ch - '0');
+            } else if (ch == 'i') {
+                return new LsbiSteganography();
+            } else if (ch == 'm') {
+                return new LsbmSteganography();
+            }
+        }
+
+        return null;
+    }
+
+    /**
+     * Gets the steganography algorithm to use for a carrier with the given amount of bytes per pixel, which hides
+     * information in the alpha channel of 32-bit carriers unless it is excluded.
+     */
+    public SteganographyMethod steganographyMethod(int bytesPerPixel) {
+        return steganographyMethod.withLayout(CarrierLayout.forBitmap(bytesPerPixel, !excludeAlpha));
+    }
+
+    /**
+     * Gets every steganography algorithm for a carrier with the given amount of bytes per pixel, in the same order as
+     * {@link #STEGANOGRAPHY_METHODS}, such as for detecting which of them was used.
+     */
+    public SteganographyMethod[] steganographyMethods(int bytesPerPixel) {
+        SteganographyMethod[] methods = new SteganographyMethod[STEGANOGRAPHY_METHODS.length];
+        for (int i = 0; i < methods.length; i++) {
+            methods[i] = parseSteganographyMethod(STEGANOGRAPHY_METHODS[i]).withLayout(CarrierLayout.forBitmap(bytesPerPixel, !excludeAlpha));
+        }
+        return methods;
     }
 
     /**
@@ -246,7 +547,7 @@ public record Arguments(
     }
 
     /**
-     * The steganography algorithm to use.
+     * The steganography algorithm to use, or null if it should be detected.
      */
     @Override
     public SteganographyMethod steganographyMethod() {
@@ -260,4 +561,101 @@ public record Arguments(
     public EncryptionOptions encryptionOptions() {
         return encryptionOptions;
     }
+
+    /**
+     * Whether to embed by streaming the carrier row by row instead of loading it in memory.
+     */
+    @Override
+    public boolean streaming() {
+        return streaming;
+    }
+
+    /**
+     * Whether to embed by rewriting only the modified pixels of the carrier file itself.
+     */
+    @Override
+    public boolean inPlace() {
+        return inPlace;
+    }
+
+    /**
+     * Whether to embed by running reading, key derivation, embedding and writing concurrently.
+     */
+    @Override
+    public boolean pipelined() {
+        return pipelined;
+    }
+
+    /**
+     * Whether to leave the alpha channel of 32-bit carriers intact.
+     */
+    @Override
+    public boolean excludeAlpha() {
+        return excludeAlpha;
+    }
+
+    /**
+     * The amount of threads to hide or extract the message with, which is 1 unless given with -threads.
+     */
+    @Override
+    public int threads() {
+        return threads;
+    }
+
+    /**
+     * Whether to process the carrier with the Vector API where it's available, which is true unless given -novector.
+     */
+    @Override
+    public boolean vectorized() {
+        return vectorized;
+    }
+
+    /**
+     * The index in the hidden message of the first byte to extract, or -1 to extract all of it.
+     */
+    @Override
+    public long rangeOffset() {
+        return rangeOffset;
+    }
+
+    /**
+     * The maximum amount of bytes of the hidden message to extract from rangeOffset, which is unbounded unless given
+     * with -length.
+     */
+    @Override
+    public long rangeLength() {
+        return rangeLength;
+    }
+
+    /**
+     * Whether to find out which steganography algorithm was used, given with -steg auto.
+     */
+    @Override
+    public boolean detectMethod() {
+        return detectMethod;
+    }
+
+    /**
+     * How to compress the message when embedding it in a version 2 container, or null to embed it in the legacy
+     * layout.
+     */
+    @Override
+    public Container.Compression container() {
+        return container;
+    }
+
+    /**
+     * The password that scatters the message across the pixels of the carrier, or null to hide it in the first pixels.
+     */
+    @Override
+    public String scatterKey() {
+        return scatterKey;
+    }
+
+    /**
+     * Whether only a range of the hidden message should be extracted, given with -offset and -length.
+     */
+    public boolean isRange() {
+        return rangeOffset != -1;
+    }
 }
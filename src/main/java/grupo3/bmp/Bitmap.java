@@ -3,62 +3,322 @@ package grupo3.bmp;
 import grupo3.bmp.file.BmpFileHeader;
 import grupo3.bmp.file.BmpInfoHeader;
 import grupo3.exceptions.BmpException;
+import grupo3.utils.BufferPool;
+import grupo3.utils.FileUtils;
+import grupo3.utils.LongByteBuffer;
 import grupo3.utils.StreamUtils;
 
 import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.AccessDeniedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
 
 public class Bitmap {
+    /**
+     * Zeroes used for writing row padding in bulk. A row is never padded by more than 3 bytes.
+     */
+    private static final byte[] PADDING = new byte[3];
+
+    /**
+     * The largest pixel array that is loaded into a heap array. Larger ones are stored off-heap.
+     */
+    private static final long MAX_ARRAY_SIZE = Integer.MAX_VALUE - 8;
+
+    /**
+     * The size of the buffers used for copying the pixels of bitmaps stored off-heap.
+     */
+    private static final int COPY_BUFFER_SIZE = 1 << 20;
+
     private final int width;
     private final int height;
+    private final int bytesPerPixel;
     private final byte[] data;
+    private final LongByteBuffer pixels;
     private final BmpFileHeader fileHeader;
     private final BmpInfoHeader infoHeader;
 
+    /**
+     * The bytes between the first 40 bytes of the info header and the pixel array, see
+     * {@link BitmapHeaders#getHeaderGap()}.
+     */
+    private final byte[] headerGap;
+
+    /**
+     * The pool the pixel array was borrowed from, or null if it wasn't borrowed or has already been returned.
+     */
+    private BufferPool pool;
+
     public Bitmap(int width, int height, byte[] data, BmpFileHeader fileHeader, BmpInfoHeader infoHeader) {
-        if (width * height * 3 != data.length) {
-            throw new IllegalArgumentException("The length of the data array must equal width*height*3");
+        this(width, height, data, fileHeader, infoHeader, new byte[0], null);
+    }
+
+    private Bitmap(int width, int height, byte[] data, BitmapHeaders headers, BufferPool pool) {
+        this(width, height, data, headers.getFileHeader(), headers.getInfoHeader(), headers.getHeaderGap(), pool);
+    }
+
+    private Bitmap(int width, int height, byte[] data, BmpFileHeader fileHeader, BmpInfoHeader infoHeader, byte[] headerGap, BufferPool pool) {
+        int bytesPerPixel = getBytesPerPixel(infoHeader);
+        if ((long) width * height * bytesPerPixel != data.length) {
+            throw new IllegalArgumentException("The length of the data array must equal width*height*" + bytesPerPixel);
         }
 
         this.width = width;
         this.height = height;
+        this.bytesPerPixel = bytesPerPixel;
         this.data = data;
+        this.pixels = LongByteBuffer.wrap(data);
         this.fileHeader = fileHeader;
         this.infoHeader = infoHeader;
+        this.headerGap = headerGap;
+        this.pool = pool;
+    }
+
+    /**
+     * Creates a bitmap whose pixels are stored in a LongByteBuffer, such as those too large to be held in an array.
+     */
+    public Bitmap(int width, int height, LongByteBuffer pixels, BmpFileHeader fileHeader, BmpInfoHeader infoHeader) {
+        this(width, height, pixels, new BitmapHeaders(fileHeader, infoHeader));
+    }
+
+    private Bitmap(int width, int height, LongByteBuffer pixels, BitmapHeaders headers) {
+        BmpInfoHeader infoHeader = headers.getInfoHeader();
+        int bytesPerPixel = getBytesPerPixel(infoHeader);
+        if ((long) width * height * bytesPerPixel != pixels.size()) {
+            throw new IllegalArgumentException("The size of the pixel buffer must equal width*height*" + bytesPerPixel);
+        }
+
+        this.width = width;
+        this.height = height;
+        this.bytesPerPixel = bytesPerPixel;
+        this.data = null;
+        this.pixels = pixels;
+        this.fileHeader = headers.getFileHeader();
+        this.infoHeader = infoHeader;
+        this.headerGap = headers.getHeaderGap();
     }
 
     public Bitmap(int width, int height, byte[] data) {
-        this(width, height, data, null, null);
+        this(width, height, data, (BmpFileHeader) null, null);
+    }
+
+    /**
+     * Calculates the amount of zero bytes appended after each row of 24-bit pixels so rows are aligned to 4 bytes.
+     */
+    public static int getPaddingSize(int width) {
+        return getPaddingSize(width, 3);
+    }
+
+    /**
+     * Calculates the amount of zero bytes appended after each row of pixels so rows are aligned to 4 bytes. Rows of
+     * 32-bit pixels are always aligned, so they're never padded.
+     */
+    public static int getPaddingSize(int width, int bytesPerPixel) {
+        return (4 - (width * bytesPerPixel) % 4) % 4;
+    }
+
+    /**
+     * Gets the amount of bytes each pixel takes up according to a header, which is 3 if there is no header.
+     *
+     * @throws BmpException If the bitmap doesn't have 24 or 32 bits per pixel.
+     */
+    public static int getBytesPerPixel(BmpInfoHeader infoHeader) {
+        if (infoHeader == null || infoHeader.bitCount == 24) {
+            return 3;
+        } else if (infoHeader.bitCount == 32) {
+            return 4;
+        }
+
+        throw new BmpException("Only bitmaps with 24 or 32 bits per pixel are supported, but this one has " + infoHeader.bitCount);
     }
 
+    /**
+     * Reads a bitmap from a file by memory-mapping it, rather than reading it through a stream. If the filename is
+     * "-", the bitmap is read from standard input instead.
+     * <p>
+     * Files too large for their pixels to fit in an array are stored off-heap instead. If their rows have no padding,
+     * the pixel array of the file is mapped privately (copy-on-write), so it isn't copied at all.
+     */
     public static Bitmap readFromFile(String filename) throws IOException {
-        try (InputStream stream = new FileInputStream(filename)) {
-            return readFromStream(stream);
+        if (FileUtils.isStandardStream(filename)) {
+            try (InputStream stream = FileUtils.openInputStream(filename)) {
+                return readFromStream(stream);
+            }
+        }
+
+        try (FileChannel channel = FileChannel.open(Path.of(filename), StandardOpenOption.READ)) {
+            if (channel.size() > MAX_ARRAY_SIZE) {
+                return readLargeFromChannel(channel, Path.of(filename));
+            }
+
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            return readFromBuffer(buffer);
         }
     }
 
-    public static Bitmap readFromStream(InputStream stream) throws IOException {
-        BmpFileHeader fileHeader = BmpFileHeader.readFrom(stream);
-        BmpInfoHeader infoHeader = BmpInfoHeader.readFrom(stream);
+    private static Bitmap readLargeFromChannel(FileChannel channel, Path path) throws IOException {
+        BitmapHeaders headers = BitmapHeaders.readFrom(channel);
+        BmpFileHeader fileHeader = headers.getFileHeader();
+        BmpInfoHeader infoHeader = headers.getInfoHeader();
 
-        if (infoHeader.width <= 0 || infoHeader.height <= 0) {
-            throw new BmpException("The width and height in the file header must be greater than 0");
+        int bytesPerPixel = getBytesPerPixel(infoHeader);
+        if ((long) infoHeader.width * bytesPerPixel > MAX_ARRAY_SIZE) {
+            throw new BmpException("The image is too wide to be loaded: " + infoHeader.width);
         }
 
-        int widthInBytes = infoHeader.width * 3;
-        int paddingSize = (4 - (widthInBytes) % 4) % 4;
-        int stride = infoHeader.width * 3;
+        int paddingSize = getPaddingSize(infoHeader.width, bytesPerPixel);
+        int stride = infoHeader.width * bytesPerPixel;
+        long size = (long) stride * infoHeader.height;
+        if (channel.size() < fileHeader.offBits + (long) (stride + paddingSize) * infoHeader.height - paddingSize) {
+            throw new EOFException("The file ended unexpectedly");
+        }
 
-        byte[] data = new byte[infoHeader.width * infoHeader.height * 3];
+        LongByteBuffer pixels = null;
+        if (paddingSize == 0) {
+            // Private mappings require a channel opened for writing, even though the file itself is never modified
+            try (FileChannel writable = FileChannel.open(path, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+                pixels = LongByteBuffer.map(writable, FileChannel.MapMode.PRIVATE, fileHeader.offBits, size);
+            } catch (AccessDeniedException e) {
+                // Fall back to copying the pixels
+            }
+        }
 
-        StreamUtils.readIgnore(stream, fileHeader.offBits - BmpFileHeader.SIZE - BmpInfoHeader.SIZE);
-        fileHeader.offBits = BmpFileHeader.SIZE + BmpInfoHeader.SIZE;
+        if (pixels == null) {
+            pixels = LongByteBuffer.allocateDirect(size);
+            InputStream stream = new BufferedInputStream(Channels.newInputStream(channel.position(fileHeader.offBits)), COPY_BUFFER_SIZE);
+            byte[] buffer = new byte[Math.min(stride, COPY_BUFFER_SIZE)];
+            for (long row = 0; row < infoHeader.height; row++) {
+                for (int copied = 0; copied < stride; copied += buffer.length) {
+                    int count = Math.min(buffer.length, stride - copied);
+                    StreamUtils.readExact(stream, buffer, 0, count);
+                    pixels.put(row * stride + copied, buffer, 0, count);
+                }
+
+                StreamUtils.readIgnore(stream, paddingSize);
+            }
+        }
+
+        return new Bitmap(infoHeader.width, infoHeader.height, pixels, headers);
+    }
+
+    /**
+     * Reads only the rows of a bitmap file that hold the first <code>size</code> bytes of its pixels, without reading
+     * the rest of the file. The returned pixels are made up of whole rows, so there may be more than requested, or
+     * fewer if the bitmap doesn't have that many.
+     * <p>
+     * If the rows have no padding, the pixels are mapped straight from the file instead of being copied. Otherwise,
+     * they're copied into an array borrowed from {@link BufferPool#shared()}, which can be returned to it once done.
+     */
+    public static LongByteBuffer readPixelsFromFile(String filename, long size) throws IOException {
+        try (FileChannel channel = FileChannel.open(Path.of(filename), StandardOpenOption.READ)) {
+            BitmapHeaders headers = BitmapHeaders.readFrom(channel);
+            int paddingSize = getPaddingSize(headers.getWidth(), headers.getBytesPerPixel());
+            long stride = (long) headers.getWidth() * headers.getBytesPerPixel();
+            long rowSize = stride + paddingSize;
+            long rows = Math.min(headers.getHeight(), (Math.max(0, size) + stride - 1) / stride);
+            if (rows == 0) {
+                return LongByteBuffer.wrap(new byte[0]);
+            }
+
+            long mappedSize = rows * rowSize - paddingSize;
+            if (channel.size() < headers.getFileHeader().offBits + mappedSize) {
+                throw new EOFException("The file ended unexpectedly");
+            }
+
+            LongByteBuffer source = LongByteBuffer.map(channel, FileChannel.MapMode.READ_ONLY, headers.getFileHeader().offBits, mappedSize);
+            if (paddingSize == 0) {
+                return source;
+            }
+
+            long length = rows * stride;
+            LongByteBuffer pixels = length <= MAX_ARRAY_SIZE ? LongByteBuffer.wrap(BufferPool.shared().borrowArray((int) length)) : LongByteBuffer.allocateDirect(length);
+            byte[] buffer = new byte[(int) Math.min(stride, COPY_BUFFER_SIZE)];
+            for (long row = 0; row < rows; row++) {
+                for (long copied = 0; copied < stride; copied += buffer.length) {
+                    int count = (int) Math.min(buffer.length, stride - copied);
+                    source.get(row * rowSize + copied, buffer, 0, count);
+                    pixels.put(row * stride + copied, buffer, 0, count);
+                }
+            }
+
+            return pixels;
+        }
+    }
+
+    /**
+     * Reads a bitmap from a stream. Both headers are read with a single bulk read, followed by the gap after them, and
+     * the padding after each row is skipped rather than read.
+     * <p>
+     * The pixel array is borrowed from {@link BufferPool#shared()}, see {@link #release()}.
+     */
+    public static Bitmap readFromStream(InputStream stream) throws IOException {
+        BitmapHeaders headers = BitmapHeaders.readFrom(stream);
+        BmpInfoHeader infoHeader = headers.getInfoHeader();
+        validateInfoHeader(infoHeader);
+
+        int bytesPerPixel = getBytesPerPixel(infoHeader);
+        int paddingSize = getPaddingSize(infoHeader.width, bytesPerPixel);
+        int stride = infoHeader.width * bytesPerPixel;
+
+        BufferPool pool = BufferPool.shared();
+        byte[] data = pool.borrowArray(infoHeader.width * infoHeader.height * bytesPerPixel);
 
         for (int i = 0; i < infoHeader.height; i++) {
             StreamUtils.readExact(stream, data, i * stride, stride);
             StreamUtils.readIgnore(stream, paddingSize);
         }
 
-        return new Bitmap(infoHeader.width, infoHeader.height, data, fileHeader, infoHeader);
+        return new Bitmap(infoHeader.width, infoHeader.height, data, headers, pool);
+    }
+
+    /**
+     * Reads a bitmap from a buffer, starting at its current position. Each row of pixels is copied with a single bulk
+     * operation, and the padding after each row is skipped without being read.
+     * <p>
+     * The pixel array is borrowed from {@link BufferPool#shared()}, see {@link #release()}.
+     */
+    public static Bitmap readFromBuffer(ByteBuffer buffer) throws IOException {
+        int start = buffer.position();
+        buffer.order(ByteOrder.LITTLE_ENDIAN);
+        BitmapHeaders headers = BitmapHeaders.readFrom(buffer);
+        BmpFileHeader fileHeader = headers.getFileHeader();
+        BmpInfoHeader infoHeader = headers.getInfoHeader();
+        validateInfoHeader(infoHeader);
+
+        int bytesPerPixel = getBytesPerPixel(infoHeader);
+        int paddingSize = getPaddingSize(infoHeader.width, bytesPerPixel);
+        int stride = infoHeader.width * bytesPerPixel;
+
+        if (buffer.limit() - start < fileHeader.offBits + (long) (stride + paddingSize) * infoHeader.height - paddingSize) {
+            throw new EOFException("The file ended unexpectedly");
+        }
+
+        BufferPool pool = BufferPool.shared();
+        byte[] data = pool.borrowArray(infoHeader.width * infoHeader.height * bytesPerPixel);
+
+        int rowStart = start + fileHeader.offBits;
+        for (int i = 0; i < infoHeader.height; i++) {
+            buffer.get(rowStart, data, i * stride, stride);
+            rowStart += stride + paddingSize;
+        }
+
+        buffer.position(Math.min(rowStart, buffer.limit()));
+        return new Bitmap(infoHeader.width, infoHeader.height, data, headers, pool);
+    }
+
+    private static void validateInfoHeader(BmpInfoHeader infoHeader) {
+        if (infoHeader.width <= 0 || infoHeader.height <= 0) {
+            throw new BmpException("The width and height in the file header must be greater than 0");
+        }
+
+        if ((long) infoHeader.width * infoHeader.height * getBytesPerPixel(infoHeader) > MAX_ARRAY_SIZE) {
+            throw new BmpException("The image is too large to be loaded: " + infoHeader.width + "x" + infoHeader.height);
+        }
     }
 
     public int getWidth() {
@@ -69,10 +329,45 @@ public class Bitmap {
         return height;
     }
 
+    /**
+     * Gets the amount of bytes each pixel takes up, which is 3 for 24-bit bitmaps and 4 for 32-bit ones.
+     */
+    public int getBytesPerPixel() {
+        return bytesPerPixel;
+    }
+
+    /**
+     * Gets the pixels of this bitmap as an array, which is no longer valid once the bitmap is {@link #release()}d.
+     *
+     * @throws BmpException If the pixels are too large to be stored in an array, in which case only
+     *                      {@link #getPixels()} is available.
+     */
     public byte[] getData() {
+        if (data == null) {
+            throw new BmpException("The bitmap is too large to be stored in an array");
+        }
+
         return data;
     }
 
+    /**
+     * Gets the pixels of this bitmap. If the pixels are stored in an array, the returned buffer is backed by it.
+     */
+    public LongByteBuffer getPixels() {
+        return pixels;
+    }
+
+    /**
+     * Returns the pixel array of this bitmap to the pool it was borrowed from, if any, so it can be reused when reading
+     * other bitmaps. Neither this bitmap nor its pixels can be used afterwards.
+     */
+    public void release() {
+        if (pool != null) {
+            pool.release(data);
+            pool = null;
+        }
+    }
+
     public BmpFileHeader getFileHeader() {
         return fileHeader;
     }
@@ -81,36 +376,313 @@ public class Bitmap {
         return infoHeader;
     }
 
+    /**
+     * Gets the headers this bitmap is written with, whose file header has the size and pixel array offset of the
+     * written file.
+     */
+    public BitmapHeaders getHeaders() {
+        return new BitmapHeaders(resolveFileHeader(), resolveInfoHeader(), headerGap);
+    }
+
+    /**
+     * Writes this bitmap to a file by memory-mapping the output, rather than writing it through a stream. If the
+     * filename is "-", the bitmap is written to standard output instead.
+     * <p>
+     * The bitmap is written to a new file next to the output, which then replaces it. The pixels of large bitmaps may be
+     * mapped from the file they were read from, so that file must not be truncated while they're being written, even
+     * when it's the output itself.
+     */
     public void writeToFile(String filename) throws IOException {
-        try (OutputStream stream = new FileOutputStream(filename)) {
-            writeToStream(stream);
+        if (FileUtils.isStandardStream(filename)) {
+            try (OutputStream stream = FileUtils.openOutputStream(filename)) {
+                writeToStream(stream);
+            }
+            return;
+        }
+
+        Path output = Path.of(filename);
+        Path temporaryFile = FileUtils.createSiblingFile(output);
+        try {
+            writeToPath(temporaryFile);
+            FileUtils.replaceFile(temporaryFile, output);
+        } finally {
+            Files.deleteIfExists(temporaryFile);
+        }
+    }
+
+    private void writeToPath(Path path) throws IOException {
+        if (data == null) {
+            try (OutputStream stream = new BufferedOutputStream(Files.newOutputStream(path), COPY_BUFFER_SIZE)) {
+                writeToStream(stream);
+            }
+            return;
+        }
+
+        BmpFileHeader fileHeader = resolveFileHeader();
+        long fileSize = fileHeader.offBits + (long) (this.width * this.bytesPerPixel + getPaddingSize(this.width, this.bytesPerPixel)) * this.height;
+
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.CREATE,
+                StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, fileSize);
+            writeToBuffer(buffer);
+        }
+    }
+
+    /**
+     * Writes this bitmap to a file, taking only the rows that may have been modified from memory. The rest of the rows
+     * are copied from the file this bitmap was read from with {@link FileChannel#transferTo}, so the kernel copies them
+     * without them ever reaching the heap.
+     * <p>
+     * If the output is standard output or the same file as the source, the whole bitmap is written from memory, see
+     * {@link #writeToFile(String)}.
+     *
+     * @param filename     The file to write to.
+     * @param sourceFile   The file this bitmap was read from.
+     * @param modifiedSize The amount of bytes at the start of the pixels that may differ from those in the source.
+     */
+    public void writeToFile(String filename, String sourceFile, long modifiedSize) throws IOException {
+        if (FileUtils.isStandardStream(filename) || FileUtils.isStandardStream(sourceFile)
+                || (Files.exists(Path.of(filename)) && Files.isSameFile(Path.of(filename), Path.of(sourceFile)))) {
+            writeToFile(filename);
+            return;
+        }
+
+        try (FileChannel source = FileChannel.open(Path.of(sourceFile), StandardOpenOption.READ)) {
+            readMatchingHeaders(source);
+        }
+
+        try (FileChannel output = FileChannel.open(Path.of(filename), StandardOpenOption.CREATE,
+                StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+            copyUnmodifiedRows(sourceFile, output, resolveFileHeader().offBits, modifiedSize);
+            writeModifiedRows(output, modifiedSize);
+        }
+    }
+
+    /**
+     * Copies the rows of a bitmap file past the ones that hold the given amount of bytes of pixels into another file,
+     * with {@link FileChannel#transferTo}. They are placed where {@link #writeModifiedRows} would have placed them,
+     * so both can be called in any order, or at the same time.
+     *
+     * @param sourceFile   The bitmap file to copy the rows from.
+     * @param output       The channel of the file to copy the rows to.
+     * @param outputOffset The position in the output at which the pixel array starts.
+     * @param modifiedSize The amount of bytes at the start of the pixels that are not copied.
+     */
+    public static void copyUnmodifiedRows(String sourceFile, FileChannel output, long outputOffset, long modifiedSize) throws IOException {
+        try (FileChannel source = FileChannel.open(Path.of(sourceFile), StandardOpenOption.READ)) {
+            BitmapHeaders headers = BitmapHeaders.readFrom(source);
+            int width = headers.getWidth();
+            int height = headers.getHeight();
+            int paddingSize = getPaddingSize(width, headers.getBytesPerPixel());
+            long stride = (long) width * headers.getBytesPerPixel();
+            long rowSize = stride + paddingSize;
+            int modifiedRows = getModifiedRows(stride, height, modifiedSize);
+            if (modifiedRows == height) {
+                return;
+            }
+
+            // The padding of the last row may be missing from the source, so it's written separately
+            long position = headers.getFileHeader().offBits + modifiedRows * rowSize;
+            long end = headers.getFileHeader().offBits + height * rowSize - paddingSize;
+            if (source.size() < end) {
+                throw new EOFException("The file ended unexpectedly");
+            }
+
+            long target = outputOffset + modifiedRows * rowSize;
+            while (position < end) {
+                long transferred = source.transferTo(position, end - position, output.position(target));
+                if (transferred <= 0) {
+                    throw new EOFException("The file ended unexpectedly");
+                }
+
+                position += transferred;
+                target += transferred;
+            }
+
+            writeFully(output, ByteBuffer.wrap(PADDING, 0, paddingSize), target);
+        }
+    }
+
+    /**
+     * Writes the headers of this bitmap and the rows that hold the given amount of bytes of pixels into a file. The
+     * rest of the rows are left for {@link #copyUnmodifiedRows} to write.
+     *
+     * @param output       The channel of the file to write to.
+     * @param modifiedSize The amount of bytes at the start of the pixels that may have been modified.
+     */
+    public void writeModifiedRows(FileChannel output, long modifiedSize) throws IOException {
+        int rowSize = this.width * this.bytesPerPixel + getPaddingSize(this.width, this.bytesPerPixel);
+        int modifiedRows = getModifiedRows((long) this.width * this.bytesPerPixel, this.height, modifiedSize);
+
+        BitmapHeaders headers = getHeaders();
+        ByteBuffer headerBuffer = ByteBuffer.allocate(headers.getSize()).order(ByteOrder.LITTLE_ENDIAN);
+        headers.writeTo(headerBuffer);
+        writeFully(output, headerBuffer.flip(), 0);
+
+        // Write the modified rows from memory, a direct buffer at a time, so the channel doesn't copy them again
+        int stride = this.width * this.bytesPerPixel;
+        int paddingSize = rowSize - stride;
+        int rowsPerBuffer = Math.max(1, COPY_BUFFER_SIZE / rowSize);
+        ByteBuffer buffer = BufferPool.shared().borrowDirect(rowsPerBuffer * rowSize);
+        try {
+            long position = headers.getSize();
+            int row = 0;
+            while (row < modifiedRows) {
+                int rows = Math.min(modifiedRows - row, rowsPerBuffer);
+                buffer.clear();
+                for (int i = 0; i < rows; i++) {
+                    this.pixels.get((long) (row + i) * stride, buffer, stride);
+                    buffer.put(PADDING, 0, paddingSize);
+                }
+
+                writeFully(output, buffer.flip(), position);
+                position += (long) rows * rowSize;
+                row += rows;
+            }
+        } finally {
+            BufferPool.shared().release(buffer);
+        }
+    }
+
+    /**
+     * Writes the rows of this bitmap that may have been modified back into the file it was read from, leaving the rest
+     * of the file untouched. Neither the headers nor the padding of each row are written.
+     *
+     * @param filename     The file this bitmap was read from.
+     * @param modifiedSize The amount of bytes at the start of the pixels that may differ from those in the file.
+     */
+    public void writeInPlace(String filename, long modifiedSize) throws IOException {
+        try (FileChannel channel = FileChannel.open(Path.of(filename), StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            BmpFileHeader sourceHeader = readMatchingHeaders(channel).getFileHeader();
+            int stride = this.width * this.bytesPerPixel;
+            int rowSize = stride + getPaddingSize(this.width, this.bytesPerPixel);
+            int modifiedRows = getModifiedRows((long) this.width * this.bytesPerPixel, this.height, modifiedSize);
+            if (modifiedRows == 0) {
+                return;
+            }
+
+            LongByteBuffer target = LongByteBuffer.map(channel, FileChannel.MapMode.READ_WRITE, sourceHeader.offBits,
+                    (long) modifiedRows * rowSize - getPaddingSize(this.width, this.bytesPerPixel));
+            byte[] buffer = this.data != null ? this.data : new byte[Math.min(stride, COPY_BUFFER_SIZE)];
+            for (long row = 0; row < modifiedRows; row++) {
+                if (this.data != null) {
+                    target.put(row * rowSize, this.data, (int) (row * stride), stride);
+                    continue;
+                }
+
+                for (int copied = 0; copied < stride; copied += buffer.length) {
+                    int count = Math.min(buffer.length, stride - copied);
+                    this.pixels.get(row * stride + copied, buffer, 0, count);
+                    target.put(row * rowSize + copied, buffer, 0, count);
+                }
+            }
+        }
+    }
+
+    /**
+     * Reads the headers of the file this bitmap was read from, checking they describe a bitmap of the same size.
+     */
+    private BitmapHeaders readMatchingHeaders(FileChannel channel) throws IOException {
+        BitmapHeaders headers = BitmapHeaders.readFrom(channel);
+        if (headers.getWidth() != this.width || headers.getHeight() != this.height) {
+            throw new BmpException("The source file has a size of " + headers.getWidth() + "x" + headers.getHeight()
+                    + " instead of " + this.width + "x" + this.height);
+        }
+
+        long rowSize = (long) this.width * this.bytesPerPixel + getPaddingSize(this.width, this.bytesPerPixel);
+        if (channel.size() < headers.getFileHeader().offBits + rowSize * this.height - getPaddingSize(this.width, this.bytesPerPixel)) {
+            throw new EOFException("The file ended unexpectedly");
+        }
+
+        return headers;
+    }
+
+    /**
+     * Calculates how many rows contain the given amount of bytes at the start of the pixels.
+     */
+    private static int getModifiedRows(long stride, int height, long modifiedSize) {
+        return (int) Math.min(height, (Math.max(0, modifiedSize) + stride - 1) / stride);
+    }
+
+    private static void writeFully(FileChannel channel, ByteBuffer buffer, long position) throws IOException {
+        while (buffer.hasRemaining()) {
+            position += channel.write(buffer, position);
         }
     }
 
     public void writeToStream(OutputStream stream) throws IOException {
-        int widthInBytes = this.width * 3;
-        int paddingSize = (4 - (widthInBytes) % 4) % 4;
+        int paddingSize = getPaddingSize(this.width, this.bytesPerPixel);
 
-        BmpFileHeader fileHeader = this.fileHeader;
-        if (fileHeader == null) {
-            fileHeader = new BmpFileHeader(
-                    BmpFileHeader.SIZE + BmpInfoHeader.SIZE + widthInBytes * this.height,
-                    BmpFileHeader.SIZE + BmpInfoHeader.SIZE
-            );
+        resolveFileHeader().writeTo(stream);
+        resolveInfoHeader().writeTo(stream);
+        stream.write(headerGap);
+
+        int stride = this.width * this.bytesPerPixel;
+        if (this.data != null) {
+            for (int i = 0; i < this.height; i++) {
+                stream.write(this.data, i * stride, stride);
+                stream.write(PADDING, 0, paddingSize);
+            }
+            return;
         }
 
-        BmpInfoHeader infoHeader = this.infoHeader;
-        if (infoHeader == null) {
-            infoHeader = new BmpInfoHeader(this.width, this.height);
+        byte[] buffer = new byte[Math.min(stride, COPY_BUFFER_SIZE)];
+        for (long row = 0; row < this.height; row++) {
+            for (int copied = 0; copied < stride; copied += buffer.length) {
+                int count = Math.min(buffer.length, stride - copied);
+                this.pixels.get(row * stride + copied, buffer, 0, count);
+                stream.write(buffer, 0, count);
+            }
+
+            stream.write(PADDING, 0, paddingSize);
         }
+    }
+
+    /**
+     * Writes this bitmap to a buffer, starting at its current position. The buffer must have enough space remaining
+     * for the headers, the gap between them and the pixel array, and all the padded rows.
+     */
+    public void writeToBuffer(ByteBuffer buffer) {
+        byte[] data = getData();
+        int start = buffer.position();
+        buffer.order(ByteOrder.LITTLE_ENDIAN);
 
-        fileHeader.writeTo(stream);
-        infoHeader.writeTo(stream);
+        BmpFileHeader fileHeader = resolveFileHeader();
+        fileHeader.writeTo(buffer);
+        resolveInfoHeader().writeTo(buffer);
+        buffer.put(headerGap);
 
-        int stride = this.width * 3;
+        int paddingSize = getPaddingSize(this.width, this.bytesPerPixel);
+        int stride = this.width * this.bytesPerPixel;
+        int rowStart = start + fileHeader.offBits;
         for (int i = 0; i < this.height; i++) {
-            stream.write(this.data, i * stride, stride);
-            StreamUtils.writeZeroes(stream, paddingSize);
+            buffer.put(rowStart, data, i * stride, stride);
+            buffer.put(rowStart + stride, PADDING, 0, paddingSize);
+            rowStart += stride + paddingSize;
         }
+
+        buffer.position(rowStart);
+    }
+
+    /**
+     * Creates the file header this bitmap is written with, keeping the fields of the one it was read with, if any, but
+     * with the size and pixel array offset of the written file. Bitmaps are always written without a gap between the
+     * pixel array and the end of the file, so both may differ from those of the file the bitmap was read from.
+     */
+    private BmpFileHeader resolveFileHeader() {
+        int offBits = BmpFileHeader.SIZE + BmpInfoHeader.SIZE + this.headerGap.length;
+        long rowSize = (long) this.width * this.bytesPerPixel + getPaddingSize(this.width, this.bytesPerPixel);
+
+        // The size is unsigned, so files of up to 4 GB still get the right one
+        int size = (int) (offBits + rowSize * this.height);
+        if (this.fileHeader == null) {
+            return new BmpFileHeader(size, offBits);
+        }
+
+        return new BmpFileHeader(this.fileHeader.type, size, this.fileHeader.reserved1, this.fileHeader.reserved2, offBits);
+    }
+
+    private BmpInfoHeader resolveInfoHeader() {
+        return this.infoHeader != null ? this.infoHeader : new BmpInfoHeader(this.width, this.height);
     }
 }
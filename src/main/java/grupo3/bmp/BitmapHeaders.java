@@ -0,0 +1,219 @@
+package grupo3.bmp;
+
+import grupo3.bmp.file.BmpFileHeader;
+import grupo3.bmp.file.BmpInfoHeader;
+import grupo3.exceptions.BmpException;
+import grupo3.utils.FileUtils;
+import grupo3.utils.StreamUtils;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * The headers of a bitmap file, which can be read on their own to learn about the bitmap without loading its pixels.
+ */
+public class BitmapHeaders {
+    /**
+     * The compression of bitmaps whose pixels are stored as-is.
+     */
+    public static final int BI_RGB = 0;
+
+    /**
+     * The compression of bitmaps whose pixels are stored as-is, with masks telling which bits hold each channel. These
+     * are usually 32-bit bitmaps with a V4 or V5 info header.
+     */
+    public static final int BI_BITFIELDS = 3;
+
+    /**
+     * The largest gap between the info header and the pixel array that is kept. Bitmaps with a larger one are rejected
+     * rather than written back without it.
+     */
+    public static final int MAX_HEADER_GAP = 1 << 20;
+
+    private final BmpFileHeader fileHeader;
+    private final BmpInfoHeader infoHeader;
+
+    /**
+     * The bytes between the first 40 bytes of the info header and the pixel array, such as the rest of a V4 or V5
+     * header and the channel masks of BI_BITFIELDS bitmaps, which are written back as-is.
+     */
+    private final byte[] headerGap;
+
+    public BitmapHeaders(BmpFileHeader fileHeader, BmpInfoHeader infoHeader) {
+        this(fileHeader, infoHeader, new byte[0]);
+    }
+
+    public BitmapHeaders(BmpFileHeader fileHeader, BmpInfoHeader infoHeader, byte[] headerGap) {
+        this.fileHeader = fileHeader;
+        this.infoHeader = infoHeader;
+        this.headerGap = headerGap;
+    }
+
+    /**
+     * Reads only the headers of a bitmap file.
+     */
+    public static BitmapHeaders readFromFile(String filename) throws IOException {
+        if (FileUtils.isStandardStream(filename)) {
+            throw new BmpException("The headers of standard input can't be read on their own");
+        }
+
+        try (FileChannel channel = FileChannel.open(Path.of(filename), StandardOpenOption.READ)) {
+            return readFrom(channel);
+        }
+    }
+
+    /**
+     * Reads the headers of a bitmap from a channel, at its current position, along with the gap after them. The
+     * channel is left at the start of the pixel array.
+     */
+    public static BitmapHeaders readFrom(ReadableByteChannel channel) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(BmpFileHeader.SIZE + BmpInfoHeader.SIZE).order(ByteOrder.LITTLE_ENDIAN);
+        readFully(channel, buffer);
+
+        buffer.flip();
+        BmpFileHeader fileHeader = BmpFileHeader.readFrom(buffer);
+        BmpInfoHeader infoHeader = BmpInfoHeader.readFrom(buffer);
+        byte[] headerGap = new byte[validate(fileHeader, infoHeader)];
+        readFully(channel, ByteBuffer.wrap(headerGap));
+        return new BitmapHeaders(fileHeader, infoHeader, headerGap);
+    }
+
+    /**
+     * Reads the headers of a bitmap from a stream, along with the gap after them, with a bulk read for each. The stream
+     * is left at the start of the pixel array.
+     */
+    public static BitmapHeaders readFrom(InputStream stream) throws IOException {
+        byte[] headers = new byte[BmpFileHeader.SIZE + BmpInfoHeader.SIZE];
+        StreamUtils.readExact(stream, headers, 0, headers.length);
+        ByteBuffer buffer = ByteBuffer.wrap(headers).order(ByteOrder.LITTLE_ENDIAN);
+        BmpFileHeader fileHeader = BmpFileHeader.readFrom(buffer);
+        BmpInfoHeader infoHeader = BmpInfoHeader.readFrom(buffer);
+        byte[] headerGap = new byte[validate(fileHeader, infoHeader)];
+        StreamUtils.readExact(stream, headerGap, 0, headerGap.length);
+        return new BitmapHeaders(fileHeader, infoHeader, headerGap);
+    }
+
+    /**
+     * Reads the headers of a bitmap from a buffer at its current position, along with the gap after them, leaving it
+     * at the start of the pixel array. The buffer must be in little-endian byte order.
+     */
+    public static BitmapHeaders readFrom(ByteBuffer buffer) throws IOException {
+        if (buffer.remaining() < BmpFileHeader.SIZE + BmpInfoHeader.SIZE) {
+            throw new EOFException("The file ended unexpectedly");
+        }
+
+        BmpFileHeader fileHeader = BmpFileHeader.readFrom(buffer);
+        BmpInfoHeader infoHeader = BmpInfoHeader.readFrom(buffer);
+        byte[] headerGap = new byte[validate(fileHeader, infoHeader)];
+        if (buffer.remaining() < headerGap.length) {
+            throw new EOFException("The file ended unexpectedly");
+        }
+
+        buffer.get(headerGap);
+        return new BitmapHeaders(fileHeader, infoHeader, headerGap);
+    }
+
+    /**
+     * Checks the headers describe a bitmap that is supported, whose pixels can be modified without changing anything
+     * else in the file.
+     *
+     * @return The size of the gap between the info header and the pixel array.
+     * @throws BmpException If the bitmap isn't supported.
+     */
+    private static int validate(BmpFileHeader fileHeader, BmpInfoHeader infoHeader) {
+        if (infoHeader.width <= 0 || infoHeader.height <= 0) {
+            throw new BmpException("The width and height in the file header must be greater than 0");
+        }
+
+        // Fails if the amount of bits per pixel isn't supported
+        Bitmap.getBytesPerPixel(infoHeader);
+
+        if (infoHeader.size < BmpInfoHeader.SIZE) {
+            throw new BmpException("Only bitmaps with an info header of at least " + BmpInfoHeader.SIZE + " bytes are supported, but this one has " + infoHeader.size);
+        }
+
+        if (infoHeader.compression != BI_RGB && infoHeader.compression != BI_BITFIELDS) {
+            throw new BmpException("Only uncompressed bitmaps are supported, but this one has compression " + infoHeader.compression);
+        }
+
+        if (fileHeader.offBits < BmpFileHeader.SIZE + (long) infoHeader.size) {
+            throw new BmpException("The pixel array can't start inside the headers, at offset " + fileHeader.offBits);
+        }
+
+        long headerGap = fileHeader.offBits - (long) BmpFileHeader.SIZE - BmpInfoHeader.SIZE;
+        if (headerGap > MAX_HEADER_GAP) {
+            throw new BmpException("The pixel array starts too far from the headers, at offset " + fileHeader.offBits);
+        }
+
+        return (int) headerGap;
+    }
+
+    private static void readFully(ReadableByteChannel channel, ByteBuffer buffer) throws IOException {
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer) < 0) {
+                throw new EOFException("The file ended unexpectedly");
+            }
+        }
+    }
+
+    /**
+     * Writes these headers and the gap after them to a buffer at its current position. The buffer must be in
+     * little-endian byte order.
+     */
+    public void writeTo(ByteBuffer buffer) {
+        fileHeader.writeTo(buffer);
+        infoHeader.writeTo(buffer);
+        buffer.put(headerGap);
+    }
+
+    /**
+     * Gets the size in bytes of these headers and the gap after them, which is where the pixel array starts.
+     */
+    public int getSize() {
+        return BmpFileHeader.SIZE + BmpInfoHeader.SIZE + headerGap.length;
+    }
+
+    /**
+     * Gets the bytes between the first 40 bytes of the info header and the pixel array.
+     */
+    public byte[] getHeaderGap() {
+        return headerGap;
+    }
+
+    public BmpFileHeader getFileHeader() {
+        return fileHeader;
+    }
+
+    public BmpInfoHeader getInfoHeader() {
+        return infoHeader;
+    }
+
+    public int getWidth() {
+        return infoHeader.width;
+    }
+
+    public int getHeight() {
+        return infoHeader.height;
+    }
+
+    /**
+     * Gets the amount of bytes each pixel takes up, which is 3 for 24-bit bitmaps and 4 for 32-bit ones.
+     */
+    public int getBytesPerPixel() {
+        return Bitmap.getBytesPerPixel(infoHeader);
+    }
+
+    /**
+     * Gets the size in bytes of the pixel array, excluding row padding. This is the size of the carrier.
+     */
+    public long getPixelDataSize() {
+        return (long) infoHeader.width * infoHeader.height * getBytesPerPixel();
+    }
+}
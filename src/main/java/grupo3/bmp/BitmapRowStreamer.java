@@ -0,0 +1,159 @@
+package grupo3.bmp;
+
+import grupo3.bmp.file.BmpInfoHeader;
+import grupo3.utils.FileUtils;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Copies a bitmap file into another one while passing its rows of pixels through a processor, without ever loading
+ * the whole pixel array in memory.
+ * <p>
+ * Rows are read into a window of fixed size, handed to the processor one by one and written out. Once the processor
+ * reports it is done, the rest of the file is copied as-is.
+ * <p>
+ * The bitmap is only ever read sequentially, so it can come from standard input and be written to standard output.
+ */
+public class BitmapRowStreamer implements Closeable {
+    /**
+     * The approximate size in bytes of the window rows are read into. Always at least one row is read.
+     */
+    private static final int WINDOW_SIZE = 1 << 20;
+
+    private final ReadableByteChannel channel;
+    private final BitmapHeaders headers;
+    private final BmpInfoHeader infoHeader;
+
+    private BitmapRowStreamer(ReadableByteChannel channel, BitmapHeaders headers) {
+        this.channel = channel;
+        this.headers = headers;
+        this.infoHeader = headers.getInfoHeader();
+    }
+
+    /**
+     * Opens a bitmap file, or standard input if the filename is "-", reading only its headers.
+     */
+    public static BitmapRowStreamer open(String filename) throws IOException {
+        ReadableByteChannel channel = FileUtils.isStandardStream(filename)
+                ? Channels.newChannel(FileUtils.standardInput())
+                : FileChannel.open(Path.of(filename), StandardOpenOption.READ);
+        try {
+            return new BitmapRowStreamer(channel, BitmapHeaders.readFrom(channel));
+        } catch (IOException | RuntimeException e) {
+            channel.close();
+            throw e;
+        }
+    }
+
+    public BitmapHeaders getHeaders() {
+        return headers;
+    }
+
+    /**
+     * Writes a copy of this bitmap into a file, passing each row of pixels through a processor before writing it. The
+     * headers and the gap between them and the pixel array are copied verbatim.
+     *
+     * @param outputFile The file to write the copy to, or "-" for standard output.
+     * @param processor  The processor for the rows of pixels.
+     */
+    public void transferTo(String outputFile, RowProcessor processor) throws IOException {
+        int stride = infoHeader.width * headers.getBytesPerPixel();
+        int rowSize = stride + Bitmap.getPaddingSize(infoHeader.width, headers.getBytesPerPixel());
+        int rowsPerWindow = Math.max(1, Math.min(infoHeader.height, WINDOW_SIZE / rowSize));
+        byte[] window = new byte[rowsPerWindow * rowSize];
+
+        try (WritableByteChannel output = FileUtils.isStandardStream(outputFile)
+                ? Channels.newChannel(FileUtils.standardOutput())
+                : FileChannel.open(Path.of(outputFile), StandardOpenOption.CREATE,
+                StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+            // The headers have already been consumed, so write them back from what was read
+            ByteBuffer headerBuffer = ByteBuffer.allocate(headers.getSize()).order(ByteOrder.LITTLE_ENDIAN);
+            headers.writeTo(headerBuffer);
+            writeFully(output, headerBuffer.flip());
+
+            boolean done = false;
+            int row = 0;
+            while (!done && row < infoHeader.height) {
+                int rows = Math.min(rowsPerWindow, infoHeader.height - row);
+                ByteBuffer buffer = ByteBuffer.wrap(window, 0, rows * rowSize);
+                readFully(channel, buffer);
+
+                for (int i = 0; i < rows && !done; i++) {
+                    done = processor.process(window, i * rowSize, stride);
+                }
+
+                writeFully(output, buffer.flip());
+                row += rows;
+            }
+
+            copyRemaining(output, window);
+        }
+    }
+
+    /**
+     * Copies whatever is left in the input to the output. Files are copied with {@link FileChannel#transferTo}, other
+     * inputs through the given array.
+     */
+    private void copyRemaining(WritableByteChannel output, byte[] buffer) throws IOException {
+        if (channel instanceof FileChannel file) {
+            long position = file.position();
+            long end = file.size();
+            while (position < end) {
+                long transferred = file.transferTo(position, end - position, output);
+                if (transferred <= 0) {
+                    throw new EOFException("The file ended unexpectedly");
+                }
+
+                position += transferred;
+            }
+            return;
+        }
+
+        ByteBuffer chunk = ByteBuffer.wrap(buffer);
+        while (channel.read(chunk.clear()) >= 0) {
+            writeFully(output, chunk.flip());
+        }
+    }
+
+    private static void readFully(ReadableByteChannel channel, ByteBuffer buffer) throws IOException {
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer) < 0) {
+                throw new EOFException("The file ended unexpectedly");
+            }
+        }
+    }
+
+    private static void writeFully(WritableByteChannel channel, ByteBuffer buffer) throws IOException {
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        channel.close();
+    }
+
+    /**
+     * Processes rows of pixels as they are streamed.
+     */
+    public interface RowProcessor {
+        /**
+         * Processes a row of pixels in-place.
+         *
+         * @param data   The array containing the row.
+         * @param offset The index in the array at which the row starts.
+         * @param length The length in bytes of the row, excluding padding.
+         * @return Whether processing is done, in which case the remaining rows are copied without being processed.
+         */
+        boolean process(byte[] data, int offset, int length) throws IOException;
+    }
+}
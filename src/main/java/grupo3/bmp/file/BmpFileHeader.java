@@ -5,6 +5,8 @@ import grupo3.utils.StreamUtils;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
 
 public class BmpFileHeader {
     /**
@@ -52,25 +54,44 @@ public class BmpFileHeader {
     }
 
     /**
-     * Creates an instance of this header by reading it from a stream.
+     * Creates an instance of this header by reading it from a stream, with a single bulk read.
      */
     public static BmpFileHeader readFrom(InputStream stream) throws IOException {
-        short type = StreamUtils.readShort(stream);
-        int size = StreamUtils.readInt(stream);
-        short reserved1 = StreamUtils.readShort(stream);
-        short reserved2 = StreamUtils.readShort(stream);
-        int offBits = StreamUtils.readInt(stream);
+        byte[] bytes = new byte[SIZE];
+        StreamUtils.readExact(stream, bytes, 0, SIZE);
+        return readFrom(ByteBuffer.wrap(bytes).order(ByteOrder.LITTLE_ENDIAN));
+    }
+
+    /**
+     * Creates an instance of this header by reading it from a buffer at its current position. The buffer must be in
+     * little-endian byte order.
+     */
+    public static BmpFileHeader readFrom(ByteBuffer buffer) {
+        short type = buffer.getShort();
+        int size = buffer.getInt();
+        short reserved1 = buffer.getShort();
+        short reserved2 = buffer.getShort();
+        int offBits = buffer.getInt();
         return new BmpFileHeader(type, size, reserved1, reserved2, offBits);
     }
 
     /**
-     * Writes this header to an output stream.
+     * Writes this header to an output stream, with a single bulk write.
      */
     public void writeTo(OutputStream stream) throws IOException {
-        StreamUtils.writeShort(stream, type);
-        StreamUtils.writeInt(stream, size);
-        StreamUtils.writeShort(stream, reserved1);
-        StreamUtils.writeShort(stream, reserved2);
-        StreamUtils.writeInt(stream, offBits);
+        ByteBuffer buffer = ByteBuffer.allocate(SIZE).order(ByteOrder.LITTLE_ENDIAN);
+        writeTo(buffer);
+        stream.write(buffer.array());
+    }
+
+    /**
+     * Writes this header to a buffer at its current position. The buffer must be in little-endian byte order.
+     */
+    public void writeTo(ByteBuffer buffer) {
+        buffer.putShort(type);
+        buffer.putInt(size);
+        buffer.putShort(reserved1);
+        buffer.putShort(reserved2);
+        buffer.putInt(offBits);
     }
 }
@@ -5,6 +5,8 @@ import grupo3.utils.StreamUtils;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
 
 public class BmpInfoHeader {
     /**
@@ -90,37 +92,56 @@ public class BmpInfoHeader {
     }
 
     /**
-     * Creates an instance of this header by reading it from a stream.
+     * Creates an instance of this header by reading it from a stream, with a single bulk read.
      */
     public static BmpInfoHeader readFrom(InputStream stream) throws IOException {
-        int size = StreamUtils.readInt(stream);
-        int width = StreamUtils.readInt(stream);
-        int height = StreamUtils.readInt(stream);
-        short planes = StreamUtils.readShort(stream);
-        short bitCount = StreamUtils.readShort(stream);
-        int compression = StreamUtils.readInt(stream);
-        int sizeImage = StreamUtils.readInt(stream);
-        int pixelsPerMeterX = StreamUtils.readInt(stream);
-        int pixelsPerMeterY = StreamUtils.readInt(stream);
-        int colorUsed = StreamUtils.readInt(stream);
-        int colorImportant = StreamUtils.readInt(stream);
+        byte[] bytes = new byte[SIZE];
+        StreamUtils.readExact(stream, bytes, 0, SIZE);
+        return readFrom(ByteBuffer.wrap(bytes).order(ByteOrder.LITTLE_ENDIAN));
+    }
+
+    /**
+     * Creates an instance of this header by reading it from a buffer at its current position. The buffer must be in
+     * little-endian byte order.
+     */
+    public static BmpInfoHeader readFrom(ByteBuffer buffer) {
+        int size = buffer.getInt();
+        int width = buffer.getInt();
+        int height = buffer.getInt();
+        short planes = buffer.getShort();
+        short bitCount = buffer.getShort();
+        int compression = buffer.getInt();
+        int sizeImage = buffer.getInt();
+        int pixelsPerMeterX = buffer.getInt();
+        int pixelsPerMeterY = buffer.getInt();
+        int colorUsed = buffer.getInt();
+        int colorImportant = buffer.getInt();
         return new BmpInfoHeader(size, width, height, planes, bitCount, compression, sizeImage, pixelsPerMeterX, pixelsPerMeterY, colorUsed, colorImportant);
     }
 
     /**
-     * Writes this header to an output stream.
+     * Writes this header to an output stream, with a single bulk write.
      */
     public void writeTo(OutputStream stream) throws IOException {
-        StreamUtils.writeInt(stream, size);
-        StreamUtils.writeInt(stream, width);
-        StreamUtils.writeInt(stream, height);
-        StreamUtils.writeShort(stream, planes);
-        StreamUtils.writeShort(stream, bitCount);
-        StreamUtils.writeInt(stream, compression);
-        StreamUtils.writeInt(stream, sizeImage);
-        StreamUtils.writeInt(stream, pixelsPerMeterX);
-        StreamUtils.writeInt(stream, pixelsPerMeterY);
-        StreamUtils.writeInt(stream, colorUsed);
-        StreamUtils.writeInt(stream, colorImportant);
+        ByteBuffer buffer = ByteBuffer.allocate(SIZE).order(ByteOrder.LITTLE_ENDIAN);
+        writeTo(buffer);
+        stream.write(buffer.array());
+    }
+
+    /**
+     * Writes this header to a buffer at its current position. The buffer must be in little-endian byte order.
+     */
+    public void writeTo(ByteBuffer buffer) {
+        buffer.putInt(size);
+        buffer.putInt(width);
+        buffer.putInt(height);
+        buffer.putShort(planes);
+        buffer.putShort(bitCount);
+        buffer.putInt(compression);
+        buffer.putInt(sizeImage);
+        buffer.putInt(pixelsPerMeterX);
+        buffer.putInt(pixelsPerMeterY);
+        buffer.putInt(colorUsed);
+        buffer.putInt(colorImportant);
     }
 }
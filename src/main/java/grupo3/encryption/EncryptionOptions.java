@@ -2,6 +2,13 @@ package grupo3.encryption;
 
 import grupo3.encryption.algorithms.EncryptionAlgorithm;
 import grupo3.exceptions.EncryptionException;
+import grupo3.steganography.Payload;
+import grupo3.utils.BufferPool;
+
+import javax.crypto.Cipher;
+import javax.crypto.CipherInputStream;
+import java.io.InputStream;
+import java.util.Arrays;
 
 /**
  * Represents the encryption options specified by a user
@@ -43,12 +50,32 @@ public record EncryptionOptions(
      * Encrypts the given data using the specified algorithm, mode, and password.
      *
      * @param data The data to encrypt.
-     * @return The encrypted data.
+     * @return The encrypted data, in an array borrowed from {@link BufferPool#shared()} so it can be returned to it
+     * once done with.
      * @throws EncryptionException If an error occurs during encryption.
      */
     public byte[] encrypt(byte[] data) throws EncryptionException {
         try {
-            return algorithm.encrypt(data, mode, password);
+            // The size of the output is known beforehand, so the cipher can write it straight into a pooled array
+            byte[] output = BufferPool.shared().borrowArray((int) getEncryptedSize(data.length));
+            int length = algorithm.createCipher(Cipher.ENCRYPT_MODE, mode, password).doFinal(data, 0, data.length, output, 0);
+            return length == output.length ? output : Arrays.copyOf(output, length);
+        } catch (Exception e) {
+            throw new EncryptionException("Error encrypting data: " + e.getMessage(), e);
+        }
+    }
+
+    /**
+     * Encrypts a payload gathered from several arrays, without copying them into a single one first.
+     *
+     * @param payload The payload to encrypt.
+     * @return The encrypted payload, in an array borrowed from {@link BufferPool#shared()} so it can be returned to it
+     * once done with.
+     * @throws EncryptionException If an error occurs during encryption.
+     */
+    public byte[] encrypt(Payload payload) throws EncryptionException {
+        try {
+            return payload.encrypt(algorithm.createCipher(Cipher.ENCRYPT_MODE, mode, password));
         } catch (Exception e) {
             throw new EncryptionException("Error encrypting data: " + e.getMessage(), e);
         }
@@ -68,4 +95,61 @@ public record EncryptionOptions(
             throw new EncryptionException("Error decrypting data: " + e.getMessage(), e);
         }
     }
+
+    /**
+     * Wraps an input stream so the data read from it is encrypted on the fly, using the specified algorithm, mode,
+     * and password.
+     *
+     * @param stream The stream with the data to encrypt.
+     * @return A stream that yields the encrypted data.
+     * @throws EncryptionException If an error occurs while initializing the cipher.
+     */
+    public InputStream encrypt(InputStream stream) throws EncryptionException {
+        try {
+            return new CipherInputStream(stream, algorithm.createCipher(Cipher.ENCRYPT_MODE, mode, password));
+        } catch (Exception e) {
+            throw new EncryptionException("Error encrypting data: " + e.getMessage(), e);
+        }
+    }
+
+    /**
+     * Wraps an input stream so the data read from it is decrypted on the fly, using the specified algorithm, mode,
+     * and password.
+     *
+     * @param stream The stream with the data to decrypt.
+     * @return A stream that yields the decrypted data.
+     * @throws EncryptionException If an error occurs while initializing the cipher.
+     */
+    public InputStream decrypt(InputStream stream) throws EncryptionException {
+        try {
+            return new CipherInputStream(stream, algorithm.createCipher(Cipher.DECRYPT_MODE, mode, password));
+        } catch (Exception e) {
+            throw new EncryptionException("Error decrypting data: " + e.getMessage(), e);
+        }
+    }
+
+    /**
+     * Creates a cipher initialized with the key derived from the password, so the key can be derived ahead of time.
+     *
+     * @param cipherMode The cipher mode (ENCRYPT_MODE or DECRYPT_MODE).
+     * @return The initialized cipher.
+     * @throws EncryptionException If an error occurs while initializing the cipher.
+     */
+    public Cipher createCipher(int cipherMode) throws EncryptionException {
+        try {
+            return algorithm.createCipher(cipherMode, mode, password);
+        } catch (Exception e) {
+            throw new EncryptionException("Error initializing cipher: " + e.getMessage(), e);
+        }
+    }
+
+    /**
+     * Calculates the size the output of encrypting an input of a given size will have.
+     *
+     * @param inputSize The size in bytes of the data to encrypt.
+     * @return The size in bytes of the encrypted data.
+     */
+    public long getEncryptedSize(long inputSize) {
+        return algorithm.getEncryptedSize(inputSize, mode);
+    }
 }
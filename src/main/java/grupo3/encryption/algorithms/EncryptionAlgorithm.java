@@ -102,6 +102,24 @@ public abstract class EncryptionAlgorithm {
     private byte[] processCipher(int cipherMode, byte[] input, EncryptionMode mode, String password) throws NoSuchAlgorithmException,
             InvalidKeySpecException, NoSuchPaddingException, InvalidAlgorithmParameterException,
             InvalidKeyException, IllegalBlockSizeException, BadPaddingException {
+        return createCipher(cipherMode, mode, password).doFinal(input);
+    }
+
+    /**
+     * Creates a cipher initialized for encryption or decryption, for processing data incrementally.
+     *
+     * @param cipherMode The cipher mode (ENCRYPT_MODE or DECRYPT_MODE).
+     * @param mode       The encryption mode specifying details.
+     * @param password   The password used for key derivation.
+     * @return The initialized cipher.
+     * @throws NoSuchAlgorithmException           If no such algorithm exists.
+     * @throws InvalidKeySpecException            If the provided key specification is invalid.
+     * @throws NoSuchPaddingException             If no such padding scheme is available.
+     * @throws InvalidAlgorithmParameterException If invalid algorithm parameters are encountered.
+     * @throws InvalidKeyException                If an invalid key is encountered.
+     */
+    public Cipher createCipher(int cipherMode, EncryptionMode mode, String password) throws NoSuchAlgorithmException,
+            InvalidKeySpecException, NoSuchPaddingException, InvalidAlgorithmParameterException, InvalidKeyException {
         final int secretKeyLengthBits = bytesToBits(keySizeBytes + (mode.useIV() ? blockSizeBytes : 0));
         final SecretKey derivedKey = deriveSecretKey(password, secretKeyLengthBits);
 
@@ -112,7 +130,45 @@ public abstract class EncryptionAlgorithm {
         final Cipher cipher = Cipher.getInstance(transformation);
 
         cipher.init(cipherMode, key, iv);
-        return cipher.doFinal(input);
+        return cipher;
+    }
+
+    /**
+     * Calculates the size the output of encrypting an input of a given size will have.
+     *
+     * @param inputSize The size in bytes of the data to encrypt.
+     * @param mode      The encryption mode specifying encryption details.
+     * @return The size in bytes of the encrypted data.
+     */
+    public long getEncryptedSize(long inputSize, EncryptionMode mode) {
+        // PKCS5 padding always adds between 1 and blockSizeBytes bytes, rounding up to the next full block
+        return mode.usePadding() ? (inputSize / blockSizeBytes + 1) * blockSizeBytes : inputSize;
+    }
+
+    /**
+     * Calculates the largest input whose encrypted output fits in a given size.
+     *
+     * @param outputSize The maximum size in bytes of the encrypted data.
+     * @param mode       The encryption mode specifying encryption details.
+     * @return The maximum size in bytes of the data to encrypt, or -1 if not even an empty input fits.
+     */
+    public long getMaxInputSize(long outputSize, EncryptionMode mode) {
+        // With padding, only whole blocks fit, and at least one byte of the last block must be padding
+        return mode.usePadding() ? Math.max(-1, outputSize / blockSizeBytes * blockSizeBytes - 1) : Math.max(-1, outputSize);
+    }
+
+    /**
+     * Derives bytes from a password with the same function and salt the ciphers derive their keys and IVs with, to key
+     * something other than a cipher.
+     *
+     * @param password    The password used for key derivation.
+     * @param lengthBytes The amount of bytes to derive.
+     * @return The derived bytes.
+     * @throws NoSuchAlgorithmException If no such algorithm exists.
+     * @throws InvalidKeySpecException  If the provided key specification is invalid.
+     */
+    public static byte[] deriveKeyBytes(String password, int lengthBytes) throws NoSuchAlgorithmException, InvalidKeySpecException {
+        return deriveSecretKey(password, bytesToBits(lengthBytes)).getEncoded();
     }
 
     /**
@@ -124,7 +180,7 @@ public abstract class EncryptionAlgorithm {
      * @throws NoSuchAlgorithmException If no such algorithm exists.
      * @throws InvalidKeySpecException  If the provided key specification is invalid.
      */
-    private SecretKey deriveSecretKey(String password, int secretKeyLengthBits) throws NoSuchAlgorithmException, InvalidKeySpecException {
+    private static SecretKey deriveSecretKey(String password, int secretKeyLengthBits) throws NoSuchAlgorithmException, InvalidKeySpecException {
         final SecretKeyFactory factory = SecretKeyFactory.getInstance(SECRET_KEY_DERIVATION_ALGORITHM);
         final byte[] salt = (SALT_SIZE_BYTES == 0) ? NO_SALT : FIXED_SALT;
         final PBEKeySpec spec = new PBEKeySpec(password.toCharArray(), salt, SECRET_KEY_DERIVATION_ALGORITHM_ITERATIONS, secretKeyLengthBits);
@@ -165,7 +221,7 @@ public abstract class EncryptionAlgorithm {
      * @param bytes The number of bytes.
      * @return The equivalent number of bits.
      */
-    private int bytesToBits(int bytes) {
+    private static int bytesToBits(int bytes) {
         return bytes * Byte.SIZE;
     }
 
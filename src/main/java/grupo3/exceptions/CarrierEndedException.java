@@ -0,0 +1,23 @@
+package grupo3.exceptions;
+
+/**
+ * Thrown when the bits hidden in a carrier run out before the hidden message, its length or its extension do, which
+ * means the carrier was truncated or doesn't hold a message.
+ */
+public class CarrierEndedException extends IllegalStateException {
+    public CarrierEndedException() {
+        super("The carrier ended before the hidden message did");
+    }
+
+    public CarrierEndedException(String message) {
+        super(message);
+    }
+
+    public CarrierEndedException(String message, Throwable cause) {
+        super(message, cause);
+    }
+
+    public CarrierEndedException(Throwable cause) {
+        super(cause);
+    }
+}
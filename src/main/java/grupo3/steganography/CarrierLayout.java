@@ -0,0 +1,138 @@
+package grupo3.steganography;
+
+/**
+ * Describes how the bytes of a carrier are grouped into pixels, and which channels of each pixel can be used to hide
+ * information in.
+ * <p>
+ * Channels are numbered by their position in the pixel, which in a bitmap is blue, green, red and, for 32-bit bitmaps,
+ * alpha. The usable channels are given as a mask, with the bit <code>1 &lt;&lt; channel</code> set for each of them.
+ */
+public final class CarrierLayout {
+    public static final int BLUE = 0;
+    public static final int GREEN = 1;
+    public static final int RED = 2;
+    public static final int ALPHA = 3;
+
+    /**
+     * The layout of 24-bit bitmaps, where every channel is used.
+     */
+    public static final CarrierLayout BGR = new CarrierLayout(3, 0b111);
+
+    /**
+     * The layout of 32-bit bitmaps, where every channel is used.
+     */
+    public static final CarrierLayout BGRA = new CarrierLayout(4, 0b1111);
+
+    /**
+     * The layout of 32-bit bitmaps, where the alpha channel is left intact.
+     */
+    public static final CarrierLayout BGRA_WITHOUT_ALPHA = new CarrierLayout(4, 0b0111);
+
+    private final int bytesPerPixel;
+    private final int channelMask;
+    private final int channelsPerPixel;
+
+    /**
+     * Creates a new layout.
+     *
+     * @param bytesPerPixel The amount of bytes in each pixel, between 1 and 8 inclusive.
+     * @param channelMask   The mask of usable channels, which must have at least one bit set.
+     */
+    public CarrierLayout(int bytesPerPixel, int channelMask) {
+        if (bytesPerPixel <= 0 || bytesPerPixel > 8) {
+            throw new IllegalArgumentException("bytesPerPixel must be between 1 and 8 inclusive");
+        }
+
+        channelMask &= (1 << bytesPerPixel) - 1;
+        if (channelMask == 0) {
+            throw new IllegalArgumentException("At least one channel must be usable");
+        }
+
+        this.bytesPerPixel = bytesPerPixel;
+        this.channelMask = channelMask;
+        this.channelsPerPixel = Integer.bitCount(channelMask);
+    }
+
+    /**
+     * Gets the layout of a bitmap with the given amount of bits per pixel.
+     *
+     * @param bytesPerPixel The amount of bytes in each pixel, either 3 or 4.
+     * @param includeAlpha  Whether the alpha channel of 32-bit bitmaps can be used.
+     */
+    public static CarrierLayout forBitmap(int bytesPerPixel, boolean includeAlpha) {
+        return switch (bytesPerPixel) {
+            case 3 -> BGR;
+            case 4 -> includeAlpha ? BGRA : BGRA_WITHOUT_ALPHA;
+            default -> throw new IllegalArgumentException("Only bitmaps with 3 or 4 bytes per pixel are supported");
+        };
+    }
+
+    public int getBytesPerPixel() {
+        return bytesPerPixel;
+    }
+
+    public int getChannelMask() {
+        return channelMask;
+    }
+
+    /**
+     * Whether every byte of the carrier can be used, in which case the layout can be ignored.
+     */
+    public boolean isEveryByteUsable() {
+        return channelsPerPixel == bytesPerPixel;
+    }
+
+    /**
+     * Creates a layout with the same pixels, where a channel can't be used.
+     */
+    public CarrierLayout withoutChannel(int channel) {
+        return new CarrierLayout(bytesPerPixel, channelMask & ~(1 << channel));
+    }
+
+    /**
+     * Whether the byte of the carrier at the given index can be used.
+     */
+    public boolean isUsable(long index) {
+        return ((channelMask >> (int) (index % bytesPerPixel)) & 1) != 0;
+    }
+
+    /**
+     * Counts the usable bytes of the carrier before the given index.
+     */
+    public long countUsable(long end) {
+        int lowerChannels = channelMask & ((1 << (int) (end % bytesPerPixel)) - 1);
+        return end / bytesPerPixel * channelsPerPixel + Integer.bitCount(lowerChannels);
+    }
+
+    /**
+     * Counts the usable bytes of the carrier between two indices, or 0 if the range is empty.
+     */
+    public long countUsable(long start, long end) {
+        return end <= start ? 0 : countUsable(end) - countUsable(start);
+    }
+
+    /**
+     * Finds the smallest index such that the range between <code>start</code> and it has the given amount of usable
+     * bytes. This is the inverse of {@link #countUsable(long, long)}.
+     */
+    public long findEnd(long start, long count) {
+        if (count <= 0) {
+            return start;
+        }
+
+        long target = countUsable(start) + count;
+        long pixel = (target - 1) / channelsPerPixel;
+        int remaining = (int) (target - pixel * channelsPerPixel);
+
+        // Find the channel of the last pixel that holds the last usable byte
+        int channel = 0;
+        for (int seen = 0; ; channel++) {
+            seen += (channelMask >> channel) & 1;
+            if (seen == remaining) {
+                break;
+            }
+        }
+
+        return pixel * bytesPerPixel + channel + 1;
+    }
+}
@@ -0,0 +1,502 @@
+package grupo3.steganography;
+
+import grupo3.encryption.EncryptionMode;
+import grupo3.encryption.EncryptionOptions;
+import grupo3.encryption.algorithms.AES128Encryption;
+import grupo3.encryption.algorithms.AES192Encryption;
+import grupo3.encryption.algorithms.AES256Encryption;
+import grupo3.encryption.algorithms.DESEncryption;
+import grupo3.encryption.algorithms.EncryptionAlgorithm;
+import grupo3.exceptions.CarrierEndedException;
+import grupo3.exceptions.EncryptionException;
+import grupo3.utils.BitSource;
+import grupo3.utils.BitSourceInputStream;
+import grupo3.utils.InputStreamBitSource;
+import grupo3.utils.ParallelChunks;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.concurrent.ForkJoinPool;
+import java.util.function.IntConsumer;
+import java.util.function.Supplier;
+import java.util.zip.CRC32;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * A payload that describes itself, which is version 2 of the layout hidden in carriers. Unlike the legacy layout
+ * (<code>length || message || ".ext\0"</code>), it starts with a header saying which method and cipher were used, and
+ * splits the message in chunks whose offsets are listed in the header, so they can be extracted and decompressed in
+ * parallel. The header is read with the first few bytes of the carrier, so carriers that don't hold one are rejected
+ * right away.
+ * <p>
+ * All numbers are big-endian:
+ * <pre>
+ * magic         4 bytes  0x89 'S' 'B' 'C', which is a negative length for the legacy layout
+ * version       1 byte   2
+ * method        1 byte   the character after "LSB" in the name of the method, '1' to '8', 'I' or 'M'
+ * algorithm     1 byte   0 if not encrypted, 1 to 4 for AES128, AES192, AES256 and DES
+ * mode          1 byte   0 if not encrypted, 1 to 4 for ECB, CBC, CFB and OFB
+ * compression   1 byte   0 for none, 1 for deflate
+ * reserved      3 bytes  0
+ * chunk size    4 bytes  the size of each chunk of the message before compressing it, except the last one
+ * chunk count   4 bytes
+ * message size  8 bytes
+ * body size     8 bytes  the size of what's hidden after the header
+ * offsets       8 bytes  for each chunk, where it starts in the body, and then where the last chunk ends
+ * checksum      4 bytes  the CRC-32 of everything above
+ * body                   the chunks, each compressed on its own, followed by the file extension and a '\0'. If the
+ *                        message is encrypted, the whole body is encrypted as a single block.
+ * </pre>
+ */
+public final class Container {
+
+    /**
+     * The version of the layout written by this class. Messages hidden without a container are version 1.
+     */
+    public static final int VERSION = 2;
+
+    /**
+     * The size of the chunks the message is split in, unless told otherwise.
+     */
+    public static final int DEFAULT_CHUNK_SIZE = 1 << 20;
+
+    private static final byte[] MAGIC = {(byte) 0x89, 'S', 'B', 'C'};
+
+    /**
+     * The size of the header before the offsets of the chunks.
+     */
+    private static final int FIXED_HEADER_BYTES = 36;
+
+    private static final EncryptionAlgorithm[] ALGORITHMS = {
+            AES128Encryption.getInstance(), AES192Encryption.getInstance(), AES256Encryption.getInstance(), DESEncryption.getInstance()
+    };
+
+    private static final String[] ALGORITHM_NAMES = {"aes128", "aes192", "aes256", "des"};
+
+    /**
+     * How the chunks of a container are compressed.
+     */
+    public enum Compression {
+        NONE,
+        DEFLATE
+    }
+
+    private final String methodName;
+    private final EncryptionAlgorithm algorithm;
+    private final EncryptionMode mode;
+    private final Compression compression;
+    private final int chunkSize;
+    private final long messageSize;
+    private final long bodySize;
+    private final long[] offsets;
+
+    private Container(String methodName, EncryptionAlgorithm algorithm, EncryptionMode mode, Compression compression,
+                      int chunkSize, long messageSize, long bodySize, long[] offsets) {
+        this.methodName = methodName;
+        this.algorithm = algorithm;
+        this.mode = mode;
+        this.compression = compression;
+        this.chunkSize = chunkSize;
+        this.messageSize = messageSize;
+        this.bodySize = bodySize;
+        this.offsets = offsets;
+    }
+
+    /**
+     * Packs a message into a container, to be hidden as-is with
+     * {@link SteganographyMethod#hidePayload(grupo3.utils.LongByteBuffer, Payload)}.
+     *
+     * @param method            The method the container will be hidden with.
+     * @param message           The message, which is not modified.
+     * @param fileExtension     The file extension of the message, can be null.
+     * @param encryptionOptions How to encrypt the body of the container, or null to leave it unencrypted.
+     * @param compression       How to compress the chunks of the message.
+     * @param chunkSize         The size of the chunks the message is split in.
+     * @param pool              The pool on which chunks are compressed in parallel, or null to do it on the calling
+     *                          thread.
+     */
+    public static Payload pack(SteganographyMethod method, byte[] message, String fileExtension, EncryptionOptions encryptionOptions,
+                               Compression compression, int chunkSize, ForkJoinPool pool) throws EncryptionException {
+        int chunkCount = (int) ((message.length + (long) chunkSize - 1) / chunkSize);
+        long[] offsets = new long[chunkCount + 1];
+        byte[][] body;
+        if (compression == Compression.NONE) {
+            // The chunks are just consecutive ranges of the message, so it's hidden without copying it
+            for (int i = 0; i <= chunkCount; i++) {
+                offsets[i] = Math.min(message.length, (long) i * chunkSize);
+            }
+            body = new byte[][]{message, SteganographyMethod.createTrailer(fileExtension)};
+        } else {
+            byte[][] chunks = new byte[chunkCount + 1][];
+            forEachChunk(pool, chunkCount, i -> chunks[i] = deflate(message, i * chunkSize, Math.min(chunkSize, message.length - i * chunkSize)));
+            for (int i = 0; i < chunkCount; i++) {
+                offsets[i + 1] = offsets[i] + chunks[i].length;
+            }
+            chunks[chunkCount] = SteganographyMethod.createTrailer(fileExtension);
+            body = chunks;
+        }
+
+        EncryptionAlgorithm algorithm = null;
+        EncryptionMode mode = null;
+        if (encryptionOptions != null) {
+            algorithm = encryptionOptions.algorithm();
+            mode = encryptionOptions.mode();
+            body = new byte[][]{encryptionOptions.encrypt(new Payload(body))};
+        }
+
+        long bodySize = 0;
+        for (byte[] part : body) {
+            bodySize += part.length;
+        }
+
+        Container container = new Container(method.getName(), algorithm, mode, compression, chunkSize, message.length, bodySize, offsets);
+        byte[][] segments = new byte[body.length + 1][];
+        segments[0] = container.writeHeader();
+        System.arraycopy(body, 0, segments, 1, body.length);
+        return new Payload(segments);
+    }
+
+    /**
+     * Reads the header of a container from the bits hidden in a carrier, and checks it.
+     *
+     * @param bits The bits hidden in the carrier, starting from the first one.
+     * @return The header, or null if the bits don't start with the magic of a container, such as when they hold a
+     * message in the legacy layout.
+     * @throws IllegalStateException If the header is corrupt, or describes a body larger than the rest of the bits.
+     */
+    public static Container read(BitSource bits) {
+        byte[] fixed = new byte[FIXED_HEADER_BYTES];
+        if (bits.available() < MAGIC.length * 8L || bits.read(fixed, 0, MAGIC.length) < MAGIC.length
+                || !Arrays.equals(fixed, 0, MAGIC.length, MAGIC, 0, MAGIC.length)) {
+            return null;
+        }
+
+        if (bits.read(fixed, MAGIC.length, FIXED_HEADER_BYTES - MAGIC.length) < FIXED_HEADER_BYTES - MAGIC.length) {
+            throw new IllegalStateException("The container header is truncated");
+        }
+
+        ByteBuffer header = ByteBuffer.wrap(fixed, MAGIC.length, FIXED_HEADER_BYTES - MAGIC.length);
+        int version = header.get() & 0xFF;
+        if (version != VERSION) {
+            throw new IllegalStateException("Unsupported container version " + version);
+        }
+
+        char methodCode = (char) (header.get() & 0xFF);
+        if ((methodCode < '1' || methodCode > '8') && methodCode != 'I' && methodCode != 'M') {
+            throw new IllegalStateException("Unknown steganography method in container: " + (int) methodCode);
+        }
+
+        int algorithmCode = header.get() & 0xFF;
+        int modeCode = header.get() & 0xFF;
+        int compressionCode = header.get() & 0xFF;
+        if (algorithmCode > ALGORITHMS.length || modeCode > EncryptionMode.values().length || (algorithmCode == 0) != (modeCode == 0)) {
+            throw new IllegalStateException("Unknown cipher in container: " + algorithmCode + "/" + modeCode);
+        }
+
+        if (compressionCode >= Compression.values().length) {
+            throw new IllegalStateException("Unknown compression in container: " + compressionCode);
+        }
+
+        header.position(header.position() + 3);
+        int chunkSize = header.getInt();
+        int chunkCount = header.getInt();
+        long messageSize = header.getLong();
+        long bodySize = header.getLong();
+        if (chunkSize <= 0 || messageSize < 0 || bodySize < 0 || chunkCount != (messageSize + chunkSize - 1) / chunkSize) {
+            throw new IllegalStateException("Invalid chunks in container: " + chunkCount + " of " + chunkSize + " bytes for " + messageSize + " bytes");
+        }
+
+        // Check the size of the rest of the container before allocating anything for it
+        long tableSize = (chunkCount + 1L) * Long.BYTES + Integer.BYTES;
+        SteganographyMethod.checkMessageLength(tableSize + bodySize, bits.available() / 8);
+
+        byte[] table = new byte[(int) tableSize];
+        bits.read(table, 0, table.length);
+        CRC32 checksum = new CRC32();
+        checksum.update(fixed);
+        checksum.update(table, 0, table.length - Integer.BYTES);
+        ByteBuffer tableBuffer = ByteBuffer.wrap(table);
+        if ((int) checksum.getValue() != tableBuffer.getInt(table.length - Integer.BYTES)) {
+            throw new IllegalStateException("The checksum of the container header doesn't match");
+        }
+
+        long[] offsets = new long[chunkCount + 1];
+        for (int i = 0; i <= chunkCount; i++) {
+            offsets[i] = tableBuffer.getLong();
+            if (offsets[i] < (i == 0 ? 0 : offsets[i - 1]) || offsets[i] > bodySize) {
+                throw new IllegalStateException("Invalid offset for chunk " + i + " of container: " + offsets[i]);
+            }
+        }
+
+        return new Container(
+                "LSB" + methodCode,
+                algorithmCode == 0 ? null : ALGORITHMS[algorithmCode - 1],
+                modeCode == 0 ? null : EncryptionMode.values()[modeCode - 1],
+                Compression.values()[compressionCode],
+                chunkSize, messageSize, bodySize, offsets
+        );
+    }
+
+    /**
+     * Gets the name of the steganography method the container was hidden with.
+     */
+    public String getMethodName() {
+        return methodName;
+    }
+
+    /**
+     * Gets whether the body of the container is encrypted.
+     */
+    public boolean isEncrypted() {
+        return algorithm != null;
+    }
+
+    /**
+     * Gets the size in bytes of the message held in the container.
+     */
+    public long getMessageSize() {
+        return messageSize;
+    }
+
+    /**
+     * Gets the size in bytes of the header, which is where the body starts.
+     */
+    public long getHeaderSize() {
+        return FIXED_HEADER_BYTES + (long) offsets.length * Long.BYTES + Integer.BYTES;
+    }
+
+    /**
+     * Extracts the message held in the container, writing it to a stream a batch of chunks at a time. Unencrypted
+     * chunks are read from their offset in the carrier, so they're extracted and decompressed in parallel, while
+     * encrypted ones have to be decrypted in order and are only decompressed in parallel.
+     * <p>
+     * The stream is flushed but not closed.
+     *
+     * @param bits     Opens the bits hidden in the carrier, starting from the first one, such as
+     *                 {@link SteganographyMethod#openPayload(grupo3.utils.LongByteBuffer)}.
+     * @param password The password to decrypt the body with, if it's encrypted.
+     * @param pool     The pool on which chunks are extracted in parallel, or null to do it on the calling thread.
+     * @return The file extension of the message.
+     * @throws IllegalStateException If the body is corrupt.
+     */
+    public String extract(Supplier<BitSource> bits, String password, ForkJoinPool pool, OutputStream output)
+            throws IOException, EncryptionException {
+        int chunkCount = offsets.length - 1;
+        InputStream decrypted = null;
+        if (algorithm != null) {
+            if (password == null) {
+                throw new EncryptionException("The message is encrypted with " + describeCipher() + ", but no password was given");
+            }
+
+            decrypted = new EncryptionOptions(algorithm, mode, password).decrypt(new BitSourceInputStream(openBody(bits, 0), bodySize));
+        }
+
+        int batchSize = pool == null ? 1 : pool.getParallelism() * 2;
+        byte[][] stored = new byte[batchSize][];
+        byte[][] chunks = new byte[batchSize][];
+        for (int first = 0; first < chunkCount; first += batchSize) {
+            int count = Math.min(batchSize, chunkCount - first);
+            if (decrypted != null) {
+                for (int i = 0; i < count; i++) {
+                    stored[i] = decrypted.readNBytes(getStoredSize(first + i));
+                }
+            }
+
+            int batchStart = first;
+            InputStream sequential = decrypted;
+            forEachChunk(pool, count, i -> {
+                byte[] chunk = sequential != null ? stored[i] : readStored(openBody(bits, offsets[batchStart + i]), getStoredSize(batchStart + i));
+                chunks[i] = decodeChunk(batchStart + i, chunk);
+            });
+
+            for (int i = 0; i < count; i++) {
+                output.write(chunks[i]);
+            }
+        }
+
+        output.flush();
+        if (decrypted == null) {
+            return SteganographyMethod.readFileExtension(openBody(bits, offsets[chunkCount]));
+        }
+
+        try (InputStream trailer = decrypted) {
+            return SteganographyMethod.readFileExtension(new InputStreamBitSource(trailer));
+        }
+    }
+
+    /**
+     * Extracts a range of the message held in the container, writing it to a stream. Only the chunks the range
+     * overlaps are read and decompressed, in parallel, as they're found from their offset in the carrier.
+     * <p>
+     * The stream is flushed but not closed.
+     *
+     * @param bits   Opens the bits hidden in the carrier, starting from the first one.
+     * @param pool   The pool on which chunks are extracted in parallel, or null to do it on the calling thread.
+     * @param offset The index in the message of the first byte to extract.
+     * @param length The maximum amount of bytes to extract.
+     * @return How many bytes were extracted, which is fewer than <code>length</code> if the message ends before.
+     * @throws EncryptionException   If the body is encrypted, as it can only be decrypted from its start.
+     * @throws IllegalStateException If the body is corrupt.
+     */
+    public long extractRange(Supplier<BitSource> bits, ForkJoinPool pool, long offset, long length, OutputStream output)
+            throws IOException, EncryptionException {
+        if (algorithm != null) {
+            throw new EncryptionException("The message is encrypted with " + describeCipher() + ", so a range of it can't be extracted");
+        }
+
+        long start = Math.min(offset, messageSize);
+        long end = start + Math.min(length, messageSize - start);
+        int lastChunk = (int) ((end + chunkSize - 1) / chunkSize);
+        int batchSize = pool == null ? 1 : pool.getParallelism() * 2;
+        byte[][] chunks = new byte[batchSize][];
+        for (int first = (int) (start / chunkSize); first < lastChunk; first += batchSize) {
+            int count = Math.min(batchSize, lastChunk - first);
+            int batchStart = first;
+            forEachChunk(pool, count, i -> chunks[i] = decodeChunk(batchStart + i,
+                    readStored(openBody(bits, offsets[batchStart + i]), getStoredSize(batchStart + i))));
+
+            for (int i = 0; i < count; i++) {
+                long chunkStart = (long) (first + i) * chunkSize;
+                int from = (int) Math.max(0, start - chunkStart);
+                int to = (int) Math.min(chunks[i].length, end - chunkStart);
+                output.write(chunks[i], from, to - from);
+            }
+        }
+
+        output.flush();
+        return end - start;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("version %d container hidden with %s, holding %d bytes in %d chunks of %d bytes, %s, %s",
+                VERSION, methodName, messageSize, offsets.length - 1, chunkSize,
+                compression == Compression.NONE ? "uncompressed" : "compressed with " + compression.name().toLowerCase(),
+                algorithm == null ? "unencrypted" : "encrypted with " + describeCipher());
+    }
+
+    private String describeCipher() {
+        return ALGORITHM_NAMES[Arrays.asList(ALGORITHMS).indexOf(algorithm)] + " " + mode.name().toLowerCase();
+    }
+
+    private byte[] writeHeader() {
+        ByteBuffer header = ByteBuffer.allocate(Math.toIntExact(getHeaderSize()));
+        header.put(MAGIC);
+        header.put((byte) VERSION);
+        header.put((byte) methodName.charAt(3));
+        header.put((byte) (algorithm == null ? 0 : Arrays.asList(ALGORITHMS).indexOf(algorithm) + 1));
+        header.put((byte) (mode == null ? 0 : mode.ordinal() + 1));
+        header.put((byte) compression.ordinal());
+        header.position(header.position() + 3);
+        header.putInt(chunkSize);
+        header.putInt(offsets.length - 1);
+        header.putLong(messageSize);
+        header.putLong(bodySize);
+        for (long offset : offsets) {
+            header.putLong(offset);
+        }
+
+        CRC32 checksum = new CRC32();
+        checksum.update(header.array(), 0, header.position());
+        header.putInt((int) checksum.getValue());
+        return header.array();
+    }
+
+    /**
+     * Opens the bits of the body starting from a given byte, skipping the header and whatever comes before it without
+     * reading them.
+     */
+    private BitSource openBody(Supplier<BitSource> bits, long offset) {
+        BitSource body = bits.get();
+        body.skip((getHeaderSize() + offset) * 8);
+        return body;
+    }
+
+    /**
+     * Gets the size of a chunk as stored in the body, which is after compressing it.
+     */
+    private int getStoredSize(int chunk) {
+        return Math.toIntExact(offsets[chunk + 1] - offsets[chunk]);
+    }
+
+    private static byte[] readStored(BitSource bits, int size) {
+        byte[] stored = new byte[size];
+        if (bits.read(stored, 0, size) < size) {
+            throw new CarrierEndedException();
+        }
+        return stored;
+    }
+
+    /**
+     * Decompresses a chunk, and checks it has the size it should have.
+     */
+    private byte[] decodeChunk(int chunk, byte[] stored) {
+        int size = (int) Math.min(chunkSize, messageSize - (long) chunk * chunkSize);
+        if (compression == Compression.NONE) {
+            if (stored.length != size) {
+                throw new IllegalStateException("Chunk " + chunk + " of the container is truncated");
+            }
+            return stored;
+        }
+
+        Inflater inflater = new Inflater();
+        try {
+            inflater.setInput(stored);
+            byte[] chunkBytes = new byte[size];
+            int length = 0;
+            while (length < size && !inflater.finished()) {
+                int inflated = inflater.inflate(chunkBytes, length, size - length);
+                if (inflated == 0 && (inflater.needsInput() || inflater.needsDictionary())) {
+                    break;
+                }
+                length += inflated;
+            }
+
+            // The end of the stream may only be seen once there's room for more output
+            if (!inflater.finished()) {
+                inflater.inflate(new byte[1]);
+            }
+
+            if (length != size || !inflater.finished()) {
+                throw new IllegalStateException("Chunk " + chunk + " of the container is corrupt");
+            }
+            return chunkBytes;
+        } catch (DataFormatException e) {
+            throw new IllegalStateException("Chunk " + chunk + " of the container is corrupt: " + e.getMessage(), e);
+        } finally {
+            inflater.end();
+        }
+    }
+
+    private static byte[] deflate(byte[] data, int offset, int length) {
+        Deflater deflater = new Deflater();
+        try {
+            deflater.setInput(data, offset, length);
+            deflater.finish();
+            ByteArrayOutputStream compressed = new ByteArrayOutputStream(length / 2 + 64);
+            byte[] buffer = new byte[1 << 16];
+            while (!deflater.finished()) {
+                compressed.write(buffer, 0, deflater.deflate(buffer));
+            }
+            return compressed.toByteArray();
+        } finally {
+            deflater.end();
+        }
+    }
+
+    private static void forEachChunk(ForkJoinPool pool, int chunkCount, IntConsumer action) {
+        if (pool == null) {
+            for (int i = 0; i < chunkCount; i++) {
+                action.accept(i);
+            }
+        } else {
+            ParallelChunks.forEach(pool, chunkCount, action);
+        }
+    }
+}
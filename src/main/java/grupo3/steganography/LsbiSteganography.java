@@ -1,13 +1,105 @@
 package grupo3.steganography;
 
+import grupo3.exceptions.CarrierEndedException;
+import grupo3.exceptions.CarrierNotLargeEnoughException;
 import grupo3.utils.*;
 
+import java.io.InputStream;
 import java.nio.charset.StandardCharsets;
+import java.util.concurrent.ForkJoinPool;
+import java.util.function.LongFunction;
 
 public class LsbiSteganography implements SteganographyMethod {
 
+    /**
+     * The amount of inversion flags stored at the start of the carrier, one for each pattern.
+     */
+    private static final int FLAG_COUNT = 4;
+
+    /**
+     * The layout of the carrier, which tells the bytes the inversion flags can be stored in.
+     */
+    private final CarrierLayout layout;
+
+    /**
+     * The layout of the carrier excluding the red channel, which tells the bytes the message can be hidden in.
+     */
+    private final CarrierLayout dataLayout;
+
+    /**
+     * The indices of the bytes that store the inversion flags, which are the first usable ones.
+     */
+    private final long[] flagIndices = new long[FLAG_COUNT];
+
+    /**
+     * The index of the byte after the last inversion flag, where hiding the message starts.
+     */
+    private final long dataStart;
+
+    /**
+     * The pool on which large carriers are processed in parallel, or null to do it on the calling thread.
+     */
+    private final ForkJoinPool pool;
+
+    /**
+     * Whether to decide which patterns to flip with a read-only pass over the carrier before hiding anything, so each
+     * of its bytes is written only once.
+     */
+    private final boolean preScan;
+
+    /**
+     * Creates a new LsbiSteganography instance for 24-bit carriers.
+     */
+    public LsbiSteganography() {
+        this(CarrierLayout.BGR);
+    }
+
+    /**
+     * Creates a new LsbiSteganography instance, hiding bits only in the usable channels of a carrier other than red.
+     *
+     * @param layout The layout of the carrier.
+     */
+    public LsbiSteganography(CarrierLayout layout) {
+        this(layout, null, false);
+    }
+
+    private LsbiSteganography(CarrierLayout layout, ForkJoinPool pool, boolean preScan) {
+        this.pool = pool;
+        this.preScan = preScan;
+        this.layout = layout;
+        this.dataLayout = layout.withoutChannel(CarrierLayout.RED);
+        for (int i = 0; i < FLAG_COUNT; i++) {
+            flagIndices[i] = layout.findEnd(0, i + 1) - 1;
+        }
+        this.dataStart = flagIndices[FLAG_COUNT - 1] + 1;
+    }
+
+    @Override
+    public String getName() {
+        return "LSBI";
+    }
+
     @Override
-    public int calculateCarrierSize(int messageSize, String fileExtension) {
+    public LsbiSteganography withLayout(CarrierLayout layout) {
+        return new LsbiSteganography(layout, pool, preScan);
+    }
+
+    @Override
+    public LsbiSteganography withParallelism(ForkJoinPool pool) {
+        return new LsbiSteganography(layout, pool, preScan);
+    }
+
+    /**
+     * Creates an instance of this method that decides which patterns to flip by reading the carrier before hiding
+     * anything in it, and then hides the bits already flipped. Each byte of the carrier is then written only once,
+     * instead of having the bits of the flipped patterns written a second time. The output is the same either way.
+     */
+    public LsbiSteganography withPreScan(boolean preScan) {
+        return new LsbiSteganography(layout, pool, preScan);
+    }
+
+    @Override
+    public long calculateCarrierSize(long messageSize, String fileExtension) {
         // Four extra bytes for storing the length of the message
         messageSize += 4;
 
@@ -17,21 +109,23 @@ public class LsbiSteganography implements SteganographyMethod {
         }
 
         // Calculate the total amount of bits the message has
-        int messageSizeBits = messageSize * 8;
+        long messageSizeBits = messageSize * 8;
 
         // 4 bits are necessary to store the inversions, 3 will go in the first RGB bytes and the
         // last one will go in the first B byte of the next RGB bytes.
         // The first byte of the message will go in the next G value, and the next R byte will not store anything.
-        return 4 + (messageSizeBits * 3) / 2;
+        return dataLayout.findEnd(dataStart, messageSizeBits);
     }
 
     @Override
-    public int calculateHiddenSize(int carrierSize, String fileName) {
-        // A carrier of that size will have 2 bits every 3 bytes, since nothing is stored under the R byte.
-        int totalSizeBits = carrierSize / 3 * 2;
+    public long calculateHiddenSize(long carrierSize, String fileName) {
+        // A 24-bit carrier will have 2 bits every 3 bytes, since nothing is stored under the R byte. The first four
+        // bytes hold the inversions, and the three of them that aren't R don't store anything either.
+        long totalSizeBits = dataLayout.countUsable(dataStart, carrierSize);
+        long totalSizeBytes = totalSizeBits / 8;
 
         // Remove the first four bytes which are used to indicate the length of the message
-        int messageSize = totalSizeBits - 4;
+        long messageSize = totalSizeBytes - 4;
 
         // Remove the last few bytes used for the file extension, if one is present, plus the '\0'
         if (fileName != null) {
@@ -42,83 +136,428 @@ public class LsbiSteganography implements SteganographyMethod {
         return Math.max(0, messageSize);
     }
 
-    private void hideMessageInCarrier(byte[] carrier, BitIterator bitIterator) {
-        // Array with two integers to store the appearances of each pattern '11' '10' '01' '00'
+    /**
+     * Hides a payload in a carrier, along with the flags of the patterns that were flipped.
+     *
+     * @param payloadSize The size in bytes of the payload.
+     * @param payload     Gets the bits of the payload starting from a given one.
+     * @param seekable    Whether the payload can be read from any of its bits, and more than once. If it can't, it's
+     *                    only read once, from its first bit.
+     */
+    private void hideMessageInCarrier(LongByteBuffer carrier, long payloadSize, LongFunction<BitSource> payload, boolean seekable) {
+        // The first four bytes are to store the inversions. The rest of the carrier is split in chunks, each of them
+        // hiding the bits of the payload that fall in it and counting the patterns on its own, so they can be
+        // processed in parallel and their counts added up afterwards.
+        long lastIdx = Math.min(carrier.size(), dataLayout.findEnd(dataStart, payloadSize * 8));
+        boolean preScan = this.preScan && seekable;
+        LongPair[] patterCounter = createPatternCounter();
+        byte[] countingTable = preScan ? null : createFlipTable(0);
+        ParallelChunks.forEachRange(seekable ? pool : null, dataStart, lastIdx, (start, end) -> {
+            BitSource bits = payload.apply(dataLayout.countUsable(dataStart, start));
+            PatternEmbedder embedder = new PatternEmbedder(bits, start, countingTable);
+            if (preScan) {
+                carrier.read(start, end, embedder);
+            } else {
+                carrier.process(start, end, embedder);
+            }
+
+            synchronized (patterCounter) {
+                for (int j = 0; j < patterCounter.length; j++) {
+                    patterCounter[j].add(embedder.patterCounter[j]);
+                }
+            }
+        });
+
+        // Make the flips when necessary
+        int flippedPatterns = 0;
+        for (int j = 0; j < patterCounter.length; j++) {
+            long flagIndex = flagIndices[j];
+            if (patterCounter[j].getAppearances() < patterCounter[j].getInversions() * 2L) {
+                carrier.put(flagIndex, (byte) (carrier.get(flagIndex) | 0b00000001));
+                flippedPatterns |= 1 << j;
+            } else {
+                carrier.put(flagIndex, (byte) (carrier.get(flagIndex) & 0b11111110));
+            }
+        }
+
+        if (!preScan && flippedPatterns == 0) {
+            return;
+        }
+
+        // After a pre-scan nothing was hidden yet, so the bits are hidden already flipped. Otherwise, the bytes of
+        // the flipped patterns are flipped back.
+        int patterns = flippedPatterns;
+        byte[] flipTable = createFlipTable(patterns);
+        ParallelChunks.forEachRange(pool, dataStart, lastIdx, (start, end) -> {
+            if (preScan) {
+                BitSource bits = payload.apply(dataLayout.countUsable(dataStart, start));
+                carrier.process(start, end, new PatternEmbedder(bits, start, flipTable));
+            } else if (VectorSupport.isAvailable()) {
+                flipPatternsVectorized(carrier, patterns, start, end);
+            } else {
+                flipPatterns(carrier, flipTable, start, end);
+            }
+        });
+    }
+
+    private static LongPair[] createPatternCounter() {
+        // Array with two counters to store the appearances of each pattern '11' '10' '01' '00'
         // and how many of them where flipped
-        IntPair[] patterCounter = new IntPair[4];
+        LongPair[] patterCounter = new LongPair[4];
         for (int i = 0; i < patterCounter.length; i++) {
-            patterCounter[i] = new IntPair();
+            patterCounter[i] = new LongPair();
         }
+        return patterCounter;
+    }
 
-        // The first four bytes are to store the inversions
-        int i = 4;
-        byte carrierMask = (byte) 0b11111110;
+    /**
+     * Creates a table with the value to XOR the lowest bit of a byte with, indexed by its three lowest bits. The
+     * pattern is in the upper two of them, so this is 1 for the bytes whose pattern is in the set and 0 otherwise.
+     *
+     * @param patterns The set of patterns to flip, with the bit <code>1 &lt;&lt; pattern</code> set for each.
+     */
+    private static byte[] createFlipTable(int patterns) {
+        byte[] flipTable = new byte[8];
+        for (int i = 0; i < flipTable.length; i++) {
+            flipTable[i] = (byte) ((patterns >> (i >> 1)) & 1);
+        }
+        return flipTable;
+    }
 
-        // Count the appearance of each pattern and the needed inversions
-        while (i < carrier.length && bitIterator.hasNextBit()) {
-            byte hiddenBit = bitIterator.nextBit();
-            int pattern = getPattern(carrier[i]);
-            patterCounter[pattern].incrementAppearances();
+    /**
+     * Goes over the G and B bytes of consecutive windows of a range of a carrier, counting the appearance of each
+     * pattern and the needed inversions for hiding a payload in them.
+     * <p>
+     * With a flip table, the bits are hidden too, flipped by the table as they go. Without one, the carrier is only
+     * read, so a pre-scan can decide which patterns to flip before anything is hidden.
+     */
+    private class PatternEmbedder implements ByteRangeProcessor {
+        private final LongPair[] patterCounter = createPatternCounter();
+        private final BitSource payload;
+        private final byte[] flipTable;
 
-            byte newValue = (byte) ((carrier[i] & carrierMask) | hiddenBit);
-            if (carrier[i] != newValue) {
-                carrier[i] = newValue;
-                patterCounter[pattern].incrementInversions();
-            }
-            // We just need to hide in G and B, R is skipped
-            i = getNextIdxSkipRed(i);
+        /**
+         * The index in the carrier of the next byte to be processed.
+         */
+        private long index;
+
+        /**
+         * The bits read from the payload that haven't been hidden yet, which are the lowest bitsLeft ones.
+         */
+        private long hiddenBits;
+        private int bitsLeft;
+
+        /**
+         * Creates an embedder that starts hiding a payload at a given index of the carrier.
+         *
+         * @param payload   The bits of the payload, starting from the one that goes at that index.
+         * @param flipTable The table the hidden bits are flipped by (see {@link #createFlipTable(int)}), or null to
+         *                  leave the carrier intact.
+         */
+        private PatternEmbedder(BitSource payload, long start, byte[] flipTable) {
+            this.payload = payload;
+            this.flipTable = flipTable;
+            this.index = start;
         }
 
-        // Make the flips when necessary
-        for (int j = 0; j < patterCounter.length; j++) {
-            if (patterCounter[j].getAppearances() < patterCounter[j].getInversions() * 2) {
-                carrier[j] |= 0b00000001;
-                // TODO, improve. If all the bytes need to be flipped, four iterations are made
-                flipPattern(carrier, j, i);
-            } else {
-                carrier[j] &= (byte) 0b11111110;
+        @Override
+        public boolean process(byte[] data, int offset, int length) {
+            byte carrierMask = (byte) 0b11111110;
+            int end = offset + length;
+            int bytesPerPixel = dataLayout.getBytesPerPixel();
+            int channelMask = dataLayout.getChannelMask();
+            int channel = (int) (index % bytesPerPixel);
+
+            for (int i = offset; i < end; i++) {
+                // We just need to hide in G and B, R is skipped
+                if (((channelMask >> channel) & 1) != 0) {
+                    if (bitsLeft == 0) {
+                        hiddenBits = payload.readBits(64);
+                        bitsLeft = 64;
+                    }
+
+                    int hiddenBit = (int) (hiddenBits >>> --bitsLeft) & 1;
+                    int pattern = getPattern(data[i]);
+                    patterCounter[pattern].incrementAppearances();
+                    if ((data[i] & 1) != hiddenBit) {
+                        patterCounter[pattern].incrementInversions();
+                    }
+
+                    if (flipTable != null) {
+                        data[i] = (byte) ((data[i] & carrierMask) | (hiddenBit ^ flipTable[data[i] & 0b111]));
+                    }
+                }
+
+                channel = channel == bytesPerPixel - 1 ? 0 : channel + 1;
             }
+
+            index += length;
+            return false;
         }
     }
 
     @Override
-    public void hideMessage(byte[] carrier, byte[] message) {
+    public void hideMessage(LongByteBuffer carrier, byte[] message) {
         hideMessageWithExtension(carrier, message, null);
     }
 
     @Override
-    public void hideMessageWithExtension(byte[] carrier, byte[] message, String fileExtension) {
-        byte[] extendedMessage = getExtendedMessageWithoutLength(carrier, message, fileExtension);
-        final BitIterator bitIterator = new ConcatBitIterator(new IntBitIterator(message.length), new ByteArrayBitIterator(extendedMessage));
-        hideMessageInCarrier(carrier, bitIterator);
+    public void hideMessageWithExtension(LongByteBuffer carrier, byte[] message, String fileExtension) {
+        hidePayload(carrier, getPayload(carrier, message, fileExtension));
     }
 
     @Override
-    public byte[] extractMessage(byte[] carrier) {
-        SkipByteArrayBitIterator bits = initializeBits(carrier);
+    public void hidePayload(LongByteBuffer carrier, Payload payload) {
+        if (carrier.size() < calculatePayloadCarrierSize(payload.size())) {
+            throw new CarrierNotLargeEnoughException();
+        }
+
+        hideMessageInCarrier(carrier, payload.size(), payload::bits, true);
+    }
+
+    @Override
+    public void hideMessageWithExtension(LongByteBuffer carrier, InputStream message, long messageSize, String fileExtension) {
+        if (carrier.size() < calculateCarrierSize(messageSize, fileExtension)) {
+            throw new CarrierNotLargeEnoughException();
+        }
+
+        // The flips are only decided once the whole payload has been hidden, so it's read just once from the stream
+        BitSource bits = SteganographyMethod.createPayload(Math.toIntExact(messageSize), new InputStreamBitSource(message), fileExtension);
+        long payloadSize = MESSAGE_LENGTH_BYTES + messageSize + SteganographyMethod.createTrailer(fileExtension).length;
+        hideMessageInCarrier(carrier, payloadSize, bitIndex -> bits, false);
+    }
+
+    @Override
+    public int extractMessageLength(LongByteBuffer carrier) {
+        return readMessageLength(new PatternExtractor(carrier));
+    }
+
+    @Override
+    public byte[] extractMessage(LongByteBuffer carrier) {
+        PatternExtractor bits = new PatternExtractor(carrier);
         int messageLength = readMessageLength(bits);
         return readMessage(bits, messageLength);
     }
 
     @Override
-    public ExtractResult extractMessageWithExtension(byte[] carrier) {
-        SkipByteArrayBitIterator bits = initializeBits(carrier);
+    public ExtractResult extractMessageWithExtension(LongByteBuffer carrier) {
+        PatternExtractor bits = new PatternExtractor(carrier);
         int messageLength = readMessageLength(bits);
         byte[] message = readMessage(bits, messageLength);
-        String fileExtension = readFileExtension(bits);
+        String fileExtension = SteganographyMethod.readFileExtension(bits);
         return new ExtractResult(message, fileExtension);
     }
 
-    private SkipByteArrayBitIterator initializeBits(byte[] carrier) {
-        // Read the inversion information from the first four bytes
-        byte[] inversions = new byte[4];
-        for (int i = 0; i < 4; i++) {
-            inversions[i] = (byte) (carrier[i] & 0b00000001);
+    @Override
+    public BitSource openPayload(LongByteBuffer carrier) {
+        return new PatternExtractor(carrier);
+    }
+
+    /**
+     * Reads the bytes hidden in a carrier. The bit hidden in each byte depends only on its three lowest bits, so it's
+     * looked up in a table built from the inversion flags, and whole pixels are decoded with a single lookup into a
+     * table keyed by the three lowest bits of each of their usable channels.
+     */
+    private class PatternExtractor implements BitSource {
+        /**
+         * The amount of pixels decoded from a copy of the carrier at a time, if it's not backed by an array.
+         */
+        private static final int WINDOW_PIXELS = 1 << 14;
+
+        private final LongByteBuffer carrier;
+        private final long end;
+        private final int bytesPerPixel = dataLayout.getBytesPerPixel();
+
+        /**
+         * The bit hidden in a byte, indexed by its three lowest bits.
+         */
+        private final byte[] bitTable;
+
+        /**
+         * The channels of each pixel bits are hidden in, and the bits hidden in a whole pixel indexed by the three
+         * lowest bits of each of them, the first channel being the highest. This is null if pixels have too many
+         * channels for a table, in which case they're decoded a byte at a time.
+         */
+        private final int[] channels;
+        private final byte[] pixelTable;
+
+        /**
+         * The index in the carrier of the next byte to be read.
+         */
+        private long index = dataStart;
+
+        /**
+         * The bits read from the carrier that haven't been returned yet, which are the lowest bitsAvailable ones.
+         */
+        private long bits;
+        private int bitsAvailable;
+
+        private PatternExtractor(LongByteBuffer carrier) {
+            this.carrier = carrier;
+            this.end = carrier.size();
+
+            // Read the inversion information from the first four bytes
+            if (end < dataStart) {
+                throw new CarrierEndedException();
+            }
+
+            int patterns = 0;
+            for (int i = 0; i < FLAG_COUNT; i++) {
+                patterns |= (carrier.get(flagIndices[i]) & 0b00000001) << i;
+            }
+
+            bitTable = createFlipTable(patterns);
+            for (int i = 0; i < bitTable.length; i++) {
+                bitTable[i] ^= (byte) (i & 1);
+            }
+
+            channels = new int[Integer.bitCount(dataLayout.getChannelMask())];
+            for (int channel = 0, i = 0; i < channels.length; channel++) {
+                if (dataLayout.isUsable(channel)) {
+                    channels[i++] = channel;
+                }
+            }
+
+            if (channels.length > 3) {
+                pixelTable = null;
+                return;
+            }
+
+            pixelTable = new byte[1 << (3 * channels.length)];
+            for (int key = 0; key < pixelTable.length; key++) {
+                int hidden = 0;
+                for (int i = channels.length - 1; i >= 0; i--) {
+                    hidden = (hidden << 1) | bitTable[(key >> (3 * i)) & 0b111];
+                }
+                pixelTable[key] = (byte) hidden;
+            }
+        }
+
+        @Override
+        public long available() {
+            return bitsAvailable + dataLayout.countUsable(index, end);
+        }
+
+        /**
+         * Skips bits without reading the carrier, as each usable byte of it hides a single bit.
+         */
+        @Override
+        public long skip(long count) {
+            long skipped = Math.min(count, available());
+            index = dataLayout.findEnd(dataStart, dataLayout.countUsable(dataStart, index) - bitsAvailable + skipped);
+            bits = 0;
+            bitsAvailable = 0;
+            return skipped;
+        }
+
+        /**
+         * Reads the next byte of the carrier, keeping its hidden bit if it has one. It must not be past the end.
+         */
+        private void takeByte() {
+            if (dataLayout.isUsable(index)) {
+                bits = (bits << 1) | bitTable[carrier.get(index) & 0b111];
+                bitsAvailable++;
+            }
+
+            index++;
+        }
+
+        @Override
+        public long readBits(int count) {
+            if (count > 32) {
+                long high = readBits(count - 32);
+                return (high << 32) | readBits(32);
+            }
+
+            while (bitsAvailable < count) {
+                if (index >= end) {
+                    bits <<= count - bitsAvailable;
+                    bitsAvailable = count;
+                    break;
+                }
+
+                takeByte();
+            }
+
+            bitsAvailable -= count;
+            return (bits >>> bitsAvailable) & ((1L << count) - 1);
+        }
+
+        private int nextByte() {
+            if (available() < 8) {
+                throw new CarrierEndedException();
+            }
+
+            return (int) readBits(8);
+        }
+
+        /**
+         * Reads the next hidden bytes into an array, decoding whole pixels from the carrier where possible.
+         */
+        @Override
+        public int read(byte[] dst, int offset, int length) {
+            length = (int) Math.min(length, (available() + 7) / 8);
+            int end = offset + length;
+            if (pixelTable != null) {
+                // Read byte by byte until the next byte of the carrier is the first one of a pixel
+                while (offset < end && index % bytesPerPixel != 0 && index < this.end) {
+                    takeByte();
+                    if (bitsAvailable >= 8) {
+                        dst[offset++] = (byte) readBits(8);
+                    }
+                }
+
+                // Just enough pixels for the rest of the bytes, so none of them is written past the end
+                long neededBits = 8L * (end - offset) - bitsAvailable;
+                long pixels = Math.min((neededBits + channels.length - 1) / channels.length, (this.end - index) / bytesPerPixel);
+                if (pixels > 0 && carrier.hasArray()) {
+                    offset = decodePixels(carrier.array(), (int) index, (int) pixels, dst, offset);
+                    index += pixels * bytesPerPixel;
+                } else if (pixels > 0) {
+                    byte[] window = new byte[(int) Math.min(pixels, WINDOW_PIXELS) * bytesPerPixel];
+                    while (pixels > 0) {
+                        int count = (int) Math.min(pixels, WINDOW_PIXELS);
+                        carrier.get(index, window, 0, count * bytesPerPixel);
+                        offset = decodePixels(window, 0, count, dst, offset);
+                        index += (long) count * bytesPerPixel;
+                        pixels -= count;
+                    }
+                }
+            }
+
+            while (offset < end) {
+                dst[offset++] = (byte) readBits(8);
+            }
+
+            return length;
+        }
+
+        /**
+         * Decodes the bits hidden in consecutive pixels of an array, writing every whole byte to the destination.
+         *
+         * @return The index in the destination past the last byte written.
+         */
+        private int decodePixels(byte[] data, int from, int pixels, byte[] dst, int offset) {
+            int pixelBits = channels.length;
+            for (int i = from, last = from + pixels * bytesPerPixel; i < last; i += bytesPerPixel) {
+                int key = 0;
+                for (int channel : channels) {
+                    key = (key << 3) | (data[i + channel] & 0b111);
+                }
+
+                bits = (bits << pixelBits) | pixelTable[key];
+                bitsAvailable += pixelBits;
+                if (bitsAvailable >= 8) {
+                    bitsAvailable -= 8;
+                    dst[offset++] = (byte) (bits >>> bitsAvailable);
+                }
+            }
+
+            return offset;
         }
-        return new SkipByteArrayBitIterator(4, carrier.length, carrier, inversions);
     }
 
-    private int readMessageLength(SkipByteArrayBitIterator bits) {
+    private int readMessageLength(PatternExtractor bits) {
         int messageLength = 0;
         for (int i = 0; i < 4; i++) {
             int b = bits.nextByte();
@@ -127,44 +566,63 @@ public class LsbiSteganography implements SteganographyMethod {
         return messageLength;
     }
 
-    private byte[] readMessage(SkipByteArrayBitIterator bits, int messageLength) {
-        byte[] message = new byte[messageLength];
-        for (int i = 0; i < messageLength; i++) {
-            message[i] = (byte) bits.nextByte();
-        }
+    private byte[] readMessage(PatternExtractor bits, int messageLength) {
+        // Check the length before allocating anything for it, as it's read from a carrier that can't be trusted
+        SteganographyMethod.checkMessageLength(messageLength, bits.available() / 8);
+        byte[] message = BufferPool.shared().borrowArray(messageLength);
+        bits.read(message, 0, messageLength);
         return message;
     }
 
-    private String readFileExtension(SkipByteArrayBitIterator bits) {
-        byte[] extensionBytes = new byte[20];
-        extensionBytes[0] = (byte) bits.nextByte();
-        if (extensionBytes[0] != '.') {
-            throw new IllegalStateException("Extension was expected to start with '.'");
-        }
+    private int getPattern(int elem) {
+        return (elem >> 1) & 0b00000011;
+    }
 
-        int i;
-        byte next = (byte) bits.nextByte();
-        for (i = 1; next != '\0'; i++) {
-            extensionBytes[i] = next;
-            next = (byte) bits.nextByte();
-        }
+    /**
+     * Flips every pattern in a set in a single pass, a vector of the carrier at a time.
+     */
+    private void flipPatternsVectorized(LongByteBuffer carrier, int patterns, long from, long to) {
+        int bytesPerPixel = dataLayout.getBytesPerPixel();
+        int channelMask = dataLayout.getChannelMask();
+        long[] index = {from};
+        carrier.process(from, to, (data, offset, length) -> {
+            int processed = VectorKernels.flipPatterns(data, offset, length, index[0], dataLayout, patterns);
+            int end = offset + length;
+            int channel = (int) ((index[0] + processed) % bytesPerPixel);
+            for (int i = offset + processed; i < end; i++) {
+                if (((channelMask >> channel) & 1) != 0 && ((patterns >> getPattern(data[i])) & 1) != 0) {
+                    data[i] = (byte) (data[i] ^ 0b00000001);
+                }
 
-        return new String(extensionBytes, 0, i);
-    }
+                channel = channel == bytesPerPixel - 1 ? 0 : channel + 1;
+            }
 
-    private int getNextIdxSkipRed(int idx) {
-        return idx % 3 == 1 ? idx + 2 : idx + 1;
+            index[0] += length;
+            return false;
+        });
     }
 
-    private int getPattern(int elem) {
-        return (elem >> 1) & 0b00000011;
-    }
+    /**
+     * Flips every pattern in a set in a single pass, looking up whether to flip each byte in a flip table (see
+     * {@link #createFlipTable(int)}).
+     */
+    private void flipPatterns(LongByteBuffer carrier, byte[] flipTable, long from, long to) {
+        int bytesPerPixel = dataLayout.getBytesPerPixel();
+        int channelMask = dataLayout.getChannelMask();
+        long[] index = {from};
+        carrier.process(from, to, (data, offset, length) -> {
+            int end = offset + length;
+            int channel = (int) (index[0] % bytesPerPixel);
+            for (int i = offset; i < end; i++) {
+                if (((channelMask >> channel) & 1) != 0) {
+                    data[i] = (byte) (data[i] ^ flipTable[data[i] & 0b111]);
+                }
 
-    private void flipPattern(byte[] carrier, int pattern, int lastIdx) {
-        for (int i = 4; i < lastIdx; i = getNextIdxSkipRed(i)) {
-            if (getPattern(carrier[i]) == pattern) {
-                carrier[i] = (byte) (carrier[i] ^ 0b00000001);
+                channel = channel == bytesPerPixel - 1 ? 0 : channel + 1;
             }
-        }
+
+            index[0] += length;
+            return false;
+        });
     }
 }
@@ -0,0 +1,176 @@
+package grupo3.steganography;
+
+import grupo3.utils.BitSource;
+import grupo3.utils.SplitMix64;
+
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.nio.ByteOrder;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * A Steganography method that hides one bit in the least significant bit of each byte of the carrier, like LSB1, but
+ * by LSB matching: bytes whose lowest bit doesn't match the hidden bit are randomly incremented or decremented instead
+ * of having that bit replaced. Replacing bits only ever swaps even values with the odd value after them, which leaves
+ * pairs of values with suspiciously equal counts in the histogram of the carrier, while adding or subtracting one
+ * doesn't. Messages are extracted exactly as with LSB1.
+ * <p>
+ * Whether a byte goes up or down is decided by a {@link SplitMix64} generator indexed by the position of the byte in
+ * the carrier, with one output for every 64 bytes, so any range of the carrier can be hidden on its own and the output
+ * doesn't depend on how the carrier is split between threads. The seed is chosen at random, as it isn't needed to
+ * extract the message, unless it's given with <code>-seed &lt;n&gt;</code> to reproduce an output.
+ */
+public class LsbmSteganography extends LsbxSteganography {
+
+    /**
+     * A view of a byte array as big-endian longs, for hiding bits in eight bytes of the carrier at a time.
+     */
+    private static final VarHandle WORD = MethodHandles.byteArrayViewVarHandle(long[].class, ByteOrder.BIG_ENDIAN);
+
+    /**
+     * The lowest bit of each byte of a word.
+     */
+    private static final long LOW_BITS = 0x0101010101010101L;
+
+    /**
+     * Every bit but the highest of each byte of a word.
+     */
+    private static final long LOW_SEVEN_BITS = 0x7F7F7F7F7F7F7F7FL;
+
+    /**
+     * The seed of the generator that decides whether each byte is incremented or decremented.
+     */
+    private final long seed;
+
+    /**
+     * Creates a new LsbmSteganography instance, for 24-bit carriers, with a random seed.
+     */
+    public LsbmSteganography() {
+        this(ThreadLocalRandom.current().nextLong());
+    }
+
+    /**
+     * Creates a new LsbmSteganography instance, for 24-bit carriers, that always changes the same bytes in the same
+     * direction for the same message and carrier.
+     *
+     * @param seed The seed of the generator that decides whether each byte is incremented or decremented.
+     */
+    public LsbmSteganography(long seed) {
+        this(CarrierLayout.BGR, null, seed);
+    }
+
+    private LsbmSteganography(CarrierLayout layout, ForkJoinPool pool, long seed) {
+        super(1, layout, pool);
+        this.seed = seed;
+    }
+
+    @Override
+    public String getName() {
+        return "LSBM";
+    }
+
+    @Override
+    LsbmSteganography create(CarrierLayout layout, ForkJoinPool pool) {
+        return new LsbmSteganography(layout, pool, seed);
+    }
+
+    @Override
+    Embedder createEmbedder(BitSource payload, long start) {
+        return new MatchingEmbedder(payload, start);
+    }
+
+    /**
+     * Gets a mask with the lowest bit set in the bytes of a word that are 0.
+     */
+    private static long zeroBytes(long word) {
+        // Adding 0x7F to the low seven bits of a byte carries into its highest bit unless they're all 0
+        long carried = (word & LOW_SEVEN_BITS) + LOW_SEVEN_BITS;
+        return ~(carried | word | LOW_SEVEN_BITS) >>> 7;
+    }
+
+    /**
+     * Hides the bits of a payload by LSB matching, eight bytes of the carrier at a time where they're all usable or
+     * pixels evenly divide them, and a byte at a time otherwise. Bytes that need to change are incremented where the
+     * random bit for them is 1 and decremented otherwise, except for 0 and 255, which can only go one way. That way no
+     * byte wraps around, so a whole word is changed with one addition and one subtraction, without carries or borrows
+     * crossing into the byte next to it.
+     */
+    private class MatchingEmbedder implements Embedder {
+        private final BitSource payload;
+
+        /**
+         * The index in the carrier of the next byte to be processed.
+         */
+        private long index;
+
+        /**
+         * The 64 random bits for the bytes of the carrier in the current block of 64, the first byte's being the
+         * highest, and the index of that block, or -1 if none was generated yet.
+         */
+        private long random;
+        private long randomBlock = -1;
+
+        private MatchingEmbedder(BitSource payload, long start) {
+            this.payload = payload;
+            this.index = start;
+        }
+
+        @Override
+        public boolean hide(byte[] carrier, int offset, int length) {
+            int end = offset + length;
+            int i = offset;
+
+            // Reach the start of a word one byte at a time
+            for (; i < end && payload.hasNextBit() && ((index + i - offset) & 7) != 0; i++) {
+                hideByte(carrier, i, index + i - offset);
+            }
+
+            for (; wordMask != 0 && i + Long.BYTES <= end && payload.available() >= wordBits; i += Long.BYTES) {
+                hideWord(carrier, i, index + i - offset);
+            }
+
+            for (; i < end && payload.hasNextBit(); i++) {
+                hideByte(carrier, i, index + i - offset);
+            }
+
+            index += length;
+            return !payload.hasNextBit();
+        }
+
+        private void hideByte(byte[] carrier, int i, long carrierIndex) {
+            if (!layout.isUsable(carrierIndex)) {
+                return;
+            }
+
+            int value = Byte.toUnsignedInt(carrier[i]);
+            if ((value & 1) != payload.readBits(1)) {
+                boolean up = value == 0 || (value != 0xFF && randomBits(carrierIndex) << (carrierIndex & 63) < 0);
+                carrier[i] = (byte) (up ? value + 1 : value - 1);
+            }
+        }
+
+        private void hideWord(byte[] carrier, int i, long carrierIndex) {
+            long word = (long) WORD.get(carrier, i);
+            long mismatched = (word ^ Long.expand(payload.readBits(wordBits), wordMask)) & wordMask;
+            if (mismatched == 0) {
+                return;
+            }
+
+            // The word starts at a multiple of eight, so its random bits are a whole byte of the block's
+            long randomByte = (randomBits(carrierIndex) >>> (56 - (carrierIndex & 63))) & 0xFF;
+            long up = (Long.expand(randomByte, LOW_BITS) | zeroBytes(word)) & ~zeroBytes(~word) & mismatched;
+            WORD.set(carrier, i, word + up - (mismatched & ~up));
+        }
+
+        private long randomBits(long carrierIndex) {
+            long block = carrierIndex >>> 6;
+            if (block != randomBlock) {
+                random = SplitMix64.at(seed, block);
+                randomBlock = block;
+            }
+
+            return random;
+        }
+    }
+}
@@ -1,34 +1,167 @@
 package grupo3.steganography;
 
+import grupo3.exceptions.CarrierEndedException;
+import grupo3.exceptions.CarrierNotLargeEnoughException;
 import grupo3.utils.*;
 
+import java.io.IOException;
+import java.io.OutputStream;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.nio.ByteOrder;
 import java.nio.charset.StandardCharsets;
+import java.util.concurrent.ForkJoinPool;
 
 /**
  * A Steganography method that hides information in the N lowest significant bits of the carrier.
  */
 public class LsbxSteganography implements SteganographyMethod {
 
+    /**
+     * A view of a byte array as big-endian longs, for hiding bits in eight bytes of the carrier at a time.
+     */
+    private static final VarHandle WORD = MethodHandles.byteArrayViewVarHandle(long[].class, ByteOrder.BIG_ENDIAN);
+
+    /**
+     * The amount of bytes of a message extracted into memory at a time when it's written to a stream in parallel.
+     */
+    private static final int EXTRACT_WINDOW_SIZE = 1 << 24;
+
     /**
      * The amount of bits hidden per byte.
      */
     private final int bitCount;
 
     /**
-     * Creates a new LsbxSteganography instance with a given bitCount.
+     * The layout of the carrier, which tells the bytes bits can be hidden in.
+     */
+    final CarrierLayout layout;
+
+    /**
+     * The mask of the bits that hold hidden bits in eight consecutive bytes of the carrier read as a big-endian long,
+     * starting at an index that's a multiple of eight. This is 0 if pixels don't evenly divide eight bytes, in which
+     * case the carrier is processed a byte at a time.
+     */
+    final long wordMask;
+
+    /**
+     * The amount of bits hidden in eight consecutive bytes of the carrier, which is the amount of bits in wordMask.
+     */
+    final int wordBits;
+
+    /**
+     * The pool on which large payloads are hidden and extracted in parallel, or null to do it on the calling thread.
+     */
+    private final ForkJoinPool pool;
+
+    /**
+     * Creates a new LsbxSteganography instance with a given bitCount, for 24-bit carriers.
      *
      * @param bitCount The amount of bits hidden per byte. Must be between 1 and 8 inclusive.
      */
     public LsbxSteganography(int bitCount) {
+        this(bitCount, CarrierLayout.BGR);
+    }
+
+    /**
+     * Creates a new LsbxSteganography instance with a given bitCount, hiding bits only in the usable channels of a
+     * carrier.
+     *
+     * @param bitCount The amount of bits hidden per byte. Must be between 1 and 8 inclusive.
+     * @param layout   The layout of the carrier.
+     */
+    public LsbxSteganography(int bitCount, CarrierLayout layout) {
+        this(bitCount, layout, null);
+    }
+
+    /**
+     * Creates a new LsbxSteganography instance that hides large payloads on a given pool.
+     *
+     * @param pool The pool on which large payloads are hidden and extracted in parallel, or null to do it on the
+     *             calling thread.
+     */
+    LsbxSteganography(int bitCount, CarrierLayout layout, ForkJoinPool pool) {
         if (bitCount <= 0 || bitCount > 8) {
             throw new IllegalArgumentException("bitCount must be between 1 and 8 inclusive");
         }
 
         this.bitCount = bitCount;
+        this.layout = layout;
+        this.wordMask = createWordMask(bitCount, layout);
+        this.wordBits = Long.bitCount(wordMask);
+        this.pool = pool;
+    }
+
+    /**
+     * Gets the kernels for hiding and extracting bits a vector at a time, or null if the Vector API isn't available or
+     * not every byte of the carrier is usable.
+     */
+    private VectorKernels vectorKernels() {
+        return layout.isEveryByteUsable() ? VectorSupport.kernels(bitCount) : null;
+    }
+
+    private static long createWordMask(int bitCount, CarrierLayout layout) {
+        if (!layout.isEveryByteUsable() && Long.BYTES % layout.getBytesPerPixel() != 0) {
+            return 0;
+        }
+
+        // The first byte of the carrier is the most significant one of the word
+        long mask = 0;
+        for (int i = 0; i < Long.BYTES; i++) {
+            if (layout.isUsable(i)) {
+                mask |= ((1L << bitCount) - 1) << (8 * (Long.BYTES - 1 - i));
+            }
+        }
+
+        return mask;
     }
 
     @Override
-    public int calculateCarrierSize(int messageSize, String fileExtension) {
+    public String getName() {
+        return "LSB" + bitCount;
+    }
+
+    @Override
+    public LsbxSteganography withLayout(CarrierLayout layout) {
+        return create(layout, pool);
+    }
+
+    @Override
+    public LsbxSteganography withParallelism(ForkJoinPool pool) {
+        return create(layout, pool);
+    }
+
+    /**
+     * Creates an instance of the same method with a different layout or pool, which subclasses override to create an
+     * instance of their own class.
+     */
+    LsbxSteganography create(CarrierLayout layout, ForkJoinPool pool) {
+        return new LsbxSteganography(bitCount, layout, pool);
+    }
+
+    /**
+     * Decides how to split the first bytes of a carrier into chunks that are processed in parallel. Each chunk starts
+     * at a whole word and a whole pixel, and holds a whole amount of bytes of the payload, so chunks can be processed
+     * independently without writing to the same words of the carrier.
+     *
+     * @param length The amount of bytes at the start of the carrier to process.
+     * @return The size of each chunk (except the last one, which may be smaller), or 0 if the bytes should be
+     * processed on the calling thread.
+     */
+    private long chunkSize(long length) {
+        long chunks = ParallelChunks.chunkCount(pool, length);
+        if (chunks <= 1) {
+            return 0;
+        }
+
+        // Eight pixels are eight bytes of the carrier for every usable channel, so they hide whole bytes of the payload
+        long stride = (long) Long.BYTES * layout.getBytesPerPixel();
+        long strides = (length + stride - 1) / stride;
+        return (strides + chunks - 1) / chunks * stride;
+    }
+
+    @Override
+    public long calculateCarrierSize(long messageSize, String fileExtension) {
         // Four extra bytes for storing the length of the message
         messageSize += 4;
 
@@ -38,20 +171,20 @@ public class LsbxSteganography implements SteganographyMethod {
         }
 
         // Calculate the total amount of bits the message has
-        int messageSizeBits = messageSize * 8;
+        long messageSizeBits = messageSize * 8;
 
-        // The size of the carrier is messageSizeBits divided by bitCount, rounded upwards
-        return (messageSizeBits + bitCount - 1) / bitCount;
+        // The amount of usable bytes is messageSizeBits divided by bitCount, rounded upwards
+        return layout.findEnd(0, (messageSizeBits + bitCount - 1) / bitCount);
     }
 
     @Override
-    public int calculateHiddenSize(int carrierSize, String fileName) {
+    public long calculateHiddenSize(long carrierSize, String fileName) {
         // A carrier of that size will have up to this amount of hidden bits, and therefore bytes
-        int totalSizeBits = carrierSize * bitCount;
-        int totalSizeBytes = totalSizeBits / 8;
+        long totalSizeBits = layout.countUsable(carrierSize) * bitCount;
+        long totalSizeBytes = totalSizeBits / 8;
 
         // Remove the first four bytes which are used to indicate the length of the message
-        int messageSize = totalSizeBytes - 4;
+        long messageSize = totalSizeBytes - 4;
 
         // Remove the last few bytes used for the file extension, if one is present, plus the '\0'
         if (fileName != null) {
@@ -63,64 +196,387 @@ public class LsbxSteganography implements SteganographyMethod {
     }
 
     @Override
-    public void hideMessage(byte[] carrier, byte[] message) {
+    public void hideMessage(LongByteBuffer carrier, byte[] message) {
         hideMessageWithExtension(carrier, message, null);
     }
 
     @Override
-    public void hideMessageWithExtension(byte[] carrier, byte[] message, String fileExtension) {
-        byte[] extendedMessage = getExtendedMessageWithoutLength(carrier, message, fileExtension);
-        final BitIterator bitIterator = new ConcatBitIterator(new IntBitIterator(message.length), new ByteArrayBitIterator(extendedMessage));
-
-        int i;
-        byte carrierMask = (byte) (0b11111111 << bitCount);
-        for (i = 0; i < carrier.length && bitIterator.hasNextBit(); i++) {
-            int hiddenBits = bitIterator.nextBit() << (bitCount - 1);
-            for (int b = bitCount - 2; b >= 0; b--) {
-                hiddenBits |= bitIterator.nextBitOrZero() << b;
+    public void hideMessageWithExtension(LongByteBuffer carrier, byte[] message, String fileExtension) {
+        hidePayload(carrier, getPayload(carrier, message, fileExtension));
+    }
+
+    @Override
+    public void hidePayload(LongByteBuffer carrier, Payload payload) {
+        if (carrier.size() < calculatePayloadCarrierSize(payload.size())) {
+            throw new CarrierNotLargeEnoughException();
+        }
+
+        // The whole payload is known, so it can be split in chunks that start at a known bit of it
+        long end = Math.min(carrier.size(), layout.findEnd(0, (payload.size() * 8 + bitCount - 1) / bitCount));
+        long chunkSize = chunkSize(end);
+        if (chunkSize == 0) {
+            carrier.process(0, end, createEmbedder(payload.bits(0), 0)::hide);
+        } else {
+            ParallelChunks.forEach(pool, (int) ((end + chunkSize - 1) / chunkSize), chunk -> {
+                long start = chunk * chunkSize;
+                BitSource bits = payload.bits(layout.countUsable(start) * bitCount);
+                carrier.process(start, Math.min(end, start + chunkSize), createEmbedder(bits, start)::hide);
+            });
+        }
+    }
+
+    @Override
+    public Embedder createEmbedder(BitSource payload) {
+        return createEmbedder(payload, 0);
+    }
+
+    /**
+     * Creates an embedder that starts hiding a payload at a given index of the carrier, which must be the first byte
+     * of a pixel.
+     */
+    Embedder createEmbedder(BitSource payload, long start) {
+        return new WordEmbedder(payload, start);
+    }
+
+    /**
+     * Hides the bits of a payload, eight bytes of the carrier at a time. The bits for each word are read from the
+     * payload with a single call, and spread into the low bits of its usable bytes with {@link Long#expand}, which
+     * compiles to a single instruction where the processor has one (PDEP on x86). Payloads held in an array are hidden
+     * a vector at a time instead, when the Vector API is available.
+     * <p>
+     * The bytes before the first whole word and the last few bits of the payload are hidden a byte at a time, so the
+     * output is the same as hiding the payload bit by bit.
+     */
+    private class WordEmbedder implements Embedder {
+        private final BitSource payload;
+        private final VectorKernels vectorKernels = vectorKernels();
+        private final byte carrierMask = (byte) (0b11111111 << bitCount);
+
+        /**
+         * The index in the carrier of the next byte to be processed.
+         */
+        private long index;
+
+        /**
+         * Creates an embedder that starts hiding the payload at a given index of the carrier.
+         */
+        private WordEmbedder(BitSource payload, long start) {
+            this.payload = payload;
+            this.index = start;
+        }
+
+        @Override
+        public boolean hide(byte[] carrier, int offset, int length) {
+            int end = offset + length;
+            int i = offset;
+
+            // Reach the start of a word one byte at a time
+            for (; i < end && payload.hasNextBit() && ((index + i - offset) & 7) != 0; i++) {
+                hideByte(carrier, i, index + i - offset);
+            }
+
+            while (wordMask != 0 && i + Long.BYTES <= end && payload.available() >= wordBits) {
+                // A payload gathered from several arrays is hidden one array at a time, so each of them can be
+                // hidden a vector at a time. At the start of a word, every byte being usable means the next bit is
+                // the first of a byte of the payload.
+                BitSource part = payload instanceof ConcatBitSource concat ? concat.current() : payload;
+                if (vectorKernels != null && part instanceof ByteArrayBitSource array && (array.position() & 7) == 0) {
+                    int processed = vectorKernels.embed(carrier, i, end - i, array.array(),
+                            (int) (array.position() >>> 3), (int) (array.end() >>> 3));
+                    i += processed;
+                    array.skip((long) processed * bitCount);
+                }
+
+                // Then word by word, reading straight from the array until a word reaches into the next one
+                BitSource source = part.available() >= wordBits ? part : payload;
+                long words = Math.max(1, part.available() / wordBits);
+                for (; words > 0 && i + Long.BYTES <= end && source.available() >= wordBits; words--, i += Long.BYTES) {
+                    long word = (long) WORD.get(carrier, i);
+                    WORD.set(carrier, i, (word & ~wordMask) | Long.expand(source.readBits(wordBits), wordMask));
+                }
             }
 
-            carrier[i] = (byte) ((carrier[i] & carrierMask) | hiddenBits);
+            for (; i < end && payload.hasNextBit(); i++) {
+                hideByte(carrier, i, index + i - offset);
+            }
+
+            index += length;
+            return !payload.hasNextBit();
+        }
+
+        private void hideByte(byte[] carrier, int i, long carrierIndex) {
+            if (layout.isUsable(carrierIndex)) {
+                carrier[i] = (byte) ((carrier[i] & carrierMask) | (int) payload.readBits(bitCount));
+            }
         }
     }
 
-    private ExtractResult extract(byte[] carrier, boolean withExtension) {
-        BitIterator bits = new SkipBitIterator(new ByteArrayBitIterator(carrier), bitCount);
+    /**
+     * Reads the bits hidden in a carrier, gathering the bits hidden in eight bytes of the carrier at a time with
+     * {@link Long#compress}, which compiles to a single instruction where the processor has one (PEXT on x86).
+     */
+    private class WordExtractor implements BitSource {
+        private final LongByteBuffer carrier;
+        private final long end;
+        private final int lowBits = (1 << bitCount) - 1;
+        private final VectorKernels vectorKernels = vectorKernels();
+
+        /**
+         * The index in the carrier of the next byte to be read.
+         */
+        private long index;
+
+        /**
+         * The bits read from the carrier that haven't been returned yet, which are the lowest bitsAvailable ones.
+         */
+        private long bits;
+        private int bitsAvailable;
+
+        private WordExtractor(LongByteBuffer carrier) {
+            this.carrier = carrier;
+            this.end = carrier.size();
+        }
+
+        /**
+         * Moves to a given bit of the hidden payload, so it's the next one read.
+         */
+        private void seek(long bitIndex) {
+            index = layout.findEnd(0, bitIndex / bitCount);
+            bits = 0;
+            bitsAvailable = 0;
+
+            // Keep the bits of the byte the payload bit is in that come after it
+            int skipped = (int) (bitIndex % bitCount);
+            if (skipped != 0) {
+                while (!layout.isUsable(index)) {
+                    index++;
+                }
+
+                bits = carrier.get(index++) & lowBits;
+                bitsAvailable = bitCount - skipped;
+            }
+        }
+
+        @Override
+        public long available() {
+            return bitsAvailable + layout.countUsable(index, end) * bitCount;
+        }
+
+        @Override
+        public long skip(long count) {
+            long skipped = Math.min(count, available());
+            seek(layout.countUsable(index) * bitCount - bitsAvailable + skipped);
+            return skipped;
+        }
+
+        @Override
+        public long readBits(int count) {
+            if (count > 32) {
+                // Leave room for a whole word of the carrier in the bits that haven't been returned yet
+                long high = readBits(count - 32);
+                return (high << 32) | readBits(32);
+            }
+
+            while (bitsAvailable < count) {
+                if (index >= end) {
+                    bits <<= count - bitsAvailable;
+                    bitsAvailable = count;
+                    break;
+                }
+
+                if (wordMask != 0 && (index & 7) == 0 && index + Long.BYTES <= end && bitsAvailable + wordBits <= 64) {
+                    long hidden = Long.compress(carrier.getLong(index), wordMask);
+                    bits = wordBits == 64 ? hidden : (bits << wordBits) | hidden;
+                    bitsAvailable += wordBits;
+                    index += Long.BYTES;
+                } else {
+                    if (layout.isUsable(index)) {
+                        bits = (bits << bitCount) | (carrier.get(index) & lowBits);
+                        bitsAvailable += bitCount;
+                    }
+
+                    index++;
+                }
+            }
+
+            bitsAvailable -= count;
+            return (bits >>> bitsAvailable) & ((1L << count) - 1);
+        }
+
+        private int nextByteBe() {
+            if (available() < 8) {
+                throw new CarrierEndedException();
+            }
+
+            return (int) readBits(8);
+        }
+
+        /**
+         * Reads the next hidden bytes into an array. If every byte of the carrier is usable, each word of the carrier
+         * holds <code>bitCount</code> whole bytes, so they're extracted a vector or a word at a time.
+         */
+        @Override
+        public int read(byte[] dst, int offset, int length) {
+            length = (int) Math.min(length, (available() + 7) / 8);
+            int end = offset + length;
+            if (wordBits == 8 * bitCount) {
+                // Read byte by byte until the next bit is the first one of a word
+                while (offset < end && (bitsAvailable != 0 || (index & 7) != 0)) {
+                    dst[offset++] = (byte) readBits(8);
+                }
+
+                long words = Math.min((end - offset) / bitCount, (this.end - index) / Long.BYTES);
+                if (words > 0) {
+                    int[] position = {offset};
+                    carrier.read(index, index + words * Long.BYTES, (data, start, count) -> {
+                        position[0] = extractWords(data, start, count, dst, position[0], end);
+                        return false;
+                    });
+                    offset = position[0];
+                    index += words * Long.BYTES;
+                }
+            }
+
+            while (offset < end) {
+                dst[offset++] = (byte) readBits(8);
+            }
+
+            return length;
+        }
+
+        /**
+         * Extracts the bytes hidden in a range of whole words of the carrier into an array.
+         *
+         * @return The index in the array past the last extracted byte.
+         */
+        private int extractWords(byte[] data, int offset, int length, byte[] dst, int dstFrom, int dstTo) {
+            int i = offset;
+            int end = offset + length;
+            int d = dstFrom;
+            if (vectorKernels != null) {
+                int processed = vectorKernels.extract(data, i, length, dst, d, dstTo);
+                i += processed;
+                d += processed / Long.BYTES * bitCount;
+            }
+
+            for (; i < end; i += Long.BYTES) {
+                long hidden = Long.compress((long) WORD.get(data, i), wordMask);
+                for (int shift = 8 * (bitCount - 1); shift >= 0; shift -= 8) {
+                    dst[d++] = (byte) (hidden >>> shift);
+                }
+            }
+
+            return d;
+        }
+    }
 
+    private int readMessageLength(WordExtractor bits) {
         int b1 = Byte.toUnsignedInt((byte) bits.nextByteBe());
         int b2 = Byte.toUnsignedInt((byte) bits.nextByteBe());
         int b3 = Byte.toUnsignedInt((byte) bits.nextByteBe());
         int b4 = Byte.toUnsignedInt((byte) bits.nextByteBe());
-        int messageLength = (b1 << 24) | (b2 << 16) | (b3 << 8) | b4;
-        if (messageLength <= 0) {
-            throw new IllegalArgumentException("Invalid file format: the length must be greater than 0 but was " + messageLength);
+        return (b1 << 24) | (b2 << 16) | (b3 << 8) | b4;
+    }
+
+    private ExtractResult extract(LongByteBuffer carrier, boolean withExtension) {
+        WordExtractor bits = new WordExtractor(carrier);
+
+        int messageLength = readMessageLength(bits);
+
+        // Check the length before allocating anything for it, as it's read from a carrier that can't be trusted. An
+        // empty message is valid, as empty files can be hidden, same as when it's extracted to a stream.
+        SteganographyMethod.checkMessageLength(messageLength, bits.available() / 8);
+        byte[] message = BufferPool.shared().borrowArray(messageLength);
+        long payloadEnd = MESSAGE_LENGTH_BYTES + (long) messageLength;
+        readPayload(carrier, MESSAGE_LENGTH_BYTES, payloadEnd, message, 0);
+        bits.seek(payloadEnd * 8);
+
+        // Decoded as UTF-8, the same as when the message is extracted to a stream
+        String fileExtension = withExtension ? SteganographyMethod.readFileExtension(bits) : null;
+        return new ExtractResult(message, fileExtension);
+    }
+
+    /**
+     * Extracts the bytes of the payload hidden in a carrier between two indices into an array. The range is split in
+     * chunks of the carrier holding the same amount of whole bytes of the payload, which are extracted in parallel if
+     * it's worth it.
+     */
+    private void readPayload(LongByteBuffer carrier, long from, long to, byte[] dst, int offset) {
+        long start = layout.findEnd(0, from * 8 / bitCount);
+        long end = Math.min(carrier.size(), layout.findEnd(0, (to * 8 + bitCount - 1) / bitCount));
+        long chunkSize = chunkSize(end - start);
+        if (chunkSize == 0) {
+            WordExtractor bits = new WordExtractor(carrier);
+            bits.seek(from * 8);
+            bits.read(dst, offset, (int) (to - from));
+            return;
         }
 
-        byte[] message = new byte[messageLength];
-        for (int i = 0; i < message.length; i++) {
-            message[i] = (byte) bits.nextByteBe();
+        long chunkBytes = layout.countUsable(chunkSize) * bitCount / 8;
+        ParallelChunks.forEach(pool, (int) ((to - from + chunkBytes - 1) / chunkBytes), chunk -> {
+            long chunkFrom = from + chunk * chunkBytes;
+            long chunkTo = Math.min(to, chunkFrom + chunkBytes);
+            WordExtractor bits = new WordExtractor(carrier);
+            bits.seek(chunkFrom * 8);
+            bits.read(dst, (int) (offset + chunkFrom - from), (int) (chunkTo - chunkFrom));
+        });
+    }
+
+    /**
+     * Writes the message hidden in a carrier to a stream, extracting a window of it at a time in parallel. The bits
+     * hidden in the carrier are left right after the message.
+     *
+     * @return The length of the message.
+     */
+    private int transferMessage(LongByteBuffer carrier, WordExtractor bits, OutputStream output) throws IOException {
+        int messageLength = SteganographyMethod.readMessageLength(bits);
+        if (pool == null) {
+            SteganographyMethod.transferMessage(bits, messageLength, output);
+            return messageLength;
         }
 
-        String fileExtension = null;
-        if (withExtension) {
-            StringBuilder extension = new StringBuilder();
-            int b;
-            while ((b = Byte.toUnsignedInt((byte) bits.nextByteBe())) != 0) {
-                extension.append((char) b);
-            }
-            fileExtension = extension.toString();
+        long payloadEnd = MESSAGE_LENGTH_BYTES + (long) messageLength;
+        byte[] window = new byte[Math.min(messageLength, EXTRACT_WINDOW_SIZE)];
+        for (long from = MESSAGE_LENGTH_BYTES; from < payloadEnd; from += window.length) {
+            int length = (int) Math.min(window.length, payloadEnd - from);
+            readPayload(carrier, from, from + length, window, 0);
+            output.write(window, 0, length);
         }
 
-        return new ExtractResult(message, fileExtension);
+        output.flush();
+        bits.seek(payloadEnd * 8);
+        return messageLength;
+    }
+
+    @Override
+    public int extractMessageLength(LongByteBuffer carrier) {
+        return readMessageLength(new WordExtractor(carrier));
     }
 
     @Override
-    public byte[] extractMessage(byte[] carrier) {
+    public byte[] extractMessage(LongByteBuffer carrier) {
         return extract(carrier, false).message;
     }
 
     @Override
-    public ExtractResult extractMessageWithExtension(byte[] carrier) {
+    public ExtractResult extractMessageWithExtension(LongByteBuffer carrier) {
         return extract(carrier, true);
     }
+
+    @Override
+    public BitSource openPayload(LongByteBuffer carrier) {
+        return new WordExtractor(carrier);
+    }
+
+    @Override
+    public int extractMessage(LongByteBuffer carrier, OutputStream output) throws IOException {
+        return transferMessage(carrier, new WordExtractor(carrier), output);
+    }
+
+    @Override
+    public String extractMessageWithExtension(LongByteBuffer carrier, OutputStream output) throws IOException {
+        WordExtractor bits = new WordExtractor(carrier);
+        transferMessage(carrier, bits, output);
+        return SteganographyMethod.readFileExtension(bits);
+    }
 }
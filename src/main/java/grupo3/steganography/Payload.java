@@ -0,0 +1,89 @@
+package grupo3.steganography;
+
+import grupo3.utils.BitSource;
+import grupo3.utils.BufferPool;
+import grupo3.utils.ByteArrayBitSource;
+import grupo3.utils.ConcatBitSource;
+
+import javax.crypto.Cipher;
+import java.nio.ByteBuffer;
+import java.security.GeneralSecurityException;
+import java.util.Arrays;
+
+/**
+ * The bytes hidden in a carrier, gathered from several arrays that are read in order without copying them into a
+ * single one. A framed message is made up of its length, the message itself and the trailer with its file extension.
+ */
+public final class Payload {
+    private final byte[][] segments;
+    private final long size;
+
+    /**
+     * Creates a payload made up of the given arrays, which are neither copied nor modified.
+     */
+    public Payload(byte[]... segments) {
+        this.segments = segments;
+        long size = 0;
+        for (byte[] segment : segments) {
+            size += segment.length;
+        }
+        this.size = size;
+    }
+
+    /**
+     * Frames a message with its length and a trailer with the file extension, in the layout used by
+     * {@link SteganographyMethod#hideMessageWithExtension(byte[], byte[], String)}.
+     *
+     * @param message       The message, which is not copied.
+     * @param fileExtension The file extension to append to the message, can be null.
+     */
+    public static Payload frame(byte[] message, String fileExtension) {
+        byte[] length = ByteBuffer.allocate(SteganographyMethod.MESSAGE_LENGTH_BYTES).putInt(message.length).array();
+        return new Payload(length, message, SteganographyMethod.createTrailer(fileExtension));
+    }
+
+    /**
+     * Gets the size of the payload in bytes.
+     */
+    public long size() {
+        return size;
+    }
+
+    /**
+     * Reads the bits of the payload starting from a given one, where bit 0 is the highest bit of the first byte. The
+     * source is made up of a {@link ByteArrayBitSource} over each of the arrays, concatenated with
+     * {@link ConcatBitSource}.
+     */
+    public BitSource bits(long bitIndex) {
+        BitSource bits = null;
+        long segmentEnd = size * 8;
+        for (int i = segments.length - 1; i >= 0 && segmentEnd > bitIndex; i--) {
+            long segmentBits = segments[i].length * 8L;
+            long segmentStart = segmentEnd - segmentBits;
+            BitSource segment = new ByteArrayBitSource(segments[i], Math.max(0, bitIndex - segmentStart), segmentBits);
+            bits = bits == null ? segment : new ConcatBitSource(segment, bits);
+            segmentEnd = segmentStart;
+        }
+
+        return bits != null ? bits : new ByteArrayBitSource(new byte[0]);
+    }
+
+    /**
+     * Encrypts the payload, feeding the cipher each of the arrays in turn.
+     *
+     * @param cipher A cipher initialized for encryption.
+     * @return The encrypted payload, in an array borrowed from {@link BufferPool#shared()} so it can be returned to it
+     * once done with.
+     */
+    public byte[] encrypt(Cipher cipher) throws GeneralSecurityException {
+        // The size of the output is known beforehand, so the cipher can write it straight into a pooled array
+        byte[] output = BufferPool.shared().borrowArray(cipher.getOutputSize(Math.toIntExact(size)));
+        int length = 0;
+        for (byte[] segment : segments) {
+            length += cipher.update(segment, 0, segment.length, output, length);
+        }
+
+        length += cipher.doFinal(output, length);
+        return length == output.length ? output : Arrays.copyOf(output, length);
+    }
+}
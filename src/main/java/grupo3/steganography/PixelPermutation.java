@@ -0,0 +1,98 @@
+package grupo3.steganography;
+
+import grupo3.encryption.algorithms.EncryptionAlgorithm;
+import grupo3.utils.LongByteBuffer;
+import grupo3.utils.SplitMix64;
+
+import java.nio.ByteBuffer;
+import java.security.NoSuchAlgorithmException;
+import java.security.spec.InvalidKeySpecException;
+
+/**
+ * A pseudo-random order of the pixels of a carrier, keyed by a password, so a message can be scattered across the
+ * whole image instead of being hidden in its first rows.
+ * <p>
+ * Where each pixel goes is computed on the fly, without building a table of indices. A small Feistel network is a
+ * permutation of the numbers with twice as many bits as each of its halves. Indices it maps past the last pixel are fed
+ * back into it until they land on a pixel (cycle walking). The domain is less than four times the amount of pixels, so
+ * this takes a few rounds on average.
+ * <p>
+ * Messages are scattered by hiding or extracting them as usual with any method in a view of the pixels in the order
+ * given by the permutation, so only the pixels the message takes are ever permuted.
+ * <p>
+ * The round keys are derived from the password with the same function and salt as the ciphers' keys. PBKDF2 derives
+ * its output in independent blocks of 32 bytes, and the ciphers never use more than the first two, so the third one
+ * keys the permutation and a password used for both doesn't tie the order of the pixels to the cipher's key.
+ */
+public final class PixelPermutation {
+
+    private static final int ROUNDS = 6;
+    private static final int KEY_DERIVATION_BLOCK_SIZE = 32;
+    private static final int KEY_DERIVATION_BLOCK = 3;
+
+    private final long pixelCount;
+    private final int halfBits;
+    private final long halfMask;
+    private final long[] roundKeys = new long[ROUNDS];
+
+    /**
+     * Creates the permutation of a given amount of pixels for a given key.
+     *
+     * @param key        The password that decides the order of the pixels.
+     * @param pixelCount The amount of pixels of the carrier.
+     */
+    public PixelPermutation(String key, long pixelCount) {
+        this.pixelCount = pixelCount;
+
+        // Both halves have the same amount of bits, enough for the whole domain to hold every pixel
+        int bits = Math.max(2, 64 - Long.numberOfLeadingZeros(Math.max(1, pixelCount - 1)));
+        this.halfBits = (bits + 1) / 2;
+        this.halfMask = (1L << halfBits) - 1;
+
+        ByteBuffer derived = ByteBuffer.wrap(deriveKey(key), (KEY_DERIVATION_BLOCK - 1) * KEY_DERIVATION_BLOCK_SIZE, KEY_DERIVATION_BLOCK_SIZE).slice();
+        for (int i = 0; i < ROUNDS; i++) {
+            roundKeys[i] = SplitMix64.at(derived.getLong(i % 4 * Long.BYTES), i);
+        }
+    }
+
+    /**
+     * Gets the index of the pixel of the carrier that goes in a given position of the scattered order.
+     */
+    public long permute(long index) {
+        long value = index;
+        do {
+            value = encrypt(value);
+        } while (value >= pixelCount);
+
+        return value;
+    }
+
+    /**
+     * Gets a view of the pixels of a carrier in the order given by this permutation, in which a message is hidden or
+     * extracted as usual with any method. Only the pixels the method accesses are permuted, as it accesses them.
+     */
+    public LongByteBuffer apply(LongByteBuffer carrier, int bytesPerPixel) {
+        return LongByteBuffer.permuted(carrier, bytesPerPixel, this::permute);
+    }
+
+    private long encrypt(long value) {
+        long left = value >>> halfBits;
+        long right = value & halfMask;
+        for (long roundKey : roundKeys) {
+            long next = left ^ (SplitMix64.mix(right ^ roundKey) & halfMask);
+            left = right;
+            right = next;
+        }
+
+        return left << halfBits | right;
+    }
+
+    private static byte[] deriveKey(String key) {
+        try {
+            return EncryptionAlgorithm.deriveKeyBytes(key, KEY_DERIVATION_BLOCK * KEY_DERIVATION_BLOCK_SIZE);
+        } catch (NoSuchAlgorithmException | InvalidKeySpecException e) {
+            // Every Java platform is required to support PBKDF2WithHmacSHA256
+            throw new IllegalStateException(e);
+        }
+    }
+}
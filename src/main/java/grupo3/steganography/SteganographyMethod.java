@@ -1,9 +1,28 @@
 package grupo3.steganography;
 
+import grupo3.encryption.EncryptionMode;
+import grupo3.encryption.algorithms.EncryptionAlgorithm;
+import grupo3.exceptions.CarrierEndedException;
 import grupo3.exceptions.CarrierNotLargeEnoughException;
+import grupo3.utils.BitIterator;
+import grupo3.utils.BitSource;
+import grupo3.utils.BufferPool;
+import grupo3.utils.ByteArrayBitIterator;
+import grupo3.utils.ByteArrayBitSource;
+import grupo3.utils.ConcatBitIterator;
+import grupo3.utils.ConcatBitSource;
+import grupo3.utils.InputStreamBitSource;
+import grupo3.utils.IntBitIterator;
+import grupo3.utils.LongByteBuffer;
+import grupo3.utils.OutputStreamBitSink;
 
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
 import java.nio.ByteBuffer;
 import java.nio.charset.StandardCharsets;
+import java.util.concurrent.ForkJoinPool;
 
 /**
  * An interface that defines a steganography method for hiding a message in a carrier.
@@ -12,6 +31,27 @@ public interface SteganographyMethod {
 
     int MESSAGE_LENGTH_BYTES = 4;
 
+    /**
+     * Gets the name of this method, as given to -steg.
+     */
+    String getName();
+
+    /**
+     * Creates an instance of this method that hides information only in the usable bytes of carriers with the given
+     * layout.
+     */
+    SteganographyMethod withLayout(CarrierLayout layout);
+
+    /**
+     * Creates an instance of this method that hides and extracts large messages on the given pool. The output is the
+     * same as on a single thread. Methods that can't be parallelized return themselves.
+     *
+     * @param pool The pool to use, which the caller shuts down, or null to use only the calling thread.
+     */
+    default SteganographyMethod withParallelism(ForkJoinPool pool) {
+        return this;
+    }
+
     /**
      * Calculates the minimum size required for a carrier message to be capable of sending a hidden message.
      *
@@ -19,7 +59,39 @@ public interface SteganographyMethod {
      * @param fileExtension The file extension to save, or null if not required.
      * @return The minimum size required for the carrier message.
      */
-    int calculateCarrierSize(int messageSize, String fileExtension);
+    long calculateCarrierSize(long messageSize, String fileExtension);
+
+    /**
+     * Calculates how many bytes at the start of a carrier may be modified by hiding a message in it. The rest of the
+     * carrier is always left intact.
+     *
+     * @param messageSize   The size in bytes of the hidden message.
+     * @param fileExtension The file extension to save, or null if not required.
+     * @return The size of the modified prefix of the carrier.
+     */
+    default long calculateModifiedSize(long messageSize, String fileExtension) {
+        // A '\0' is hidden after the message even without a file extension, which calculateCarrierSize doesn't count
+        return calculateCarrierSize(messageSize, fileExtension == null ? "" : fileExtension);
+    }
+
+    /**
+     * Calculates the minimum size required for a carrier to hide a payload as-is (see
+     * {@link #hidePayload(LongByteBuffer, Payload)}), which is also how many bytes at its start are modified.
+     *
+     * @param payloadSize The size in bytes of the payload.
+     */
+    default long calculatePayloadCarrierSize(long payloadSize) {
+        // Without a file extension, a message is framed with just its length
+        return calculateCarrierSize(payloadSize - MESSAGE_LENGTH_BYTES, null);
+    }
+
+    /**
+     * Calculates the maximum size for a payload hidden as-is (see {@link #hidePayload(LongByteBuffer, Payload)}) that
+     * can be carried by a carrier.
+     */
+    default long calculatePayloadCapacity(long carrierSize) {
+        return calculateHiddenSize(carrierSize, null) + MESSAGE_LENGTH_BYTES;
+    }
 
     /**
      * Calculates the maximum size for a hidden message that can be carried by a carrier.
@@ -28,7 +100,32 @@ public interface SteganographyMethod {
      * @param fileExtension The file extension to save, or null if not required.
      * @return The maximum size for a hidden message.
      */
-    int calculateHiddenSize(int carrierSize, String fileExtension);
+    long calculateHiddenSize(long carrierSize, String fileExtension);
+
+    /**
+     * Calculates the maximum size for a hidden message that can be carried by a carrier after being encrypted.
+     * <p>
+     * An encrypted message is hidden as a single block preceded by its length, and the length of the message and the
+     * file extension are encrypted along with it. This accounts for both, as well as the padding added by the cipher
+     * and the '\0' hidden after the encrypted block.
+     *
+     * @param carrierSize   The size in bytes of the carrier message.
+     * @param fileExtension The file extension to save, or null if not required.
+     * @param algorithm     The encryption algorithm, or null if the message is not encrypted.
+     * @param mode          The encryption mode, or null if the message is not encrypted.
+     * @return The maximum size for a hidden message.
+     */
+    default long calculateHiddenSize(long carrierSize, String fileExtension, EncryptionAlgorithm algorithm, EncryptionMode mode) {
+        if (algorithm == null) {
+            return calculateHiddenSize(carrierSize, fileExtension);
+        }
+
+        // The encrypted message is hidden with an empty file extension, so it's followed by a '\0' too
+        long maxEncryptedSize = calculateHiddenSize(carrierSize, "");
+        long maxPlainSize = algorithm.getMaxInputSize(maxEncryptedSize, mode);
+        long messageSize = maxPlainSize - MESSAGE_LENGTH_BYTES - createTrailer(fileExtension).length;
+        return Math.max(0, messageSize);
+    }
 
     /**
      * Hides a message into a carrier message.
@@ -39,7 +136,20 @@ public interface SteganographyMethod {
      * @param message The message to hide.
      * @throws grupo3.exceptions.CarrierNotLargeEnoughException
      */
-    void hideMessage(byte[] carrier, byte[] message);
+    default void hideMessage(byte[] carrier, byte[] message) {
+        hideMessage(LongByteBuffer.wrap(carrier), message);
+    }
+
+    /**
+     * Hides a message into a carrier message that may be larger than an array can hold.
+     * <p>
+     * The operation is done in-place, modifying the carrier message, but the message is left intact.
+     *
+     * @param carrier The carrier in which to hide the message.
+     * @param message The message to hide.
+     * @throws grupo3.exceptions.CarrierNotLargeEnoughException
+     */
+    void hideMessage(LongByteBuffer carrier, byte[] message);
 
 
     /**
@@ -52,7 +162,141 @@ public interface SteganographyMethod {
      * @param fileExtension The fileExtension to hide.
      * @throws grupo3.exceptions.CarrierNotLargeEnoughException
      */
-    void hideMessageWithExtension(byte[] carrier, byte[] message, String fileExtension);
+    default void hideMessageWithExtension(byte[] carrier, byte[] message, String fileExtension) {
+        hideMessageWithExtension(LongByteBuffer.wrap(carrier), message, fileExtension);
+    }
+
+    /**
+     * Hides a message and an extension into a carrier message that may be larger than an array can hold.
+     * <p>
+     * The operation is done in-place, modifying the carrier message, but the message is left intact.
+     *
+     * @param carrier       The carrier in which to hide the message.
+     * @param message       The message to hide.
+     * @param fileExtension The fileExtension to hide.
+     * @throws grupo3.exceptions.CarrierNotLargeEnoughException
+     */
+    void hideMessageWithExtension(LongByteBuffer carrier, byte[] message, String fileExtension);
+
+    /**
+     * Hides a message read from a stream into a carrier message, so the message doesn't need to be fully loaded in
+     * memory.
+     * <p>
+     * The operation is done in-place, modifying the carrier message. The stream is read up to the end of the message,
+     * but it's not closed.
+     *
+     * @param carrier     The carrier in which to hide the message.
+     * @param message     The stream to read the message from.
+     * @param messageSize The size in bytes of the message.
+     * @throws grupo3.exceptions.CarrierNotLargeEnoughException
+     * @throws java.io.UncheckedIOException If an error occurs while reading the message.
+     */
+    default void hideMessage(LongByteBuffer carrier, InputStream message, long messageSize) {
+        hideMessageWithExtension(carrier, message, messageSize, null);
+    }
+
+    /**
+     * Hides a message read from a stream and an extension into a carrier message, so the message doesn't need to be
+     * fully loaded in memory. By default, the message is hidden with {@link #createEmbedder(BitSource)}.
+     * <p>
+     * The operation is done in-place, modifying the carrier message. The stream is read up to the end of the message,
+     * but it's not closed.
+     *
+     * @param carrier       The carrier in which to hide the message.
+     * @param message       The stream to read the message from.
+     * @param messageSize   The size in bytes of the message.
+     * @param fileExtension The fileExtension to hide.
+     * @throws grupo3.exceptions.CarrierNotLargeEnoughException
+     * @throws java.io.UncheckedIOException If an error occurs while reading the message.
+     */
+    default void hideMessageWithExtension(LongByteBuffer carrier, InputStream message, long messageSize, String fileExtension) {
+        if (carrier.size() < calculateCarrierSize(messageSize, fileExtension)) {
+            throw new CarrierNotLargeEnoughException();
+        }
+
+        BitSource payload = createPayload(Math.toIntExact(messageSize), new InputStreamBitSource(message), fileExtension);
+        carrier.process(0, carrier.size(), createEmbedder(payload)::hide);
+    }
+
+    /**
+     * Hides a payload into a carrier message as-is, without framing it with a length or a trailer. This is how
+     * messages are hidden once framed, and how a {@link Container}, which describes itself, is hidden.
+     * <p>
+     * The operation is done in-place, modifying the carrier message, but the payload is left intact.
+     *
+     * @param carrier The carrier in which to hide the payload.
+     * @param payload The payload to hide.
+     * @throws grupo3.exceptions.CarrierNotLargeEnoughException
+     */
+    void hidePayload(LongByteBuffer carrier, Payload payload);
+
+    /**
+     * Creates an embedder that progressively hides the bits of a payload into consecutive ranges of a carrier, so the
+     * carrier does not need to be fully loaded in memory.
+     * <p>
+     * The payload is hidden as-is, so it should already include the length of the message and any trailer (see
+     * {@link #createPayload(int, BitSource, String)}).
+     *
+     * @param payload The bits to hide.
+     * @return A new embedder for the given payload.
+     * @throws UnsupportedOperationException If this method can't hide a message progressively.
+     */
+    default Embedder createEmbedder(BitSource payload) {
+        throw new UnsupportedOperationException(getClass().getSimpleName() + " does not support progressive embedding");
+    }
+
+    /**
+     * Same as {@link #createEmbedder(BitSource)}, for a payload read a bit at a time.
+     */
+    default Embedder createEmbedder(BitIterator payload) {
+        return createEmbedder(BitSource.of(payload));
+    }
+
+    /**
+     * Creates the bits of a payload made up of the length of the message, the message itself and a trailer with the
+     * file extension, in the same layout used by {@link #hideMessageWithExtension(byte[], byte[], String)}.
+     *
+     * @param messageLength The length of the message in bytes.
+     * @param message       The bits of the message.
+     * @param fileExtension The file extension to append to the message, can be null.
+     * @return The bits of the whole payload.
+     */
+    static BitSource createPayload(int messageLength, BitSource message, String fileExtension) {
+        byte[] length = ByteBuffer.allocate(MESSAGE_LENGTH_BYTES).putInt(messageLength).array();
+        return new ConcatBitSource(
+                new ConcatBitSource(new ByteArrayBitSource(length), message),
+                new ByteArrayBitSource(createTrailer(fileExtension))
+        );
+    }
+
+    /**
+     * Creates the bits of a payload made up of the length of the message, the message itself and a trailer with the
+     * file extension, in the same layout used by {@link #hideMessageWithExtension(byte[], byte[], String)}.
+     *
+     * @param messageLength The length of the message in bytes.
+     * @param message       The bits of the message.
+     * @param fileExtension The file extension to append to the message, can be null.
+     * @return The bits of the whole payload.
+     */
+    static BitIterator createPayload(int messageLength, BitIterator message, String fileExtension) {
+        return new ConcatBitIterator(
+                new ConcatBitIterator(new IntBitIterator(messageLength), message),
+                new ByteArrayBitIterator(createTrailer(fileExtension))
+        );
+    }
+
+    /**
+     * Creates the trailer appended after a message, made up of the file extension (if any) and a null terminator.
+     *
+     * @param fileExtension The file extension to append to the message, can be null.
+     * @return A byte array with the trailer.
+     */
+    static byte[] createTrailer(String fileExtension) {
+        byte[] extensionBytes = fileExtension == null ? new byte[0] : fileExtension.getBytes(StandardCharsets.UTF_8);
+        byte[] trailer = new byte[extensionBytes.length + 1];
+        System.arraycopy(extensionBytes, 0, trailer, 0, extensionBytes.length);
+        return trailer;
+    }
 
     /**
      * Creates an extended message byte array by combining the original message,
@@ -61,14 +305,14 @@ public interface SteganographyMethod {
      * @param message       The original message byte array to be extended.
      * @param fileExtension The file extension to append to the message, can be null.
      * @param includeLength Indicates whether to include the length of the message.
-     * @return A byte array representing the extended message.
+     * @return A byte array representing the extended message, borrowed from {@link BufferPool#shared()}.
      */
     private byte[] createExtendedMessage(byte[] message, String fileExtension, boolean includeLength) {
         byte[] extensionBytes = fileExtension == null ? new byte[0] : fileExtension.getBytes(StandardCharsets.UTF_8);
         int messageLength = includeLength ? MESSAGE_LENGTH_BYTES : 0;
 
-        // Create a new byte array for the combined message, extension, and null terminator
-        byte[] extendedMessage = new byte[message.length + extensionBytes.length + messageLength + 1];
+        // Borrow a byte array for the combined message, extension, and null terminator
+        byte[] extendedMessage = BufferPool.shared().borrowArray(message.length + extensionBytes.length + messageLength + 1);
         int offset = 0;
 
         if (includeLength) {
@@ -98,20 +342,37 @@ public interface SteganographyMethod {
      * into a carrier byte array, appending a file extension, and optionally including
      * the length of the message.
      *
-     * @param carrier       The byte array used as a carrier for the extended message.
+     * @param carrierSize   The size in bytes of the carrier for the extended message.
      * @param message       The original message byte array to be embedded.
      * @param fileExtension The file extension to append to the message, can be null.
      * @param includeLength Indicates whether to include the length of the message.
      * @return A byte array representing the extended message embedded within the carrier.
-     * @throws CarrierNotLargeEnoughException If the carrier byte array is not large enough to hold the extended message.
+     * @throws CarrierNotLargeEnoughException If the carrier is not large enough to hold the extended message.
      */
-    private byte[] getExtendedMessage(byte[] carrier, byte[] message, String fileExtension, boolean includeLength) throws CarrierNotLargeEnoughException {
-        if (carrier.length < calculateCarrierSize(message.length, fileExtension)) {
+    private byte[] getExtendedMessage(long carrierSize, byte[] message, String fileExtension, boolean includeLength) throws CarrierNotLargeEnoughException {
+        if (carrierSize < calculateCarrierSize(message.length, fileExtension)) {
             throw new CarrierNotLargeEnoughException();
         }
         return createExtendedMessage(message, fileExtension, includeLength);
     }
 
+    /**
+     * Frames a message with its length and a trailer with the file extension, to be hidden in a carrier. Unlike
+     * {@link #getExtendedMessageWithLength(LongByteBuffer, byte[], String)}, the message is not copied.
+     *
+     * @param carrier       The carrier the payload will be hidden in.
+     * @param message       The message to be hidden.
+     * @param fileExtension The file extension to append to the message, can be null.
+     * @return The framed message.
+     * @throws CarrierNotLargeEnoughException If the carrier is not large enough to hold the framed message.
+     */
+    default Payload getPayload(LongByteBuffer carrier, byte[] message, String fileExtension) throws CarrierNotLargeEnoughException {
+        if (carrier.size() < calculateCarrierSize(message.length, fileExtension)) {
+            throw new CarrierNotLargeEnoughException();
+        }
+        return Payload.frame(message, fileExtension);
+    }
+
     /**
      * Retrieves an extended message byte array by embedding the original message
      * into a carrier byte array, appending a file extension, and including the length
@@ -120,11 +381,20 @@ public interface SteganographyMethod {
      * @param carrier       The byte array used as a carrier for the extended message.
      * @param message       The original message byte array to be embedded.
      * @param fileExtension The file extension to append to the message, can be null.
-     * @return A byte array representing the extended message embedded within the carrier.
+     * @return A byte array representing the extended message embedded within the carrier, borrowed from
+     * {@link BufferPool#shared()} so it can be returned to it once done with.
      * @throws CarrierNotLargeEnoughException If the carrier byte array is not large enough to hold the extended message.
      */
     default byte[] getExtendedMessageWithLength(byte[] carrier, byte[] message, String fileExtension) throws CarrierNotLargeEnoughException {
-        return getExtendedMessage(carrier, message, fileExtension, true);
+        return getExtendedMessage(carrier.length, message, fileExtension, true);
+    }
+
+    /**
+     * Same as {@link #getExtendedMessageWithLength(byte[], byte[], String)}, for a carrier that may be larger than an
+     * array can hold.
+     */
+    default byte[] getExtendedMessageWithLength(LongByteBuffer carrier, byte[] message, String fileExtension) throws CarrierNotLargeEnoughException {
+        return getExtendedMessage(carrier.size(), message, fileExtension, true);
     }
 
     /**
@@ -135,13 +405,33 @@ public interface SteganographyMethod {
      * @param carrier       The byte array used as a carrier for the extended message.
      * @param message       The original message byte array to be embedded.
      * @param fileExtension The file extension to append to the message, can be null.
-     * @return A byte array representing the extended message embedded within the carrier.
+     * @return A byte array representing the extended message embedded within the carrier, borrowed from
+     * {@link BufferPool#shared()} so it can be returned to it once done with.
      * @throws CarrierNotLargeEnoughException If the carrier byte array is not large enough to hold the extended message.
      */
     default byte[] getExtendedMessageWithoutLength(byte[] carrier, byte[] message, String fileExtension) throws CarrierNotLargeEnoughException {
-        return getExtendedMessage(carrier, message, fileExtension, false);
+        return getExtendedMessage(carrier.length, message, fileExtension, false);
+    }
+
+    /**
+     * Same as {@link #getExtendedMessageWithoutLength(byte[], byte[], String)}, for a carrier that may be larger than
+     * an array can hold.
+     */
+    default byte[] getExtendedMessageWithoutLength(LongByteBuffer carrier, byte[] message, String fileExtension) throws CarrierNotLargeEnoughException {
+        return getExtendedMessage(carrier.size(), message, fileExtension, false);
     }
 
+    /**
+     * Extracts only the length of the hidden message from a carrier message, which is enough to know how much of the
+     * carrier the rest of the message takes up (see {@link #calculateModifiedSize(long, String)}). Only the first
+     * <code>calculateCarrierSize(0, null)</code> bytes of the carrier are read.
+     * <p>
+     * The carrier message is not modified.
+     *
+     * @return The length of the hidden message, which may be invalid if the carrier doesn't hold one.
+     */
+    int extractMessageLength(LongByteBuffer carrier);
+
     /**
      * Extracts a message from a carrier message.
      * <p>
@@ -149,7 +439,18 @@ public interface SteganographyMethod {
      *
      * @return A new array with the extracted message.
      */
-    byte[] extractMessage(byte[] carrier);
+    default byte[] extractMessage(byte[] carrier) {
+        return extractMessage(LongByteBuffer.wrap(carrier));
+    }
+
+    /**
+     * Extracts a message from a carrier message that may be larger than an array can hold.
+     * <p>
+     * The carrier message is not modified.
+     *
+     * @return A new array with the extracted message, which may be borrowed from {@link BufferPool#shared()}.
+     */
+    byte[] extractMessage(LongByteBuffer carrier);
 
     /**
      * Extracts a message from a carrier message, and tries to parse and store a file extension
@@ -158,7 +459,174 @@ public interface SteganographyMethod {
      *
      * @return A new array with the extracted message, and the file extension.
      */
-    ExtractResult extractMessageWithExtension(byte[] carrier);
+    default ExtractResult extractMessageWithExtension(byte[] carrier) {
+        return extractMessageWithExtension(LongByteBuffer.wrap(carrier));
+    }
+
+    /**
+     * Extracts a message from a carrier message that may be larger than an array can hold, and tries to parse and
+     * store a file extension
+     * <p>
+     * The carrier message is not modified.
+     *
+     * @return A new array with the extracted message, which may be borrowed from {@link BufferPool#shared()}, and the
+     * file extension.
+     */
+    ExtractResult extractMessageWithExtension(LongByteBuffer carrier);
+
+    /**
+     * Reads the bits hidden in a carrier message, starting from the first bit of the length of the message.
+     * <p>
+     * The carrier message is not modified.
+     *
+     * @throws UnsupportedOperationException If this method can't read the hidden bits progressively.
+     */
+    default BitSource openPayload(LongByteBuffer carrier) {
+        throw new UnsupportedOperationException(getClass().getSimpleName() + " does not support progressive extraction");
+    }
+
+    /**
+     * Extracts a message from a carrier message, writing it to a stream a chunk at a time instead of holding it whole
+     * in memory. The length of the message is checked against what the carrier can hold before anything is written.
+     * <p>
+     * The carrier message is not modified, and the stream is flushed but not closed.
+     *
+     * @return The length of the message.
+     * @throws IllegalStateException If the carrier doesn't hold a valid message.
+     */
+    default int extractMessage(LongByteBuffer carrier, OutputStream output) throws IOException {
+        BitSource bits = openPayload(carrier);
+        int messageLength = readMessageLength(bits);
+        transferMessage(bits, messageLength, output);
+        return messageLength;
+    }
+
+    /**
+     * Extracts a message from a carrier message like {@link #extractMessage(LongByteBuffer, OutputStream)}, and then
+     * the file extension stored after it.
+     *
+     * @return The file extension.
+     * @throws IllegalStateException If the carrier doesn't hold a valid message.
+     */
+    default String extractMessageWithExtension(LongByteBuffer carrier, OutputStream output) throws IOException {
+        BitSource bits = openPayload(carrier);
+        int messageLength = readMessageLength(bits);
+        transferMessage(bits, messageLength, output);
+        return readFileExtension(bits);
+    }
+
+    /**
+     * Extracts a range of the bytes of a message hidden in a carrier message, writing them to a stream. Only the
+     * length of the message and the bytes in the range are extracted, as long as {@link #openPayload(LongByteBuffer)}
+     * can skip the rest without reading them, so the carrier only needs to hold up to the end of the range.
+     * <p>
+     * The carrier message is not modified, and the stream is flushed but not closed.
+     *
+     * @param offset The index in the message of the first byte to extract.
+     * @param length The maximum amount of bytes to extract.
+     * @return How many bytes were extracted, which is fewer than <code>length</code> if the message ends before.
+     * @throws IllegalStateException If the carrier doesn't hold a valid message.
+     */
+    default int extractMessageRange(LongByteBuffer carrier, long offset, long length, OutputStream output) throws IOException {
+        if (offset < 0 || length < 0) {
+            throw new IllegalArgumentException("The offset and length of a range can't be negative");
+        }
+
+        BitSource bits = openPayload(carrier);
+        if (bits.available() < MESSAGE_LENGTH_BYTES * 8) {
+            throw new CarrierEndedException();
+        }
+
+        int messageLength = (int) bits.readBits(MESSAGE_LENGTH_BYTES * 8);
+        checkMessageLength(messageLength, Integer.MAX_VALUE);
+        int count = (int) Math.max(0, Math.min(length, messageLength - offset));
+        if (count > 0) {
+            checkMessageLength(offset + count, bits.available() / 8);
+            bits.skip(offset * 8);
+            transferMessage(bits, count, output);
+        }
+        return count;
+    }
+
+    /**
+     * Reads the length of a message from the bits hidden in a carrier, and checks the rest of them can hold it.
+     *
+     * @throws IllegalStateException If the length is negative, or larger than what the rest of the bits can hold.
+     */
+    static int readMessageLength(BitSource bits) {
+        if (bits.available() < MESSAGE_LENGTH_BYTES * 8) {
+            throw new CarrierEndedException();
+        }
+
+        int messageLength = (int) bits.readBits(MESSAGE_LENGTH_BYTES * 8);
+        checkMessageLength(messageLength, bits.available() / 8);
+        return messageLength;
+    }
+
+    /**
+     * Checks the length of a message read from a carrier, before anything is allocated for it.
+     *
+     * @param messageLength The length of the message.
+     * @param capacity      How many bytes are left that can hold the message.
+     * @throws IllegalStateException If the length is negative or larger than the capacity.
+     */
+    static void checkMessageLength(long messageLength, long capacity) {
+        if (messageLength < 0 || messageLength > capacity) {
+            throw new IllegalStateException("Invalid message length " + messageLength + ", the carrier can only hold " + capacity + " bytes");
+        }
+    }
+
+    /**
+     * Writes the next bytes of a message to a stream, a chunk at a time, flushing it afterwards.
+     *
+     * @throws CarrierEndedException If the bits end before the message does.
+     */
+    static void transferMessage(BitSource bits, int messageLength, OutputStream output) throws IOException {
+        OutputStreamBitSink sink = new OutputStreamBitSink(output);
+        long transferred = bits.transferTo(sink, messageLength);
+        sink.flush();
+        if (transferred < messageLength) {
+            throw new CarrierEndedException();
+        }
+    }
+
+    /**
+     * Reads a file extension terminated by a '\0' from the bits hidden in a carrier. Like the original format, any
+     * bytes are accepted, so the extension is only bounded by the bits left in the carrier.
+     *
+     * @return The file extension, which is empty if none was stored.
+     * @throws CarrierEndedException If the bits end before the terminator.
+     */
+    static String readFileExtension(BitSource bits) {
+        ByteArrayOutputStream extension = new ByteArrayOutputStream();
+        while (true) {
+            if (bits.available() < 8) {
+                throw new CarrierEndedException();
+            }
+
+            int b = (int) bits.readBits(8);
+            if (b == 0) {
+                return extension.toString(StandardCharsets.UTF_8);
+            }
+            extension.write(b);
+        }
+    }
+
+    /**
+     * Hides the bits of a payload into consecutive ranges of a carrier.
+     */
+    interface Embedder {
+        /**
+         * Hides as many of the remaining bits of the payload as fit in a range of the carrier. Consecutive calls must
+         * receive consecutive ranges of the same carrier.
+         *
+         * @param carrier The array containing the range of the carrier.
+         * @param offset  The index in the array at which the range starts.
+         * @param length  The length of the range.
+         * @return Whether the whole payload has been hidden, in which case the rest of the carrier may be left intact.
+         */
+        boolean hide(byte[] carrier, int offset, int length);
+    }
 
     /**
      * Represents a successful result of a steganography message extraction operation. Contains the extracted message
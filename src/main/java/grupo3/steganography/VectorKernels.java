@@ -0,0 +1,213 @@
+package grupo3.steganography;
+
+import jdk.incubator.vector.ByteVector;
+import jdk.incubator.vector.VectorMask;
+import jdk.incubator.vector.VectorOperators;
+import jdk.incubator.vector.VectorShuffle;
+import jdk.incubator.vector.VectorSpecies;
+
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.nio.ByteOrder;
+
+/**
+ * Kernels that hide and extract bits a whole vector of carrier bytes at a time with the Vector API, which compiles
+ * them to SIMD instructions (such as AVX2 or AVX-512 on x86). They produce the same output as the scalar code.
+ * <p>
+ * This class must only be reached through {@link VectorSupport}, as it can't be loaded if the Vector API isn't.
+ */
+final class VectorKernels {
+    private static final VectorSpecies<Byte> SPECIES = ByteVector.SPECIES_PREFERRED;
+
+    /**
+     * The amount of bytes in each vector, which is always a multiple of eight.
+     */
+    private static final int LANES = SPECIES.length();
+
+    private static final VarHandle LONG = MethodHandles.byteArrayViewVarHandle(long[].class, ByteOrder.LITTLE_ENDIAN);
+    private static final VarHandle INT = MethodHandles.byteArrayViewVarHandle(int[].class, ByteOrder.LITTLE_ENDIAN);
+
+    private final int bitCount;
+    private final byte lowBits;
+
+    /**
+     * The amount of payload bytes hidden in a vector of carrier bytes.
+     */
+    private final int payloadBytes;
+
+    /*
+     * Each carrier byte hides the bits of the payload that start at some bit of one of its bytes and may continue into
+     * the next one. The vector of payload bytes is rearranged so each lane holds those two bytes, which are shifted
+     * into place.
+     */
+    private final VectorShuffle<Byte> embedHigh;
+    private final VectorShuffle<Byte> embedLow;
+    private final ByteVector embedHighShift;
+    private final ByteVector embedLowShift;
+    private final ByteVector embedLowKeep;
+
+    VectorKernels(int bitCount) {
+        this.bitCount = bitCount;
+        this.lowBits = (byte) ((1 << bitCount) - 1);
+        this.payloadBytes = LANES * bitCount / 8;
+
+        int[] high = new int[LANES];
+        int[] low = new int[LANES];
+        byte[] highShift = new byte[LANES];
+        byte[] lowShift = new byte[LANES];
+        byte[] lowKeep = new byte[LANES];
+        for (int lane = 0; lane < LANES; lane++) {
+            int bit = lane * bitCount;
+            high[lane] = bit >> 3;
+            low[lane] = Math.min((bit >> 3) + 1, LANES - 1);
+            highShift[lane] = (byte) (bit & 7);
+            lowShift[lane] = (byte) ((8 - (bit & 7)) & 7);
+            lowKeep[lane] = (byte) ((bit & 7) == 0 ? 0 : 0xFF);
+        }
+
+        this.embedHigh = VectorShuffle.fromArray(SPECIES, high, 0);
+        this.embedLow = VectorShuffle.fromArray(SPECIES, low, 0);
+        this.embedHighShift = ByteVector.fromArray(SPECIES, highShift, 0);
+        this.embedLowShift = ByteVector.fromArray(SPECIES, lowShift, 0);
+        this.embedLowKeep = ByteVector.fromArray(SPECIES, lowKeep, 0);
+    }
+
+    /**
+     * Whether vectors are wide enough for the kernels to be faster than processing eight bytes at a time. A mask of a
+     * whole vector must also fit in a long.
+     */
+    static boolean isWorthwhile() {
+        return LANES >= 16 && LANES <= 64;
+    }
+
+    /**
+     * Hides the bits of a payload into the lowest bits of every byte of a range of a carrier, a vector at a time, for
+     * as many whole vectors as there are in the range and whose bits the payload has.
+     *
+     * @param carrier       The array containing the range of the carrier.
+     * @param offset        The index in the array at which the range starts.
+     * @param length        The length of the range.
+     * @param payload       The payload to hide.
+     * @param payloadOffset The index in the payload of the byte whose first bit is hidden at the start of the range.
+     * @param payloadEnd    The index in the payload past its last byte.
+     * @return How many bytes of the carrier were processed, which hide <code>bitCount</code> bits each.
+     */
+    int embed(byte[] carrier, int offset, int length, byte[] payload, int payloadOffset, int payloadEnd) {
+        int i = offset;
+        int end = offset + length;
+        byte carrierMask = (byte) ~lowBits;
+        // A whole vector of the payload is loaded, even though fewer of its bytes are hidden
+        for (int p = payloadOffset; i + LANES <= end && p + LANES <= payload.length && p + payloadBytes <= payloadEnd;
+             i += LANES, p += payloadBytes) {
+            ByteVector bytes = ByteVector.fromArray(SPECIES, payload, p);
+            ByteVector hidden = bytes.rearrange(embedHigh).lanewise(VectorOperators.LSHL, embedHighShift)
+                    .or(bytes.rearrange(embedLow).and(embedLowKeep).lanewise(VectorOperators.LSHR, embedLowShift))
+                    .lanewise(VectorOperators.LSHR, 8 - bitCount);
+            ByteVector.fromArray(SPECIES, carrier, i).and(carrierMask).or(hidden).intoArray(carrier, i);
+        }
+
+        return i - offset;
+    }
+
+    /**
+     * Extracts the bits hidden in the lowest bits of every byte of a range of a carrier, a vector at a time, for as
+     * many whole vectors as there are in the range and whose bytes fit in the destination.
+     * <p>
+     * Only a single bit or all eight bits per byte are extracted this way. Gathering other amounts of bits from several
+     * lanes into each byte takes so many rearrangements that it's no faster than doing it eight bytes at a time, so
+     * nothing is processed for them.
+     *
+     * @param carrier The array containing the range of the carrier.
+     * @param offset  The index in the array at which the range starts.
+     * @param length  The length of the range.
+     * @param dst     The array to write the extracted bytes to.
+     * @param dstFrom The index in the destination to write the first extracted byte to.
+     * @param dstTo   The index in the destination past which nothing may be written.
+     * @return How many bytes of the carrier were processed, which hide <code>bitCount</code> bits each.
+     */
+    int extract(byte[] carrier, int offset, int length, byte[] dst, int dstFrom, int dstTo) {
+        if (bitCount == 1) {
+            return extractBits(carrier, offset, length, dst, dstFrom, dstTo);
+        }
+
+        if (bitCount == 8) {
+            // Every bit of the carrier is hidden, so the payload is the carrier itself
+            int count = Math.min(length, dstTo - dstFrom) / LANES * LANES;
+            System.arraycopy(carrier, offset, dst, dstFrom, count);
+            return count;
+        }
+
+        return 0;
+    }
+
+    /**
+     * Extracts the bits hidden in the lowest bit of every byte as a mask of the lanes whose lowest bit is set, where
+     * the bit of the first lane is the lowest one. Reversing the bits of each byte of the mask gives the payload.
+     */
+    private int extractBits(byte[] carrier, int offset, int length, byte[] dst, int dstFrom, int dstTo) {
+        int i = offset;
+        int end = offset + length;
+        for (int d = dstFrom; i + LANES <= end && d + payloadBytes <= dstTo; i += LANES, d += payloadBytes) {
+            long lanes = ByteVector.fromArray(SPECIES, carrier, i).and((byte) 1).compare(VectorOperators.NE, 0).toLong();
+            long bytes = Long.reverseBytes(Long.reverse(lanes));
+            if (payloadBytes == Long.BYTES) {
+                LONG.set(dst, d, bytes);
+            } else if (payloadBytes == Integer.BYTES) {
+                INT.set(dst, d, (int) bytes);
+            } else {
+                for (int b = 0; b < payloadBytes; b++) {
+                    dst[d + b] = (byte) (bytes >>> (8 * b));
+                }
+            }
+        }
+
+        return i - offset;
+    }
+
+    /**
+     * Flips the lowest bit of the bytes of a range of a carrier whose pattern (their second and third lowest bits) is
+     * in a set, for as many whole vectors as there are in the range. Only the bytes of the usable channels of each pixel
+     * are flipped.
+     *
+     * @param data          The array containing the range of the carrier.
+     * @param offset        The index in the array at which the range starts.
+     * @param length        The length of the range.
+     * @param index         The index in the carrier at which the range starts.
+     * @param layout        The layout of the carrier.
+     * @param patterns      The set of patterns to flip, with the bit <code>1 &lt;&lt; pattern</code> set for each.
+     * @return How many bytes of the carrier were processed.
+     */
+    static int flipPatterns(byte[] data, int offset, int length, long index, CarrierLayout layout, int patterns) {
+        int bytesPerPixel = layout.getBytesPerPixel();
+
+        // Which lanes are usable depends on the channel of the first one, which changes from one vector to the next
+        @SuppressWarnings({"unchecked", "rawtypes"})
+        VectorMask<Byte>[] usable = new VectorMask[bytesPerPixel];
+        for (int channel = 0; channel < bytesPerPixel; channel++) {
+            boolean[] lanes = new boolean[LANES];
+            for (int lane = 0; lane < LANES; lane++) {
+                lanes[lane] = layout.isUsable(channel + lane);
+            }
+            usable[channel] = VectorMask.fromArray(SPECIES, lanes, 0);
+        }
+
+        int i = offset;
+        int end = offset + length;
+        int channel = (int) (index % bytesPerPixel);
+        for (; i + LANES <= end; i += LANES) {
+            ByteVector bytes = ByteVector.fromArray(SPECIES, data, i);
+            ByteVector pattern = bytes.lanewise(VectorOperators.LSHR, 1).and((byte) 0b11);
+            VectorMask<Byte> flip = SPECIES.maskAll(false);
+            for (int p = 0; p < 4; p++) {
+                if (((patterns >> p) & 1) != 0) {
+                    flip = flip.or(pattern.eq((byte) p));
+                }
+            }
+
+            bytes.lanewise(VectorOperators.XOR, (byte) 1, flip.and(usable[channel])).intoArray(data, i);
+            channel = (channel + LANES) % bytesPerPixel;
+        }
+
+        return i - offset;
+    }
+}
@@ -0,0 +1,62 @@
+package grupo3.steganography;
+
+/**
+ * Decides whether the kernels in {@link VectorKernels} can be used, without loading them unless they can.
+ * <p>
+ * The Vector API is still incubating, so it's only available when the program is run with
+ * <code>--add-modules jdk.incubator.vector</code>. Otherwise, or if they're disabled with {@link #setEnabled}, the
+ * steganography methods fall back to their scalar code, which produces the same output.
+ */
+public final class VectorSupport {
+    private static final String MODULE = "jdk.incubator.vector";
+
+    private static final boolean AVAILABLE = checkAvailable();
+    private static final VectorKernels[] KERNELS = new VectorKernels[9];
+
+    private static volatile boolean enabled = true;
+
+    private VectorSupport() {
+    }
+
+    private static boolean checkAvailable() {
+        if (ModuleLayer.boot().findModule(MODULE).isEmpty()) {
+            return false;
+        }
+
+        try {
+            return VectorKernels.isWorthwhile();
+        } catch (LinkageError e) {
+            return false;
+        }
+    }
+
+    /**
+     * Sets whether the Vector API kernels are used where they're available, which only affects the steganography
+     * methods used from then on.
+     */
+    public static void setEnabled(boolean enabled) {
+        VectorSupport.enabled = enabled;
+    }
+
+    /**
+     * Whether the Vector API kernels are used.
+     */
+    static boolean isAvailable() {
+        return AVAILABLE && enabled;
+    }
+
+    /**
+     * Gets the kernels for hiding the given amount of bits per byte, or null if the Vector API isn't available.
+     */
+    static synchronized VectorKernels kernels(int bitCount) {
+        if (!isAvailable()) {
+            return null;
+        }
+
+        if (KERNELS[bitCount] == null) {
+            KERNELS[bitCount] = new VectorKernels(bitCount);
+        }
+
+        return KERNELS[bitCount];
+    }
+}
@@ -0,0 +1,28 @@
+package grupo3.utils;
+
+/**
+ * An implementation of BitSource that reads the bits of a BitIterator one at a time.
+ */
+public class BitIteratorSource implements BitSource {
+    private final BitIterator iterator;
+
+    public BitIteratorSource(BitIterator iterator) {
+        this.iterator = iterator;
+    }
+
+    @Override
+    public long available() {
+        // An iterator only knows whether it has a next bit
+        return iterator.hasNextBit() ? 1 : 0;
+    }
+
+    @Override
+    public long readBits(int count) {
+        long bits = 0;
+        for (int i = 0; i < count; i++) {
+            bits = (bits << 1) | iterator.nextBitOrZero();
+        }
+
+        return bits;
+    }
+}
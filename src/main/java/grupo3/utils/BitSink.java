@@ -0,0 +1,24 @@
+package grupo3.utils;
+
+/**
+ * A destination for bits that can be written many at a time, most significant bit first.
+ */
+public interface BitSink {
+
+    /**
+     * Writes the lowest bits of a long, the highest of them first.
+     *
+     * @param bits  The bits to write. Any bits above the lowest <code>count</code> are ignored.
+     * @param count The amount of bits to write, between 0 and 64 inclusive.
+     */
+    void writeBits(long bits, int count);
+
+    /**
+     * Writes a range of bytes.
+     */
+    default void write(byte[] src, int offset, int length) {
+        for (int i = offset; i < offset + length; i++) {
+            writeBits(src[i], 8);
+        }
+    }
+}
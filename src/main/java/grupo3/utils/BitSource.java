@@ -0,0 +1,88 @@
+package grupo3.utils;
+
+/**
+ * A stream of bits that can be read many at a time, most significant bit first. Unlike {@link BitIterator}, which
+ * takes a call per bit, whole words and ranges of bytes are read in one call.
+ * <p>
+ * Any {@link BitIterator} can be read as a BitSource through {@link #of(BitIterator)}.
+ */
+public interface BitSource {
+
+    /**
+     * Gets how many bits can be read before reaching the end, as far as is known without blocking. This may be fewer
+     * than the bits actually left (for example, a stream may only know about the bits it has buffered), but it's 0
+     * only once the end has been reached.
+     */
+    long available();
+
+    default boolean hasNextBit() {
+        return available() > 0;
+    }
+
+    /**
+     * Reads the next bits as the lowest bits of a long, the first of them being the highest. Bits past the end are
+     * read as zeroes.
+     *
+     * @param count The amount of bits to read, between 0 and 64 inclusive.
+     */
+    long readBits(int count);
+
+    /**
+     * Skips the next bits without returning them. By default they're read and discarded, but sources that can seek
+     * skip them without reading them.
+     *
+     * @return How many bits were skipped, which is fewer than <code>count</code> only if the end was reached.
+     */
+    default long skip(long count) {
+        long skipped = 0;
+        while (skipped < count && hasNextBit()) {
+            int n = (int) Math.min(Long.SIZE, Math.min(count - skipped, available()));
+            readBits(n);
+            skipped += n;
+        }
+
+        return skipped;
+    }
+
+    /**
+     * Reads the next bytes into an array. If the end is reached partway through a byte, its missing bits are read as
+     * zeroes.
+     *
+     * @return How many bytes were read, which is fewer than <code>length</code> only if the end was reached.
+     */
+    default int read(byte[] dst, int offset, int length) {
+        int i = 0;
+        for (; i < length && hasNextBit(); i++) {
+            dst[offset + i] = (byte) readBits(8);
+        }
+
+        return i;
+    }
+
+    /**
+     * Reads up to a given amount of bytes, writing them to a sink.
+     *
+     * @return How many bytes were transferred, which is fewer than <code>length</code> only if the end was reached.
+     */
+    default long transferTo(BitSink sink, long length) {
+        byte[] buffer = new byte[(int) Math.min(length, 8192)];
+        long transferred = 0;
+        while (transferred < length) {
+            int read = read(buffer, 0, (int) Math.min(buffer.length, length - transferred));
+            sink.write(buffer, 0, read);
+            transferred += read;
+            if (read < buffer.length) {
+                break;
+            }
+        }
+
+        return transferred;
+    }
+
+    /**
+     * Reads the bits of a BitIterator as a BitSource.
+     */
+    static BitSource of(BitIterator iterator) {
+        return new BitIteratorSource(iterator);
+    }
+}
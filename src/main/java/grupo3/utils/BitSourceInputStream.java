@@ -0,0 +1,42 @@
+package grupo3.utils;
+
+import java.io.InputStream;
+
+/**
+ * An input stream that reads a given amount of bytes from a BitSource, the opposite of {@link InputStreamBitSource}.
+ * The stream ends after that amount of bytes, or earlier if the source does.
+ */
+public class BitSourceInputStream extends InputStream {
+    private final BitSource source;
+    private long remaining;
+
+    public BitSourceInputStream(BitSource source, long length) {
+        this.source = source;
+        this.remaining = length;
+    }
+
+    @Override
+    public int read() {
+        if (remaining == 0 || !source.hasNextBit()) {
+            return -1;
+        }
+
+        remaining--;
+        return (int) source.readBits(8);
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) {
+        if (len == 0) {
+            return 0;
+        }
+
+        int read = source.read(b, off, (int) Math.min(len, remaining));
+        if (read == 0) {
+            return -1;
+        }
+
+        remaining -= read;
+        return read;
+    }
+}
@@ -0,0 +1,186 @@
+package grupo3.utils;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.ConcurrentLinkedDeque;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A pool of buffers that can be borrowed and returned, so a program that hides or extracts many messages reuses the
+ * same large arrays instead of allocating new ones for each of them.
+ * <p>
+ * Buffers are grouped in size classes by powers of two. Arrays are always taken to be as long as their contents, so
+ * heap arrays are only handed out with the exact length asked for, and are matched by length within their class. This
+ * still hits every time the same sizes come up over and over, such as carriers with the same dimensions. Direct buffers
+ * are rounded up to the capacity of their class instead, with their limit set to the size asked for.
+ * <p>
+ * Borrowed buffers don't have to be returned, in which case they're garbage collected as usual. Their contents are
+ * undefined, and once returned they must not be used again. Buffers too small to be worth pooling, or too large for
+ * any class, are allocated and discarded without being counted in the statistics.
+ */
+public final class BufferPool {
+    private static final int MIN_CLASS_SHIFT = 12;
+    private static final int MAX_CLASS_SHIFT = 30;
+
+    /**
+     * How many buffers of each kind a size class keeps. Returning one more evicts the least recently returned.
+     */
+    private static final int MAX_BUFFERS_PER_CLASS = 8;
+
+    private static final long DEFAULT_MAX_RETAINED_BYTES = 256L << 20;
+
+    private static final BufferPool SHARED = new BufferPool(DEFAULT_MAX_RETAINED_BYTES);
+
+    private final long maxRetainedBytes;
+    private final SizeClass[] classes = new SizeClass[MAX_CLASS_SHIFT - MIN_CLASS_SHIFT + 1];
+    private final AtomicLong retainedBytes = new AtomicLong();
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder releases = new LongAdder();
+    private final LongAdder discards = new LongAdder();
+
+    /**
+     * Creates an empty pool.
+     *
+     * @param maxRetainedBytes The most bytes the pool keeps across all the buffers returned to it.
+     */
+    public BufferPool(long maxRetainedBytes) {
+        this.maxRetainedBytes = maxRetainedBytes;
+        for (int i = 0; i < classes.length; i++) {
+            classes[i] = new SizeClass();
+        }
+    }
+
+    /**
+     * Gets the pool shared by the whole program, which keeps up to 256 MB.
+     */
+    public static BufferPool shared() {
+        return SHARED;
+    }
+
+    private static boolean isPooled(long size) {
+        return size >= 1 << MIN_CLASS_SHIFT && size <= 1 << MAX_CLASS_SHIFT;
+    }
+
+    private static int classIndex(long size) {
+        return 64 - Long.numberOfLeadingZeros(size - 1) - MIN_CLASS_SHIFT;
+    }
+
+    /**
+     * Borrows a heap array of exactly the given length.
+     */
+    public byte[] borrowArray(int length) {
+        if (!isPooled(length)) {
+            return new byte[length];
+        }
+
+        ConcurrentLinkedDeque<byte[]> arrays = classes[classIndex(length)].arrays;
+        for (byte[] array : arrays) {
+            // Another thread may have taken the same array in the meantime, in which case it can't be removed again
+            if (array.length == length && arrays.removeFirstOccurrence(array)) {
+                retainedBytes.addAndGet(-length);
+                hits.increment();
+                return array;
+            }
+        }
+
+        misses.increment();
+        return new byte[length];
+    }
+
+    /**
+     * Borrows a direct buffer with at least the given capacity. The buffer is cleared, with its limit set to the given
+     * size.
+     */
+    public ByteBuffer borrowDirect(int size) {
+        if (!isPooled(size)) {
+            return ByteBuffer.allocateDirect(Math.max(size, 0));
+        }
+
+        int index = classIndex(size);
+        ByteBuffer buffer = classes[index].directBuffers.pollFirst();
+        if (buffer != null) {
+            retainedBytes.addAndGet(-buffer.capacity());
+            hits.increment();
+            return buffer.clear().limit(size);
+        }
+
+        misses.increment();
+        return ByteBuffer.allocateDirect(1 << (index + MIN_CLASS_SHIFT)).limit(size);
+    }
+
+    /**
+     * Returns an array to this pool, so it can be borrowed again.
+     */
+    public void release(byte[] array) {
+        if (array != null && isPooled(array.length)) {
+            retain(classes[classIndex(array.length)].arrays, array, array.length);
+        }
+    }
+
+    /**
+     * Returns a direct buffer borrowed from this pool, so it can be borrowed again.
+     */
+    public void release(ByteBuffer buffer) {
+        if (buffer != null && buffer.isDirect() && isPooled(buffer.capacity())
+                && Integer.bitCount(buffer.capacity()) == 1) {
+            retain(classes[classIndex(buffer.capacity())].directBuffers, buffer, buffer.capacity());
+        }
+    }
+
+    private <T> void retain(ConcurrentLinkedDeque<T> buffers, T buffer, int size) {
+        if (retainedBytes.addAndGet(size) > maxRetainedBytes) {
+            retainedBytes.addAndGet(-size);
+            discards.increment();
+            return;
+        }
+
+        buffers.addFirst(buffer);
+        releases.increment();
+        while (buffers.size() > MAX_BUFFERS_PER_CLASS) {
+            T evicted = buffers.pollLast();
+            if (evicted == null) {
+                break;
+            }
+
+            retainedBytes.addAndGet(-(evicted instanceof byte[] array ? array.length : ((ByteBuffer) evicted).capacity()));
+            discards.increment();
+        }
+    }
+
+    /**
+     * Gets a snapshot of how this pool has been used so far.
+     */
+    public Statistics getStatistics() {
+        return new Statistics(hits.sum(), misses.sum(), releases.sum(), discards.sum(), retainedBytes.get());
+    }
+
+    /**
+     * How a pool has been used.
+     *
+     * @param hits          How many borrowed buffers were reused from the pool.
+     * @param misses        How many borrowed buffers had to be allocated.
+     * @param releases      How many returned buffers were kept by the pool.
+     * @param discards      How many returned buffers were dropped, because the pool was full.
+     * @param retainedBytes How many bytes the pool is currently keeping.
+     */
+    public record Statistics(long hits, long misses, long releases, long discards, long retainedBytes) {
+        /**
+         * The fraction of borrowed buffers that were reused, or 0 if none were borrowed.
+         */
+        public double hitRate() {
+            return hits + misses == 0 ? 0 : (double) hits / (hits + misses);
+        }
+
+        @Override
+        public String toString() {
+            return String.format("%d hits, %d misses (%.1f%% hit rate), %d released, %d discarded, %d bytes retained",
+                    hits, misses, hitRate() * 100, releases, discards, retainedBytes);
+        }
+    }
+
+    private static final class SizeClass {
+        private final ConcurrentLinkedDeque<byte[]> arrays = new ConcurrentLinkedDeque<>();
+        private final ConcurrentLinkedDeque<ByteBuffer> directBuffers = new ConcurrentLinkedDeque<>();
+    }
+}
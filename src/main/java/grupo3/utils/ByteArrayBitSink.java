@@ -0,0 +1,52 @@
+package grupo3.utils;
+
+/**
+ * An implementation of BitSink that writes into a byte array, starting at its first bit.
+ */
+public class ByteArrayBitSink implements BitSink {
+    private final byte[] data;
+    private long bitIndex;
+
+    public ByteArrayBitSink(byte[] data, int offset) {
+        this.data = data;
+        this.bitIndex = (long) offset * 8;
+    }
+
+    public ByteArrayBitSink(byte[] data) {
+        this(data, 0);
+    }
+
+    /**
+     * Gets how many bits have been written, counting from the start of the array.
+     */
+    public long position() {
+        return bitIndex;
+    }
+
+    @Override
+    public void writeBits(long bits, int count) {
+        for (int i = count - 1; i >= 0; ) {
+            int byteIndex = (int) (bitIndex >>> 3);
+            int free = 8 - (int) (bitIndex & 7);
+            int n = Math.min(free, i + 1);
+
+            // The next n bits go in the highest free bits of the byte, which are cleared first
+            int value = (int) (bits >>> (i + 1 - n)) & ((1 << n) - 1);
+            int mask = ((1 << n) - 1) << (free - n);
+            data[byteIndex] = (byte) ((data[byteIndex] & ~mask) | (value << (free - n)));
+            bitIndex += n;
+            i -= n;
+        }
+    }
+
+    @Override
+    public void write(byte[] src, int offset, int length) {
+        if ((bitIndex & 7) != 0) {
+            BitSink.super.write(src, offset, length);
+            return;
+        }
+
+        System.arraycopy(src, offset, data, (int) (bitIndex >>> 3), length);
+        bitIndex += (long) length * 8;
+    }
+}
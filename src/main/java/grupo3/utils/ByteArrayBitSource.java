@@ -0,0 +1,126 @@
+package grupo3.utils;
+
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.nio.ByteOrder;
+
+/**
+ * An implementation of BitSource for reading the bits of a range of a byte array, up to 64 of them with a single load.
+ */
+public class ByteArrayBitSource implements BitSource {
+    private static final VarHandle WORD = MethodHandles.byteArrayViewVarHandle(long[].class, ByteOrder.BIG_ENDIAN);
+
+    private final byte[] data;
+    private final long endBit;
+    private long bitIndex;
+
+    /**
+     * Creates a source over the bits of an array between two bit indices, where bit 0 is the highest bit of the first
+     * byte.
+     */
+    public ByteArrayBitSource(byte[] data, long bitIndex, long endBit) {
+        this.data = data;
+        this.bitIndex = bitIndex;
+        this.endBit = endBit;
+    }
+
+    public ByteArrayBitSource(byte[] data) {
+        this(data, 0, (long) data.length * 8);
+    }
+
+    /**
+     * Gets the array this source reads from.
+     */
+    public byte[] array() {
+        return data;
+    }
+
+    /**
+     * Gets the index in the array of the next bit to be read, where bit 0 is the highest bit of the first byte.
+     */
+    public long position() {
+        return bitIndex;
+    }
+
+    /**
+     * Gets the index in the array past the last bit to be read.
+     */
+    public long end() {
+        return endBit;
+    }
+
+    /**
+     * Skips bits without reading them, which is also how to move past bits read directly from the array.
+     */
+    @Override
+    public long skip(long count) {
+        long skipped = Math.min(count, endBit - bitIndex);
+        bitIndex += skipped;
+        return skipped;
+    }
+
+    @Override
+    public long available() {
+        return endBit - bitIndex;
+    }
+
+    @Override
+    public long readBits(int count) {
+        if (count == 0) {
+            return 0;
+        }
+
+        int byteIndex = (int) (bitIndex >>> 3);
+        int shift = (int) (bitIndex & 7);
+        long word = (readWord(byteIndex) << shift);
+        if (shift + count > 64) {
+            // The last few bits are in the byte after the word
+            word |= Byte.toUnsignedLong(readByte(byteIndex + Long.BYTES)) >>> (8 - shift);
+        }
+
+        long bits = word >>> (64 - count);
+        long excess = bitIndex + count - endBit;
+        if (excess >= count) {
+            bits = 0;
+        } else if (excess > 0) {
+            bits &= -1L << excess;
+        }
+
+        skip(count);
+        return bits;
+    }
+
+    private long readWord(int byteIndex) {
+        if (byteIndex + Long.BYTES <= data.length) {
+            return (long) WORD.get(data, byteIndex);
+        }
+
+        long word = 0;
+        for (int i = byteIndex; i < byteIndex + Long.BYTES; i++) {
+            word = (word << 8) | Byte.toUnsignedLong(readByte(i));
+        }
+
+        return word;
+    }
+
+    private byte readByte(int index) {
+        return index < data.length ? data[index] : 0;
+    }
+
+    @Override
+    public int read(byte[] dst, int offset, int length) {
+        if ((bitIndex & 7) != 0) {
+            return BitSource.super.read(dst, offset, length);
+        }
+
+        int count = (int) Math.min(length, (available() + 7) >>> 3);
+        System.arraycopy(data, (int) (bitIndex >>> 3), dst, offset, count);
+        if (count > 0 && (available() & 7) != 0 && count == (available() + 7) >>> 3) {
+            // The range ends partway through the last byte, whose bits past the end are read as zeroes
+            dst[offset + count - 1] &= (byte) (0xFF << (8 - (available() & 7)));
+        }
+
+        skip((long) count * 8);
+        return count;
+    }
+}
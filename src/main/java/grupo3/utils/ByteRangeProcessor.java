@@ -0,0 +1,17 @@
+package grupo3.utils;
+
+/**
+ * Processes consecutive ranges of a larger sequence of bytes, such as the windows of a {@link LongByteBuffer}.
+ */
+@FunctionalInterface
+public interface ByteRangeProcessor {
+    /**
+     * Processes a range of bytes, possibly modifying them in-place.
+     *
+     * @param data   The array containing the range.
+     * @param offset The index in the array at which the range starts.
+     * @param length The length of the range.
+     * @return Whether processing is done, in which case no further ranges are given to this processor.
+     */
+    boolean process(byte[] data, int offset, int length);
+}
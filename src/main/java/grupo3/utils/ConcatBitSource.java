@@ -0,0 +1,66 @@
+package grupo3.utils;
+
+/**
+ * An implementation of BitSource that concatenates two other BitSources.
+ */
+public class ConcatBitSource implements BitSource {
+    private final BitSource first;
+    private final BitSource second;
+
+    public ConcatBitSource(BitSource first, BitSource second) {
+        this.first = first;
+        this.second = second;
+    }
+
+    /**
+     * Gets the source the next bits are read from, looking into concatenations of concatenations.
+     */
+    public BitSource current() {
+        BitSource current = first.hasNextBit() ? first : second;
+        return current instanceof ConcatBitSource concat ? concat.current() : current;
+    }
+
+    @Override
+    public long available() {
+        return first.available() + second.available();
+    }
+
+    @Override
+    public long skip(long count) {
+        long skipped = first.skip(count);
+        return skipped + second.skip(count - skipped);
+    }
+
+    @Override
+    public long readBits(int count) {
+        // The first source may know about fewer bits than it has, so it's read for as long as it hasn't ended
+        long bits = 0;
+        int remaining = count;
+        while (remaining > 0 && first.hasNextBit()) {
+            int n = (int) Math.min(remaining, first.available());
+            bits = (bits << n) | first.readBits(n);
+            remaining -= n;
+        }
+
+        return remaining == 0 ? bits : (bits << remaining) | second.readBits(remaining);
+    }
+
+    @Override
+    public int read(byte[] dst, int offset, int length) {
+        int read = 0;
+        while (read < length && first.available() >= 8) {
+            int count = first.read(dst, offset + read, (int) Math.min(length - read, first.available() >>> 3));
+            if (count == 0) {
+                break;
+            }
+            read += count;
+        }
+
+        // Bytes that are split between the sources are read bit by bit
+        while (read < length && first.hasNextBit()) {
+            dst[offset + read++] = (byte) readBits(8);
+        }
+
+        return read + second.read(dst, offset + read, length - read);
+    }
+}
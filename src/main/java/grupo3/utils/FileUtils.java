@@ -2,13 +2,127 @@ package grupo3.utils;
 
 import grupo3.exceptions.FileExtensionNotFoundException;
 
-import java.io.FileOutputStream;
-import java.io.IOException;
+import java.io.*;
+import java.nio.file.*;
+import java.nio.file.attribute.PosixFileAttributeView;
+import java.util.concurrent.ThreadLocalRandom;
 
 /**
  * Utility class for file operations.
  */
 public class FileUtils {
+    /**
+     * The path that stands for standard input when reading, or standard output when writing.
+     */
+    public static final String STANDARD_STREAM = "-";
+
+    private static final int BUFFER_SIZE = 1 << 16;
+
+    /**
+     * Checks whether a path stands for standard input or output rather than a file.
+     */
+    public static boolean isStandardStream(String path) {
+        return STANDARD_STREAM.equals(path);
+    }
+
+    /**
+     * Opens a buffered stream to read from the given file, or from standard input if the path is "-".
+     */
+    public static InputStream openInputStream(String path) throws IOException {
+        InputStream stream = isStandardStream(path) ? standardInput() : new FileInputStream(path);
+        return new BufferedInputStream(stream, BUFFER_SIZE);
+    }
+
+    /**
+     * Opens a buffered stream to write to the given file, or to standard output if the path is "-".
+     */
+    public static OutputStream openOutputStream(String path) throws IOException {
+        OutputStream stream = isStandardStream(path) ? standardOutput() : new FileOutputStream(path);
+        return new BufferedOutputStream(stream, BUFFER_SIZE);
+    }
+
+    /**
+     * Gets a stream that reads from {@link System#in}, which is left open when the stream is closed.
+     */
+    public static InputStream standardInput() {
+        return new FilterInputStream(System.in) {
+            @Override
+            public void close() {
+            }
+        };
+    }
+
+    /**
+     * Gets a stream that writes to {@link System#out}, which is flushed rather than closed when the stream is closed.
+     * Standard output doesn't throw when writing fails, so closing the stream reports it instead.
+     */
+    public static OutputStream standardOutput() {
+        PrintStream output = System.out;
+        return new FilterOutputStream(output) {
+            @Override
+            public void write(byte[] b, int off, int len) {
+                output.write(b, off, len);
+            }
+
+            @Override
+            public void close() throws IOException {
+                if (output.checkError()) {
+                    throw new IOException("Couldn't write to standard output");
+                }
+            }
+        };
+    }
+
+    /**
+     * Reads all the bytes of the given file, or of standard input if the path is "-".
+     */
+    public static byte[] readAllBytes(String path) throws IOException {
+        if (!isStandardStream(path)) {
+            return Files.readAllBytes(Path.of(path));
+        }
+
+        try (InputStream stream = openInputStream(path)) {
+            return stream.readAllBytes();
+        }
+    }
+
+    /**
+     * Creates an empty file in the same directory as another one, with a random name based on it, for writing a file
+     * that replaces the other one with {@link #replaceFile} once it's complete. Unlike
+     * {@link Files#createTempFile}, which makes files only their owner can read, the file gets the same permissions as
+     * any other new file, those allowed by the umask on POSIX systems.
+     */
+    public static Path createSiblingFile(Path target) throws IOException {
+        Path directory = target.toAbsolutePath().getParent();
+        while (true) {
+            String name = "." + target.getFileName() + "." + Long.toUnsignedString(ThreadLocalRandom.current().nextLong(), 36) + ".part";
+            try {
+                Files.newByteChannel(directory.resolve(name), StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE).close();
+                return directory.resolve(name);
+            } catch (FileAlreadyExistsException e) {
+                // Try another name
+            }
+        }
+    }
+
+    /**
+     * Moves a file over another one in the same directory, atomically where the file system allows it, so the target
+     * is never seen half-written. If the target already exists, its permissions are kept.
+     */
+    public static void replaceFile(Path source, Path target) throws IOException {
+        if (Files.exists(target)) {
+            PosixFileAttributeView view = Files.getFileAttributeView(source, PosixFileAttributeView.class);
+            if (view != null) {
+                view.setPermissions(Files.getPosixFilePermissions(target));
+            }
+        }
+
+        try {
+            Files.move(source, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (AtomicMoveNotSupportedException e) {
+            Files.move(source, target, StandardCopyOption.REPLACE_EXISTING);
+        }
+    }
 
     /**
      * Extracts the file extension from the given filename.
@@ -34,13 +148,20 @@ public class FileUtils {
     }
 
     /**
-     * Writes the given data to the specified file path using FileOutputStream.
+     * Writes the given data to the specified file path using FileOutputStream, or to standard output if the path is "-".
      *
      * @param filePath The path of the file to write to.
      * @param data     The data to write to the file.
      * @throws IOException If an I/O error occurs writing to or creating the file.
      */
     public static void writeToFile(String filePath, byte[] data) throws IOException {
+        if (isStandardStream(filePath)) {
+            try (OutputStream stream = openOutputStream(filePath)) {
+                stream.write(data);
+            }
+            return;
+        }
+
         try (FileOutputStream fos = new FileOutputStream(filePath)) {
             fos.write(data);
         }
@@ -0,0 +1,84 @@
+package grupo3.utils;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+
+/**
+ * An implementation of BitIterator for iterating over the bits of an input stream, most significant bit first.
+ * <p>
+ * The stream is read in chunks into a fixed-size buffer, so only that buffer is held in memory regardless of how long
+ * the stream is. IO errors are rethrown as UncheckedIOException, since BitIterator methods may not throw.
+ */
+public class InputStreamBitIterator implements BitIterator {
+    private static final int DEFAULT_BUFFER_SIZE = 8192;
+
+    private final InputStream stream;
+    private final byte[] buffer;
+    private int length;
+    private int index;
+    private int bitIndex;
+    private boolean ended;
+
+    public InputStreamBitIterator(InputStream stream, int bufferSize) {
+        this.stream = stream;
+        this.buffer = new byte[bufferSize];
+    }
+
+    public InputStreamBitIterator(InputStream stream) {
+        this(stream, DEFAULT_BUFFER_SIZE);
+    }
+
+    @Override
+    public boolean hasNextBit() {
+        if (index < length) {
+            return true;
+        }
+
+        fill();
+        return index < length;
+    }
+
+    @Override
+    public int nextBitOrMinusOne() {
+        if (!hasNextBit()) {
+            return -1;
+        }
+
+        // Convert a byte to int as if it were unsigned
+        int b = Byte.toUnsignedInt(buffer[index]);
+        int result = (b >> (7 - bitIndex)) & 0x01;
+
+        if (bitIndex == 7) {
+            index++;
+            bitIndex = 0;
+        } else {
+            bitIndex++;
+        }
+
+        return result;
+    }
+
+    private void fill() {
+        if (ended) {
+            return;
+        }
+
+        try {
+            int read;
+            do {
+                read = stream.read(buffer);
+            } while (read == 0);
+
+            index = 0;
+            if (read == -1) {
+                length = 0;
+                ended = true;
+            } else {
+                length = read;
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+}
@@ -0,0 +1,105 @@
+package grupo3.utils;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+
+/**
+ * An implementation of BitSource for reading the bits of an input stream, most significant bit first.
+ * <p>
+ * The stream is read in chunks into a fixed-size buffer, so only that buffer is held in memory regardless of how long
+ * the stream is. IO errors are rethrown as UncheckedIOException, since BitSource methods may not throw.
+ */
+public class InputStreamBitSource implements BitSource {
+    private static final int DEFAULT_BUFFER_SIZE = 8192;
+
+    private final InputStream stream;
+    private final byte[] buffer;
+    private int length;
+    private int index;
+    private int bitIndex;
+    private boolean ended;
+
+    public InputStreamBitSource(InputStream stream, int bufferSize) {
+        this.stream = stream;
+        this.buffer = new byte[bufferSize];
+    }
+
+    public InputStreamBitSource(InputStream stream) {
+        this(stream, DEFAULT_BUFFER_SIZE);
+    }
+
+    @Override
+    public long available() {
+        if (index >= length) {
+            fill();
+        }
+
+        return (long) (length - index) * 8 - bitIndex;
+    }
+
+    @Override
+    public long readBits(int count) {
+        long bits = 0;
+        int remaining = count;
+        while (remaining > 0) {
+            if (!hasNextBit()) {
+                return remaining == 64 ? 0 : bits << remaining;
+            }
+
+            // Take as many bits as are needed from the next byte
+            int left = 8 - bitIndex;
+            int n = Math.min(left, remaining);
+            bits = (bits << n) | ((Byte.toUnsignedInt(buffer[index]) >>> (left - n)) & ((1 << n) - 1));
+            remaining -= n;
+            bitIndex += n;
+            if (bitIndex == 8) {
+                index++;
+                bitIndex = 0;
+            }
+        }
+
+        return bits;
+    }
+
+    @Override
+    public int read(byte[] dst, int offset, int length) {
+        if (bitIndex != 0) {
+            return BitSource.super.read(dst, offset, length);
+        }
+
+        int read = 0;
+        while (read < length && hasNextBit()) {
+            int count = Math.min(length - read, this.length - index);
+            System.arraycopy(buffer, index, dst, offset + read, count);
+            index += count;
+            read += count;
+        }
+
+        return read;
+    }
+
+    private void fill() {
+        if (ended) {
+            return;
+        }
+
+        try {
+            int read;
+            do {
+                read = stream.read(buffer);
+            } while (read == 0);
+
+            index = 0;
+            bitIndex = 0;
+            if (read == -1) {
+                length = 0;
+                ended = true;
+            } else {
+                length = read;
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+}
@@ -0,0 +1,342 @@
+package grupo3.utils;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.function.LongUnaryOperator;
+
+/**
+ * A buffer of bytes indexed by long, so it can hold more than the 2 GB a single array or ByteBuffer is limited to.
+ * <p>
+ * The bytes are stored across chunks of 1 GB, which may be heap arrays, direct (off-heap) memory or memory-mapped
+ * regions of a file. A buffer may also be a view of another one with its bytes in a different order, see
+ * {@link #permuted(LongByteBuffer, int, LongUnaryOperator)}.
+ */
+public final class LongByteBuffer {
+    private static final int CHUNK_SHIFT = 30;
+    private static final int CHUNK_SIZE = 1 << CHUNK_SHIFT;
+    private static final long CHUNK_MASK = CHUNK_SIZE - 1;
+
+    /**
+     * The size of the windows into which chunks that aren't backed by an array are copied for processing.
+     */
+    private static final int WINDOW_SIZE = 1 << 16;
+
+    private final ByteBuffer[] chunks;
+    private final long size;
+    private final byte[] array;
+
+    // Set only on permuted views, which have no chunks of their own
+    private final LongByteBuffer source;
+    private final int groupSize;
+    private final LongUnaryOperator order;
+
+    private LongByteBuffer(ByteBuffer[] chunks, long size, byte[] array) {
+        this.chunks = chunks;
+        this.size = size;
+        this.array = array;
+        this.source = null;
+        this.groupSize = 0;
+        this.order = null;
+    }
+
+    private LongByteBuffer(LongByteBuffer source, int groupSize, LongUnaryOperator order) {
+        this.chunks = null;
+        this.size = source.size / groupSize * groupSize;
+        this.array = null;
+        this.source = source;
+        this.groupSize = groupSize;
+        this.order = order;
+    }
+
+    private static int chunkCount(long size) {
+        return (int) Math.max(1, (size + CHUNK_SIZE - 1) >>> CHUNK_SHIFT);
+    }
+
+    private static int chunkLength(long size, int chunk) {
+        return (int) Math.min(CHUNK_SIZE, size - ((long) chunk << CHUNK_SHIFT));
+    }
+
+    /**
+     * Creates a buffer backed by an array. Changes to the buffer are visible in the array and vice versa.
+     */
+    public static LongByteBuffer wrap(byte[] data) {
+        ByteBuffer[] chunks = new ByteBuffer[chunkCount(data.length)];
+        for (int i = 0; i < chunks.length; i++) {
+            chunks[i] = ByteBuffer.wrap(data, i << CHUNK_SHIFT, chunkLength(data.length, i)).slice();
+        }
+
+        return new LongByteBuffer(chunks, data.length, data);
+    }
+
+    /**
+     * Creates a zero-filled buffer backed by direct (off-heap) memory.
+     */
+    public static LongByteBuffer allocateDirect(long size) {
+        ByteBuffer[] chunks = new ByteBuffer[chunkCount(size)];
+        for (int i = 0; i < chunks.length; i++) {
+            chunks[i] = ByteBuffer.allocateDirect(chunkLength(size, i));
+        }
+
+        return new LongByteBuffer(chunks, size, null);
+    }
+
+    /**
+     * Creates a buffer by memory-mapping a region of a file. The mapping remains valid after the channel is closed.
+     */
+    public static LongByteBuffer map(FileChannel channel, FileChannel.MapMode mode, long position, long size) throws IOException {
+        ByteBuffer[] chunks = new ByteBuffer[chunkCount(size)];
+        for (int i = 0; i < chunks.length; i++) {
+            chunks[i] = channel.map(mode, position + ((long) i << CHUNK_SHIFT), chunkLength(size, i));
+        }
+
+        return new LongByteBuffer(chunks, size, null);
+    }
+
+    /**
+     * Creates a view of a buffer in which its groups of consecutive bytes, such as the pixels of an image, are in a
+     * different order. Group <code>i</code> of the view is group <code>order(i)</code> of the buffer, so the order
+     * must map the groups one to one. Changes to the view are visible in the buffer and vice versa.
+     * <p>
+     * The order is applied on the fly to the groups that are accessed, so nothing is copied up front. A trailing
+     * partial group of the buffer isn't part of the view.
+     *
+     * @param groupSize The amount of bytes of each group.
+     * @param order     Maps the index of a group of the view to the index of that group in the buffer.
+     */
+    public static LongByteBuffer permuted(LongByteBuffer source, int groupSize, LongUnaryOperator order) {
+        return new LongByteBuffer(source, groupSize, order);
+    }
+
+    public long size() {
+        return size;
+    }
+
+    /**
+     * Whether this buffer was created by wrapping an array, which {@link #array()} returns.
+     */
+    public boolean hasArray() {
+        return array != null;
+    }
+
+    /**
+     * Gets the array this buffer was created by wrapping.
+     *
+     * @throws UnsupportedOperationException If this buffer isn't backed by an array.
+     */
+    public byte[] array() {
+        if (array == null) {
+            throw new UnsupportedOperationException("The buffer is not backed by an array");
+        }
+
+        return array;
+    }
+
+    public byte get(long index) {
+        if (order != null) {
+            return source.get(sourceIndex(index));
+        }
+
+        return chunks[(int) (index >>> CHUNK_SHIFT)].get((int) (index & CHUNK_MASK));
+    }
+
+    /**
+     * Gets the eight bytes starting at a given index as a big-endian long.
+     */
+    public long getLong(long index) {
+        if (order == null) {
+            ByteBuffer chunk = chunks[(int) (index >>> CHUNK_SHIFT)];
+            int position = (int) (index & CHUNK_MASK);
+            if (position + Long.BYTES <= chunk.capacity()) {
+                return chunk.getLong(position);
+            }
+        }
+
+        // The bytes are split across two chunks, or groups of a view
+        long value = 0;
+        for (int i = 0; i < Long.BYTES; i++) {
+            value = (value << 8) | Byte.toUnsignedLong(get(index + i));
+        }
+
+        return value;
+    }
+
+    public void put(long index, byte value) {
+        if (order != null) {
+            source.put(sourceIndex(index), value);
+            return;
+        }
+
+        chunks[(int) (index >>> CHUNK_SHIFT)].put((int) (index & CHUNK_MASK), value);
+    }
+
+    /**
+     * Copies bytes from this buffer, starting at a given index, into an array.
+     */
+    public void get(long index, byte[] dst, int offset, int length) {
+        if (order != null) {
+            while (length > 0) {
+                int count = groupRemaining(index, length);
+                source.get(sourceIndex(index), dst, offset, count);
+                index += count;
+                offset += count;
+                length -= count;
+            }
+            return;
+        }
+
+        while (length > 0) {
+            ByteBuffer chunk = chunks[(int) (index >>> CHUNK_SHIFT)];
+            int position = (int) (index & CHUNK_MASK);
+            int count = Math.min(length, chunk.capacity() - position);
+            chunk.get(position, dst, offset, count);
+            index += count;
+            offset += count;
+            length -= count;
+        }
+    }
+
+    /**
+     * Copies bytes from this buffer, starting at a given index, into a ByteBuffer at its current position, which is
+     * advanced past them.
+     */
+    public void get(long index, ByteBuffer dst, int length) {
+        if (order != null) {
+            while (length > 0) {
+                int count = groupRemaining(index, length);
+                source.get(sourceIndex(index), dst, count);
+                index += count;
+                length -= count;
+            }
+            return;
+        }
+
+        while (length > 0) {
+            ByteBuffer chunk = chunks[(int) (index >>> CHUNK_SHIFT)];
+            int position = (int) (index & CHUNK_MASK);
+            int count = Math.min(length, chunk.capacity() - position);
+            dst.put(chunk.slice(position, count));
+            index += count;
+            length -= count;
+        }
+    }
+
+    /**
+     * Copies bytes from an array into this buffer, starting at a given index.
+     */
+    public void put(long index, byte[] src, int offset, int length) {
+        if (order != null) {
+            while (length > 0) {
+                int count = groupRemaining(index, length);
+                source.put(sourceIndex(index), src, offset, count);
+                index += count;
+                offset += count;
+                length -= count;
+            }
+            return;
+        }
+
+        while (length > 0) {
+            ByteBuffer chunk = chunks[(int) (index >>> CHUNK_SHIFT)];
+            int position = (int) (index & CHUNK_MASK);
+            int count = Math.min(length, chunk.capacity() - position);
+            chunk.put(position, src, offset, count);
+            index += count;
+            offset += count;
+            length -= count;
+        }
+    }
+
+    /**
+     * Passes the bytes in a range of this buffer through a processor, in consecutive windows, writing back any changes
+     * it makes. Chunks backed by an array are given to the processor directly, without copying.
+     *
+     * @return Whether the processor reported it was done before the end of the range.
+     */
+    public boolean process(long start, long end, ByteRangeProcessor processor) {
+        return walk(start, end, processor, true);
+    }
+
+    /**
+     * Passes the bytes in a range of this buffer through a processor, in consecutive windows. Any changes the
+     * processor makes may or may not be written back.
+     *
+     * @return Whether the processor reported it was done before the end of the range.
+     */
+    public boolean read(long start, long end, ByteRangeProcessor processor) {
+        return walk(start, end, processor, false);
+    }
+
+    private boolean walk(long start, long end, ByteRangeProcessor processor, boolean writeBack) {
+        if (order != null) {
+            return walkView(start, end, processor, writeBack);
+        }
+
+        byte[] window = null;
+        long index = start;
+        while (index < end) {
+            ByteBuffer chunk = chunks[(int) (index >>> CHUNK_SHIFT)];
+            int position = (int) (index & CHUNK_MASK);
+            int count = (int) Math.min(end - index, chunk.capacity() - position);
+
+            boolean done;
+            if (chunk.hasArray()) {
+                done = processor.process(chunk.array(), chunk.arrayOffset() + position, count);
+            } else {
+                if (window == null) {
+                    window = new byte[WINDOW_SIZE];
+                }
+
+                count = Math.min(count, WINDOW_SIZE);
+                chunk.get(position, window, 0, count);
+                done = processor.process(window, 0, count);
+                if (writeBack) {
+                    chunk.put(position, window, 0, count);
+                }
+            }
+
+            if (done) {
+                return true;
+            }
+
+            index += count;
+        }
+
+        return false;
+    }
+
+    /**
+     * Walks a permuted view by copying each window of it from the groups of the source buffer it maps to.
+     */
+    private boolean walkView(long start, long end, ByteRangeProcessor processor, boolean writeBack) {
+        byte[] window = new byte[(int) Math.min(end - start, WINDOW_SIZE)];
+        long index = start;
+        while (index < end) {
+            int count = (int) Math.min(end - index, WINDOW_SIZE);
+            get(index, window, 0, count);
+            boolean done = processor.process(window, 0, count);
+            if (writeBack) {
+                put(index, window, 0, count);
+            }
+
+            if (done) {
+                return true;
+            }
+
+            index += count;
+        }
+
+        return false;
+    }
+
+    private long sourceIndex(long index) {
+        return order.applyAsLong(index / groupSize) * groupSize + index % groupSize;
+    }
+
+    /**
+     * Gets how many of a given amount of bytes of a permuted view, starting at an index, are in the same group.
+     */
+    private int groupRemaining(long index, int length) {
+        return (int) Math.min(length, groupSize - index % groupSize);
+    }
+}
@@ -0,0 +1,71 @@
+package grupo3.utils;
+
+/**
+ * An implementation of BitIterator for iterating over the bits of a LongByteBuffer, optionally skipping the bytes of
+ * some channels of each pixel.
+ */
+public class LongByteBufferBitIterator implements BitIterator {
+    private final long endIndex;
+    private final LongByteBuffer data;
+    private final int bytesPerPixel;
+    private final int channelMask;
+    private long index;
+    private int bitIndex;
+
+    /**
+     * Creates an iterator over the bits of the bytes between two indices whose channel is in the mask, that is, those
+     * at an index <code>i</code> such that the bit <code>1 &lt;&lt; (i % bytesPerPixel)</code> of the mask is set.
+     */
+    public LongByteBufferBitIterator(long index, long endIndex, LongByteBuffer data, int bytesPerPixel, int channelMask) {
+        this.index = index;
+        this.endIndex = endIndex;
+        this.data = data;
+        this.bytesPerPixel = bytesPerPixel;
+        this.channelMask = channelMask;
+        skipUnusable();
+    }
+
+    public LongByteBufferBitIterator(long index, long endIndex, LongByteBuffer data) {
+        this(index, endIndex, data, 1, 1);
+    }
+
+    public LongByteBufferBitIterator(LongByteBuffer data) {
+        this(0, data.size(), data);
+    }
+
+    public LongByteBufferBitIterator(LongByteBuffer data, int bytesPerPixel, int channelMask) {
+        this(0, data.size(), data, bytesPerPixel, channelMask);
+    }
+
+    private void skipUnusable() {
+        while (index < endIndex && ((channelMask >> (int) (index % bytesPerPixel)) & 1) == 0) {
+            index++;
+        }
+    }
+
+    @Override
+    public boolean hasNextBit() {
+        return index < endIndex;
+    }
+
+    @Override
+    public int nextBitOrMinusOne() {
+        if (!hasNextBit()) {
+            return -1;
+        }
+
+        // Convert a byte to int as if it were unsigned
+        int b = Byte.toUnsignedInt(data.get(index));
+        int result = (b >> (7 - bitIndex)) & 0x01;
+
+        if (bitIndex == 7) {
+            index++;
+            bitIndex = 0;
+            skipUnusable();
+        } else {
+            bitIndex++;
+        }
+
+        return result;
+    }
+}
@@ -0,0 +1,42 @@
+package grupo3.utils;
+
+/**
+ * Counts the appearances of an LSBI pattern and how many of them need an inversion. Both are longs, as carriers can hold
+ * more than 2^31 bytes.
+ */
+public class LongPair {
+    private long appearances;
+    private long inversions;
+
+    // Constructor initializes both counters to 0
+    public LongPair() {
+        this.appearances = 0;
+        this.inversions = 0;
+    }
+
+    // Method to increment appearances by 1
+    public void incrementAppearances() {
+        this.appearances++;
+    }
+
+    // Method to increment inversions by 1
+    public void incrementInversions() {
+        this.inversions++;
+    }
+
+    // Method to add the appearances and inversions counted by another pair
+    public void add(LongPair other) {
+        this.appearances += other.appearances;
+        this.inversions += other.inversions;
+    }
+
+    // Method to retrieve the current value of appearances
+    public long getAppearances() {
+        return this.appearances;
+    }
+
+    // Method to retrieve the current value of inversions
+    public long getInversions() {
+        return this.inversions;
+    }
+}
\ No newline at end of file
@@ -0,0 +1,107 @@
+package grupo3.utils;
+
+import java.io.Flushable;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+
+/**
+ * An implementation of BitSink that writes to an output stream through a buffer. Bits are only written to the stream
+ * once they make up whole bytes, so {@link #flush()} must be called after the last bit.
+ * <p>
+ * IO errors are rethrown as UncheckedIOException, since BitSink methods may not throw.
+ */
+public class OutputStreamBitSink implements BitSink, Flushable {
+    private static final int DEFAULT_BUFFER_SIZE = 8192;
+
+    private final OutputStream stream;
+    private final byte[] buffer;
+    private int length;
+
+    /**
+     * The bits written that don't make up a whole byte yet, which are the lowest pendingBits ones.
+     */
+    private long bits;
+    private int pendingBits;
+
+    public OutputStreamBitSink(OutputStream stream, int bufferSize) {
+        this.stream = stream;
+        this.buffer = new byte[bufferSize];
+    }
+
+    public OutputStreamBitSink(OutputStream stream) {
+        this(stream, DEFAULT_BUFFER_SIZE);
+    }
+
+    @Override
+    public void writeBits(long value, int count) {
+        if (count > 32) {
+            // Keep room in the pending bits for the ones already there
+            writeBits(value >>> 32, count - 32);
+            count = 32;
+        }
+
+        bits = (bits << count) | (value & ((1L << count) - 1));
+        pendingBits += count;
+        while (pendingBits >= 8) {
+            pendingBits -= 8;
+            put((byte) (bits >>> pendingBits));
+        }
+    }
+
+    @Override
+    public void write(byte[] src, int offset, int length) {
+        if (pendingBits != 0) {
+            BitSink.super.write(src, offset, length);
+            return;
+        }
+
+        if (this.length + length > buffer.length) {
+            drain();
+        }
+
+        if (length >= buffer.length) {
+            writeToStream(src, offset, length);
+        } else {
+            System.arraycopy(src, offset, buffer, this.length, length);
+            this.length += length;
+        }
+    }
+
+    private void put(byte b) {
+        if (length == buffer.length) {
+            drain();
+        }
+
+        buffer[length++] = b;
+    }
+
+    private void drain() {
+        writeToStream(buffer, 0, length);
+        length = 0;
+    }
+
+    private void writeToStream(byte[] src, int offset, int length) {
+        try {
+            stream.write(src, offset, length);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * Writes everything written so far to the stream and flushes it. A partial last byte is padded with zeroes, so
+     * the next bit written starts a new byte.
+     */
+    @Override
+    public void flush() throws IOException {
+        if (pendingBits != 0) {
+            put((byte) (bits << (8 - pendingBits)));
+            pendingBits = 0;
+        }
+
+        stream.write(buffer, 0, length);
+        length = 0;
+        stream.flush();
+    }
+}
@@ -0,0 +1,121 @@
+package grupo3.utils;
+
+import java.io.Serial;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.function.IntConsumer;
+
+/**
+ * Runs an action for each of a number of independent chunks of work on a {@link ForkJoinPool}, splitting the chunks in
+ * halves until each task has a single one, so idle threads can steal whatever is left.
+ */
+public final class ParallelChunks {
+
+    /**
+     * The smallest range of a carrier worth handing to a thread of its own.
+     */
+    public static final long MIN_CHUNK_SIZE = 1 << 20;
+
+    /**
+     * How many chunks each thread gets on average, so threads that finish early can take over the rest.
+     */
+    private static final int CHUNKS_PER_THREAD = 4;
+
+    private ParallelChunks() {
+    }
+
+    /**
+     * Decides how many chunks to split a range of a carrier into.
+     *
+     * @param pool   The pool the chunks would run on, or null if there's none.
+     * @param length The length of the range.
+     * @return The amount of chunks, which is 1 if the range should be processed on the calling thread, either because
+     * there's no pool or because it's too short to be worth splitting.
+     */
+    public static long chunkCount(ForkJoinPool pool, long length) {
+        if (pool == null || length < 2 * MIN_CHUNK_SIZE) {
+            return 1;
+        }
+
+        return Math.min((long) pool.getParallelism() * CHUNKS_PER_THREAD, length / MIN_CHUNK_SIZE);
+    }
+
+    /**
+     * Splits a range of a carrier into consecutive chunks of about the same length, and runs an action for each of
+     * them, waiting for all of them to finish. Ranges that aren't worth splitting (see
+     * {@link #chunkCount(ForkJoinPool, long)}) are processed whole on the calling thread.
+     *
+     * @param pool   The pool to run the chunks on, or null to run the whole range on the calling thread.
+     * @param start  The index at which the range starts.
+     * @param end    The index at which the range ends.
+     * @param action The action to run for each chunk.
+     */
+    public static void forEachRange(ForkJoinPool pool, long start, long end, RangeAction action) {
+        long chunks = chunkCount(pool, end - start);
+        if (chunks <= 1) {
+            if (start < end) {
+                action.run(start, end);
+            }
+            return;
+        }
+
+        long chunkSize = (end - start + chunks - 1) / chunks;
+        forEach(pool, (int) ((end - start + chunkSize - 1) / chunkSize), chunk -> {
+            long from = start + chunk * chunkSize;
+            action.run(from, Math.min(end, from + chunkSize));
+        });
+    }
+
+    /**
+     * Runs an action for every chunk between 0 and <code>chunkCount</code>, waiting for all of them to finish. If any
+     * of them throws an exception, it's rethrown on the calling thread.
+     *
+     * @param pool       The pool to run the chunks on.
+     * @param chunkCount The amount of chunks.
+     * @param action     The action to run, which receives the index of the chunk.
+     */
+    public static void forEach(ForkJoinPool pool, int chunkCount, IntConsumer action) {
+        if (chunkCount > 0) {
+            pool.invoke(new ChunkAction(0, chunkCount, action));
+        }
+    }
+
+    /**
+     * An action run for a chunk of a range.
+     */
+    public interface RangeAction {
+        /**
+         * Processes the indices of a chunk, from <code>start</code> inclusive to <code>end</code> exclusive.
+         */
+        void run(long start, long end);
+    }
+
+    private static final class ChunkAction extends RecursiveAction {
+        @Serial
+        private static final long serialVersionUID = 1L;
+
+        private final int from;
+        private final int to;
+
+        // Tasks are never serialized, so the action doesn't need to be serializable
+        @SuppressWarnings("serial")
+        private final IntConsumer action;
+
+        private ChunkAction(int from, int to, IntConsumer action) {
+            this.from = from;
+            this.to = to;
+            this.action = action;
+        }
+
+        @Override
+        protected void compute() {
+            if (to - from == 1) {
+                action.accept(from);
+                return;
+            }
+
+            int middle = (from + to) >>> 1;
+            invokeAll(new ChunkAction(from, middle, action), new ChunkAction(middle, to, action));
+        }
+    }
+}
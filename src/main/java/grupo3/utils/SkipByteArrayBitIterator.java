@@ -2,18 +2,38 @@ package grupo3.utils;
 
 public class SkipByteArrayBitIterator implements BitIterator {
 
-    private final int endIndex;
-    private final byte[] data;
+    private final long endIndex;
+    private final LongByteBuffer data;
     private final byte[] inversions;
-    private int index;
+    private final int bytesPerPixel;
+    private final int channelMask;
+    private long index;
 
-    public SkipByteArrayBitIterator(int index, int endIndex, byte[] data, byte[] inversions) {
+    /**
+     * Creates an iterator over the hidden bits of the bytes between two indices whose channel is in the mask, that is,
+     * those at an index <code>i</code> such that the bit <code>1 &lt;&lt; (i % bytesPerPixel)</code> of the mask is
+     * set. The starting index must be one of them.
+     */
+    public SkipByteArrayBitIterator(long index, long endIndex, LongByteBuffer data, byte[] inversions, int bytesPerPixel, int channelMask) {
         this.index = index;
         this.endIndex = endIndex;
         this.data = data;
         this.inversions = inversions;
+        this.bytesPerPixel = bytesPerPixel;
+        this.channelMask = channelMask;
+    }
+
+    /**
+     * Creates an iterator over the hidden bits of the bytes between two indices, skipping every third byte (the red
+     * channel of a 24-bit bitmap).
+     */
+    public SkipByteArrayBitIterator(long index, long endIndex, LongByteBuffer data, byte[] inversions) {
+        this(index, endIndex, data, inversions, 3, 0b011);
     }
 
+    public SkipByteArrayBitIterator(int index, int endIndex, byte[] data, byte[] inversions) {
+        this(index, endIndex, LongByteBuffer.wrap(data), inversions);
+    }
 
     public SkipByteArrayBitIterator(byte[] data, byte[] inversions) {
         this(0, data.length, data, inversions);
@@ -30,13 +50,15 @@ public class SkipByteArrayBitIterator implements BitIterator {
             return -1;
         }
 
-        int b = Byte.toUnsignedInt(data[index]);
+        int b = Byte.toUnsignedInt(data.get(index));
         int toReturn = getHiddenBit(b);
 
         if (toReturn != 0 && toReturn != 1) {
             throw new IllegalStateException("a byte should be 0 or 1");
         }
-        index = index % 3 == 1 ? index + 2 : index + 1;
+        do {
+            index++;
+        } while (index < endIndex && ((channelMask >> (int) (index % bytesPerPixel)) & 1) == 0);
         return toReturn;
     }
 
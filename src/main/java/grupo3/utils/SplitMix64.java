@@ -0,0 +1,36 @@
+package grupo3.utils;
+
+/**
+ * The SplitMix64 generator, the same one behind {@link java.util.SplittableRandom}, seen as a function of its position
+ * in the sequence rather than as a state that's advanced. Any output can be computed on its own, so ranges of a carrier
+ * processed in parallel get the same random values as when processed in order, no matter how they're split.
+ */
+public final class SplitMix64 {
+
+    /**
+     * The odd constant the state of the generator is advanced by for each output.
+     */
+    public static final long GOLDEN_GAMMA = 0x9E3779B97F4A7C15L;
+
+    private SplitMix64() {
+    }
+
+    /**
+     * Gets an output of the generator.
+     *
+     * @param seed  The seed of the generator.
+     * @param index The position of the output in the sequence, starting at 0.
+     */
+    public static long at(long seed, long index) {
+        return mix(seed + (index + 1) * GOLDEN_GAMMA);
+    }
+
+    /**
+     * The finalizer of SplitMix64, which spreads every bit of its input across the output.
+     */
+    public static long mix(long value) {
+        value = (value ^ (value >>> 30)) * 0xBF58476D1CE4E5B9L;
+        value = (value ^ (value >>> 27)) * 0x94D049BB133111EBL;
+        return value ^ (value >>> 31);
+    }
+}
@@ -1,5 +1,6 @@
 package grupo3.utils;
 
+import java.nio.charset.StandardCharsets;
 import java.util.Arrays;
 
 /**
@@ -55,7 +56,7 @@ public class SteganographyDataProcessor {
     public String extractFileExtension() {
         int extensionStartIndex = REAL_SIZE_BYTES + realSize;
         byte[] extensionBytes = Arrays.copyOfRange(decryptedBytes, extensionStartIndex, decryptedBytes.length);
-        return new String(extensionBytes).replace("\0", ""); // Remove null terminator
+        return new String(extensionBytes, StandardCharsets.UTF_8).replace("\0", ""); // Remove null terminator
     }
 
     /**
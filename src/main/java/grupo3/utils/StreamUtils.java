@@ -57,15 +57,30 @@ public final class StreamUtils {
         }
     }
 
-    public static void readIgnore(InputStream stream, int length) throws IOException {
-        for (int i = 0; i < length; i++) {
-            stream.read();
+    /**
+     * Skips up to <code>length</code> bytes of a stream, stopping early if the stream ends.
+     */
+    public static void readIgnore(InputStream stream, long length) throws IOException {
+        while (length > 0) {
+            long skipped = stream.skip(length);
+            if (skipped <= 0) {
+                // skip() may return 0 without the stream having ended, so check by reading a single byte
+                if (stream.read() == -1) {
+                    return;
+                }
+                skipped = 1;
+            }
+
+            length -= skipped;
         }
     }
 
     public static void writeZeroes(OutputStream stream, int length) throws IOException {
-        for (int i = 0; i < length; i++) {
-            stream.write(0);
+        byte[] zeroes = new byte[Math.min(length, 8192)];
+        while (length > 0) {
+            int count = Math.min(length, zeroes.length);
+            stream.write(zeroes, 0, count);
+            length -= count;
         }
     }
 }
@@ -0,0 +1,404 @@
+package grupo3;
+
+import grupo3.encryption.EncryptionMode;
+import grupo3.encryption.algorithms.AES128Encryption;
+import grupo3.steganography.LsbiSteganography;
+import grupo3.steganography.LsbxSteganography;
+import grupo3.steganography.SteganographyMethod;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.PrintStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.PosixFileAttributeView;
+import java.util.Arrays;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.junit.jupiter.api.Assumptions.assumeTrue;
+
+/**
+ * Runs the program end to end on bitmap files, hiding a message and extracting it back.
+ */
+class MainTest {
+
+    @TempDir
+    Path directory;
+
+    /**
+     * Runs the program with the given arguments, where paths other than "-" are relative to the test directory.
+     */
+    private void run(String... args) {
+        String[] resolved = args.clone();
+        for (int i = 1; i < resolved.length; i++) {
+            boolean path = resolved[i - 1].equals("-in") || resolved[i - 1].equals("-p") || resolved[i - 1].equals("-out");
+            if (path && !resolved[i].equals("-")) {
+                resolved[i] = directory.resolve(resolved[i]).toString();
+            }
+        }
+        Main.main(resolved);
+    }
+
+    /**
+     * Runs the program like {@link #run(String...)}, capturing what it writes to standard output.
+     */
+    private String runCapturing(String... args) {
+        PrintStream original = System.out;
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        System.setOut(new PrintStream(output, true));
+        try {
+            run(args);
+        } finally {
+            System.setOut(original);
+        }
+        return output.toString();
+    }
+
+    /**
+     * Runs the program like {@link #run(String...)}, with the given bytes as standard input.
+     *
+     * @return What it wrote to standard output.
+     */
+    private byte[] runPiped(byte[] input, String... args) {
+        InputStream originalInput = System.in;
+        PrintStream originalOutput = System.out;
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        System.setIn(new ByteArrayInputStream(input));
+        System.setOut(new PrintStream(output, true));
+        try {
+            run(args);
+        } finally {
+            System.setIn(originalInput);
+            System.setOut(originalOutput);
+        }
+        return output.toByteArray();
+    }
+
+    /**
+     * Writes a random carrier and message to the test directory, as carrier.bmp and message.bin.
+     *
+     * @return The message.
+     */
+    private byte[] createFiles(int width, int height, int bitCount, int messageLength) throws IOException {
+        Files.write(directory.resolve("carrier.bmp"), TestBitmaps.create(width, height, bitCount, 1));
+        byte[] message = TestBitmaps.message(messageLength, 2);
+        Files.write(directory.resolve("message.bin"), message);
+        return message;
+    }
+
+    @Test
+    void extractedFilesGetTheDefaultPermissions() throws IOException {
+        assumeTrue(Files.getFileAttributeView(directory, PosixFileAttributeView.class) != null);
+        byte[] message = createFiles(200, 100, 24, 5000);
+
+        run("-embed", "-in", "message.bin", "-p", "carrier.bmp", "-out", "output.bmp", "-steg", "LSB1");
+        run("-extract", "-p", "output.bmp", "-out", "extracted", "-steg", "LSB1");
+
+        Path extracted = directory.resolve("extracted.bin");
+        assertArrayEquals(message, Files.readAllBytes(extracted));
+        Path created = Files.createFile(directory.resolve("created"));
+        assertEquals(Files.getPosixFilePermissions(created), Files.getPosixFilePermissions(extracted));
+        try (var files = Files.list(directory)) {
+            assertTrue(files.noneMatch(file -> file.getFileName().toString().endsWith(".part")), "no temporary file is left behind");
+        }
+    }
+
+    @Test
+    void extractsRanges() throws IOException {
+        byte[] message = createFiles(300, 200, 24, 5000);
+        for (String method : new String[]{"LSB1", "LSB3", "LSBI"}) {
+            run("-embed", "-in", "message.bin", "-p", "carrier.bmp", "-out", "output.bmp", "-steg", method);
+
+            run("-extract", "-p", "output.bmp", "-out", "middle", "-steg", method, "-offset", "1000", "-length", "500");
+            assertArrayEquals(Arrays.copyOfRange(message, 1000, 1500), Files.readAllBytes(directory.resolve("middle")), method);
+
+            run("-extract", "-p", "output.bmp", "-out", "start", "-steg", method, "-length", "10");
+            assertArrayEquals(Arrays.copyOfRange(message, 0, 10), Files.readAllBytes(directory.resolve("start")), method);
+
+            run("-extract", "-p", "output.bmp", "-out", "end", "-steg", method, "-offset", "4900", "-length", "500");
+            assertArrayEquals(Arrays.copyOfRange(message, 4900, 5000), Files.readAllBytes(directory.resolve("end")), method);
+
+            run("-extract", "-p", "output.bmp", "-out", "rest", "-steg", method, "-offset", "4000", "-threads", "2");
+            assertArrayEquals(Arrays.copyOfRange(message, 4000, 5000), Files.readAllBytes(directory.resolve("rest")), method);
+
+            run("-extract", "-p", "output.bmp", "-out", "past", "-steg", method, "-offset", "6000");
+            assertEquals(0, Files.size(directory.resolve("past")), method);
+        }
+    }
+
+    @Test
+    void detectsTheSteganographyMethod() throws IOException {
+        byte[] message = createFiles(300, 200, 32, 5000);
+        String[][] embeddings = {
+                {"-steg", "LSB1"},
+                {"-steg", "LSB4"},
+                {"-steg", "LSB7", "-noalpha"},
+                {"-steg", "LSBI"},
+                {"-steg", "LSBM"},
+                {"-steg", "LSB2", "-a", "aes192", "-m", "ofb", "-pass", "secret"},
+                {"-steg", "LSB3", "-container", "-compress"},
+        };
+
+        for (String[] embedding : embeddings) {
+            String[] options = Arrays.copyOfRange(embedding, 2, embedding.length);
+            run(concat(new String[]{"-embed", "-in", "message.bin", "-p", "carrier.bmp", "-out", "output.bmp"}, embedding));
+
+            // Options only needed to embed aren't given to extract
+            String[] extracting = Arrays.stream(options).filter(option -> !option.equals("-container") && !option.equals("-compress")).toArray(String[]::new);
+            String[] logs = new String[2];
+            for (int threads = 1; threads <= 2; threads++) {
+                Files.deleteIfExists(directory.resolve("extracted.bin"));
+                String[] detecting = concat(new String[]{"-extract", "-p", "output.bmp", "-out", "extracted", "-steg", "auto", "-threads", String.valueOf(threads)}, extracting);
+                logs[threads - 1] = runCapturing(detecting).replaceAll("(?s).*(Detecting.*?)Extracting.*", "$1");
+                assertArrayEquals(message, Files.readAllBytes(directory.resolve("extracted.bin")), String.join(" ", embedding));
+            }
+
+            // On a pool the candidates are tried at the same time, which finds the same ones
+            assertEquals(logs[0], logs[1], String.join(" ", embedding));
+        }
+    }
+
+    @Test
+    void hidesContainers() throws IOException {
+        byte[] message = createFiles(300, 200, 24, 5000);
+        String[][] options = {{}, {"-compress"}, {"-pass", "secret"}, {"-compress", "-a", "des", "-m", "cfb", "-pass", "secret"}};
+        for (String[] option : options) {
+            run(concat(new String[]{"-embed", "-in", "message.bin", "-p", "carrier.bmp", "-out", "output.bmp", "-steg", "LSB2", "-container"}, option));
+
+            String[] password = Arrays.stream(option).filter(argument -> !argument.equals("-compress")).toArray(String[]::new);
+            Files.deleteIfExists(directory.resolve("extracted.bin"));
+            run(concat(new String[]{"-extract", "-p", "output.bmp", "-out", "extracted", "-steg", "LSB2", "-threads", "2"}, password));
+            assertArrayEquals(message, Files.readAllBytes(directory.resolve("extracted.bin")), String.join(" ", option));
+
+            if (password.length == 0) {
+                run("-extract", "-p", "output.bmp", "-out", "range", "-steg", "LSB2", "-offset", "4000", "-length", "300");
+                assertArrayEquals(Arrays.copyOfRange(message, 4000, 4300), Files.readAllBytes(directory.resolve("range")), String.join(" ", option));
+            }
+        }
+    }
+
+    @Test
+    void scattersMessages() throws IOException {
+        byte[] message = createFiles(300, 200, 24, 5000);
+        run("-embed", "-in", "message.bin", "-p", "carrier.bmp", "-out", "plain.bmp", "-steg", "LSB1");
+        String[][] embeddings = {
+                {"-steg", "LSB1"},
+                {"-steg", "LSB3", "-threads", "3"},
+                {"-steg", "LSBI"},
+                {"-steg", "LSBM"},
+                {"-steg", "LSB2", "-a", "aes128", "-m", "cbc", "-pass", "secret"},
+                {"-steg", "LSB4", "-container", "-compress", "-threads", "2"},
+        };
+
+        for (String[] embedding : embeddings) {
+            run(concat(new String[]{"-embed", "-in", "message.bin", "-p", "carrier.bmp", "-out", "output.bmp", "-scatter", "order"}, embedding));
+
+            String[] extracting = Arrays.stream(embedding).filter(option -> !option.equals("-container") && !option.equals("-compress")).toArray(String[]::new);
+            Files.deleteIfExists(directory.resolve("extracted.bin"));
+            run(concat(new String[]{"-extract", "-p", "output.bmp", "-out", "extracted", "-scatter", "order"}, extracting));
+            assertArrayEquals(message, Files.readAllBytes(directory.resolve("extracted.bin")), String.join(" ", embedding));
+
+            // Without the right key, the message isn't found
+            Files.deleteIfExists(directory.resolve("extracted.bin"));
+            run(concat(new String[]{"-extract", "-p", "output.bmp", "-out", "extracted", "-scatter", "other"}, extracting));
+            assertFalse(Files.exists(directory.resolve("extracted.bin")) && Arrays.equals(message, Files.readAllBytes(directory.resolve("extracted.bin"))),
+                    String.join(" ", embedding));
+        }
+
+        run("-embed", "-in", "message.bin", "-p", "carrier.bmp", "-out", "output.bmp", "-steg", "LSB1", "-scatter", "order");
+        assertFalse(Arrays.equals(Files.readAllBytes(directory.resolve("plain.bmp")), Files.readAllBytes(directory.resolve("output.bmp"))));
+        run("-extract", "-p", "output.bmp", "-out", "extracted", "-steg", "auto", "-scatter", "order");
+        assertArrayEquals(message, Files.readAllBytes(directory.resolve("extracted.bin")));
+        run("-extract", "-p", "output.bmp", "-out", "range", "-steg", "LSB1", "-scatter", "order", "-offset", "1000", "-length", "500");
+        assertArrayEquals(Arrays.copyOfRange(message, 1000, 1500), Files.readAllBytes(directory.resolve("range")));
+    }
+
+    @Test
+    void lsbmSeedReproducesTheOutput() throws IOException {
+        byte[] message = createFiles(300, 200, 24, 5000);
+        run("-embed", "-in", "message.bin", "-p", "carrier.bmp", "-out", "first.bmp", "-steg", "LSBM", "-seed", "42");
+        run("-embed", "-in", "message.bin", "-p", "carrier.bmp", "-out", "threads.bmp", "-steg", "LSBM", "-seed", "42", "-threads", "3");
+        run("-embed", "-in", "message.bin", "-p", "carrier.bmp", "-out", "streamed.bmp", "-steg", "LSBM", "-seed", "42", "-stream");
+        run("-embed", "-in", "message.bin", "-p", "carrier.bmp", "-out", "other.bmp", "-steg", "LSBM", "-seed", "43");
+
+        byte[] first = Files.readAllBytes(directory.resolve("first.bmp"));
+        assertArrayEquals(first, Files.readAllBytes(directory.resolve("threads.bmp")));
+        assertArrayEquals(first, Files.readAllBytes(directory.resolve("streamed.bmp")));
+        assertFalse(Arrays.equals(first, Files.readAllBytes(directory.resolve("other.bmp"))));
+
+        run("-extract", "-p", "first.bmp", "-out", "extracted", "-steg", "LSBM");
+        assertArrayEquals(message, Files.readAllBytes(directory.resolve("extracted.bin")));
+    }
+
+    @Test
+    void probesTheLargestMessageThatFits() throws IOException {
+        createFiles(300, 200, 24, 1);
+        String[] columns = {"", "-a aes128 -m ofb -pass secret", "-a aes256 -m cbc -pass secret", "-a des -m ecb -pass secret"};
+        String probe = runCapturing("-probe", "-p", "carrier.bmp", "-in", "message.bin");
+        for (String method : new String[]{"LSB1", "LSB4", "LSBI", "LSB8"}) {
+            String row = probe.lines().filter(line -> line.startsWith(method + " ")).findFirst().orElseThrow();
+            String[] sizes = row.trim().split(" +");
+            for (int column = 0; column < columns.length; column++) {
+                int capacity = Integer.parseInt(sizes[column + 1]);
+                String description = method + " " + columns[column];
+                String[] embedding = concat(new String[]{"-embed", "-in", "message.bin", "-p", "carrier.bmp", "-out", "output.bmp", "-steg", method},
+                        columns[column].isEmpty() ? new String[0] : columns[column].split(" "));
+
+                Files.write(directory.resolve("message.bin"), TestBitmaps.message(capacity, 3));
+                Files.deleteIfExists(directory.resolve("output.bmp"));
+                run(embedding);
+                assertTrue(Files.exists(directory.resolve("output.bmp")), description);
+
+                Files.write(directory.resolve("message.bin"), TestBitmaps.message(capacity + 1, 3));
+                Files.deleteIfExists(directory.resolve("output.bmp"));
+                run(embedding);
+                assertFalse(Files.exists(directory.resolve("output.bmp")), description);
+            }
+        }
+    }
+
+    @Test
+    void readsAndWritesStandardStreams() throws IOException {
+        byte[] message = createFiles(300, 200, 24, 5000);
+        byte[] carrier = Files.readAllBytes(directory.resolve("carrier.bmp"));
+        for (String method : new String[]{"LSB1", "LSBI"}) {
+            run("-embed", "-in", "message.bin", "-p", "carrier.bmp", "-out", "output.bmp", "-steg", method);
+            byte[] expected = Files.readAllBytes(directory.resolve("output.bmp"));
+
+            // The carrier comes from standard input and the result goes to standard output, so they can be chained
+            byte[] piped = runPiped(carrier, "-embed", "-in", "message.bin", "-p", "-", "-out", "-", "-steg", method);
+            assertArrayEquals(expected, piped, method);
+            assertArrayEquals(message, runPiped(piped, "-extract", "-p", "-", "-out", "-", "-steg", method), method);
+
+            byte[] encrypted = runPiped(carrier, "-embed", "-in", "message.bin", "-p", "-", "-out", "-", "-steg", method, "-pass", "secret");
+            assertArrayEquals(message, runPiped(encrypted, "-extract", "-p", "-", "-out", "-", "-steg", method, "-pass", "secret"), method);
+        }
+
+        // A message read from standard input gets the .bin extension
+        runPiped("hidden".getBytes(), "-embed", "-in", "-", "-p", "carrier.bmp", "-out", "output.bmp", "-steg", "LSB2");
+        Files.deleteIfExists(directory.resolve("extracted.bin"));
+        run("-extract", "-p", "output.bmp", "-out", "extracted", "-steg", "LSB2");
+        assertArrayEquals("hidden".getBytes(), Files.readAllBytes(directory.resolve("extracted.bin")));
+
+        // Streaming the carrier from standard input to standard output
+        byte[] streamed = runPiped(carrier, "-embed", "-in", "message.bin", "-p", "-", "-out", "-", "-steg", "LSB3", "-stream");
+        assertArrayEquals(message, runPiped(streamed, "-extract", "-p", "-", "-out", "-", "-steg", "LSB3"));
+    }
+
+    @Test
+    void embedsInPlace() throws IOException {
+        // An odd width, so rows are padded
+        byte[] message = createFiles(301, 200, 24, 5000);
+        String[][] embeddings = {
+                {"-steg", "LSB1"},
+                {"-steg", "LSB4", "-threads", "2"},
+                {"-steg", "LSBI"},
+                {"-steg", "LSBM", "-seed", "5"},
+                {"-steg", "LSB2", "-a", "des", "-m", "cbc", "-pass", "secret"},
+        };
+
+        for (String[] embedding : embeddings) {
+            String description = String.join(" ", embedding);
+            run(concat(new String[]{"-embed", "-in", "message.bin", "-p", "carrier.bmp", "-out", "output.bmp"}, embedding));
+            Files.copy(directory.resolve("carrier.bmp"), directory.resolve("inplace.bmp"), StandardCopyOption.REPLACE_EXISTING);
+            run(concat(new String[]{"-embed", "-in", "message.bin", "-p", "inplace.bmp", "-inplace"}, embedding));
+            assertArrayEquals(Files.readAllBytes(directory.resolve("output.bmp")), Files.readAllBytes(directory.resolve("inplace.bmp")), description);
+
+            String[] extracting = Arrays.stream(embedding).filter(option -> !option.equals("-seed") && !option.equals("5")).toArray(String[]::new);
+            Files.deleteIfExists(directory.resolve("extracted.bin"));
+            run(concat(new String[]{"-extract", "-p", "inplace.bmp", "-out", "extracted"}, extracting));
+            assertArrayEquals(message, Files.readAllBytes(directory.resolve("extracted.bin")), description);
+        }
+    }
+
+    @Test
+    void pipelinesTheSameOutput() throws IOException {
+        createFiles(301, 200, 24, 5000);
+        String[][] embeddings = {
+                {"-steg", "LSB1"},
+                {"-steg", "LSB4", "-threads", "3"},
+                {"-steg", "LSBI", "-threads", "2"},
+                {"-steg", "LSBM", "-seed", "5", "-threads", "4"},
+                {"-steg", "LSB2", "-a", "aes256", "-m", "cbc", "-pass", "secret", "-threads", "3"},
+                {"-steg", "LSB1", "-a", "des", "-m", "ofb", "-pass", "secret"},
+        };
+
+        for (String[] embedding : embeddings) {
+            String description = String.join(" ", embedding);
+            run(concat(new String[]{"-embed", "-in", "message.bin", "-p", "carrier.bmp", "-out", "output.bmp"}, embedding));
+            run(concat(new String[]{"-embed", "-in", "message.bin", "-p", "carrier.bmp", "-out", "pipelined.bmp", "-pipeline"}, embedding));
+            assertArrayEquals(Files.readAllBytes(directory.resolve("output.bmp")), Files.readAllBytes(directory.resolve("pipelined.bmp")), description);
+
+            // The carrier can't be read while it's overwritten, so this embeds it sequentially
+            Files.copy(directory.resolve("carrier.bmp"), directory.resolve("same.bmp"), StandardCopyOption.REPLACE_EXISTING);
+            String log = runCapturing(concat(new String[]{"-embed", "-in", "message.bin", "-p", "same.bmp", "-out", "same.bmp", "-pipeline"}, embedding));
+            assertTrue(log.contains("The output is the carrier itself"), description);
+            assertArrayEquals(Files.readAllBytes(directory.resolve("output.bmp")), Files.readAllBytes(directory.resolve("same.bmp")), description);
+        }
+    }
+
+    @Test
+    void extractsExtensionsPastTheReadAhead() throws IOException {
+        // Only the rows holding the message and 32 more bytes are read at first
+        createFiles(300, 200, 24, 0);
+        byte[] message = TestBitmaps.message(3000, 3);
+        for (String method : new String[]{"LSB1", "LSB8", "LSBI"}) {
+            for (int length : new int[]{30, 31, 32, 33, 34, 100, 200}) {
+                String extension = "." + "x".repeat(length - 1);
+                String description = method + " " + length;
+                Files.write(directory.resolve("message" + extension), message);
+                run("-embed", "-in", "message" + extension, "-p", "carrier.bmp", "-out", "output.bmp", "-steg", method);
+
+                Files.deleteIfExists(directory.resolve("extracted" + extension));
+                run("-extract", "-p", "output.bmp", "-out", "extracted", "-steg", method);
+                assertArrayEquals(message, Files.readAllBytes(directory.resolve("extracted" + extension)), description);
+                Files.delete(directory.resolve("message" + extension));
+            }
+        }
+    }
+
+    @Test
+    void extractsMessagesThatEndAtTheEndOfTheCarrier() throws IOException {
+        createFiles(300, 200, 24, 0);
+        long pixels = 300 * 200 * 3;
+        SteganographyMethod[] methods = {new LsbxSteganography(1), new LsbxSteganography(3), new LsbiSteganography()};
+        for (SteganographyMethod method : methods) {
+            for (String extension : new String[]{".bin", "." + "y".repeat(50)}) {
+                String description = method.getName() + " " + extension;
+                String[][] options = {{}, {"-a", "aes128", "-m", "ofb", "-pass", "secret"}};
+                long[] capacities = {
+                        method.calculateHiddenSize(pixels, extension),
+                        method.calculateHiddenSize(pixels, extension, AES128Encryption.getInstance(), EncryptionMode.OFB),
+                };
+                for (int i = 0; i < options.length; i++) {
+                    byte[] message = TestBitmaps.message((int) capacities[i], 4);
+                    Files.write(directory.resolve("message" + extension), message);
+                    Files.deleteIfExists(directory.resolve("output.bmp"));
+                    run(concat(new String[]{"-embed", "-in", "message" + extension, "-p", "carrier.bmp", "-out", "output.bmp", "-steg", method.getName()}, options[i]));
+                    assertTrue(Files.exists(directory.resolve("output.bmp")), description);
+
+                    Files.deleteIfExists(directory.resolve("extracted" + extension));
+                    run(concat(new String[]{"-extract", "-p", "output.bmp", "-out", "extracted", "-steg", method.getName()}, options[i]));
+                    assertArrayEquals(message, Files.readAllBytes(directory.resolve("extracted" + extension)), description);
+
+                    run("-extract", "-p", "output.bmp", "-out", "tail", "-steg", method.getName(), "-offset", String.valueOf(message.length - 10));
+                    if (i == 0) {
+                        assertArrayEquals(Arrays.copyOfRange(message, message.length - 10, message.length), Files.readAllBytes(directory.resolve("tail")), description);
+                    }
+                    Files.delete(directory.resolve("message" + extension));
+                }
+            }
+        }
+    }
+
+    private static String[] concat(String[] first, String[] second) {
+        String[] result = Arrays.copyOf(first, first.length + second.length);
+        System.arraycopy(second, 0, result, first.length, second.length);
+        return result;
+    }
+}
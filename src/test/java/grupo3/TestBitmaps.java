@@ -0,0 +1,57 @@
+package grupo3;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Random;
+
+/**
+ * Builds bitmap files with random pixels for tests.
+ */
+public final class TestBitmaps {
+
+    private TestBitmaps() {
+    }
+
+    /**
+     * Creates a bitmap file with a plain 40-byte info header and random pixels.
+     *
+     * @param bitCount The amount of bits per pixel, 24 or 32.
+     */
+    public static byte[] create(int width, int height, int bitCount, long seed) {
+        return create(width, height, bitCount, 0, new byte[0], seed);
+    }
+
+    /**
+     * Creates a bitmap file with random pixels, whose info header is followed by the given bytes before the pixel
+     * array, such as the rest of a V4 or V5 header. The size written in the info header is 40 plus the amount of
+     * those bytes.
+     */
+    public static byte[] create(int width, int height, int bitCount, int compression, byte[] headerGap, long seed) {
+        int stride = width * bitCount / 8;
+        int rowSize = (stride + 3) & ~3;
+        int offBits = 14 + 40 + headerGap.length;
+        ByteBuffer buffer = ByteBuffer.allocate(offBits + rowSize * height).order(ByteOrder.LITTLE_ENDIAN);
+        buffer.putShort((short) 0x4D42).putInt(buffer.capacity()).putInt(0).putInt(offBits);
+        buffer.putInt(40 + headerGap.length).putInt(width).putInt(height).putShort((short) 1).putShort((short) bitCount)
+                .putInt(compression).putInt(rowSize * height).putInt(2835).putInt(2835).putInt(0).putInt(0);
+        buffer.put(headerGap);
+
+        Random random = new Random(seed);
+        byte[] row = new byte[stride];
+        for (int y = 0; y < height; y++) {
+            random.nextBytes(row);
+            buffer.put(row).position(buffer.position() + rowSize - stride);
+        }
+
+        return buffer.array();
+    }
+
+    /**
+     * Creates random bytes to hide in a carrier.
+     */
+    public static byte[] message(int length, long seed) {
+        byte[] message = new byte[length];
+        new Random(seed).nextBytes(message);
+        return message;
+    }
+}
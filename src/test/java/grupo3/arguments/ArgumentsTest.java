@@ -0,0 +1,44 @@
+package grupo3.arguments;
+
+import grupo3.exceptions.ProgramArgumentsException;
+import org.junit.jupiter.api.Test;
+
+import java.util.Arrays;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class ArgumentsTest {
+
+    private static Arguments parse(String... args) throws ProgramArgumentsException {
+        return Arguments.parse(Arrays.asList(args).iterator());
+    }
+
+    @Test
+    void acceptsStandardStreams() throws ProgramArgumentsException {
+        Arguments arguments = parse("-embed", "-in", "-", "-p", "carrier.bmp", "-out", "-", "-steg", "LSB1");
+        assertEquals("-", arguments.messageFile());
+        assertEquals("-", arguments.outputFile());
+
+        arguments = parse("-extract", "-p", "-", "-out", "-", "-steg", "LSBI");
+        assertEquals("-", arguments.carrierFile());
+    }
+
+    @Test
+    void rejectsConflictingStandardStreams() {
+        String[][] invalid = {
+                // Standard input can only hold one of them
+                {"-embed", "-in", "-", "-p", "-", "-out", "output.bmp", "-steg", "LSB1"},
+                {"-probe", "-p", "-"},
+                {"-probe", "-p", "carrier.bmp", "-in", "-"},
+                // The size of the message is needed before reading it
+                {"-embed", "-in", "-", "-p", "carrier.bmp", "-out", "output.bmp", "-steg", "LSB1", "-stream"},
+                {"-embed", "-in", "message.bin", "-p", "-", "-out", "output.bmp", "-steg", "LSB1", "-pipeline"},
+                {"-embed", "-in", "-", "-p", "carrier.bmp", "-out", "output.bmp", "-steg", "LSB1", "-pipeline"},
+                {"-embed", "-in", "message.bin", "-p", "carrier.bmp", "-out", "-", "-steg", "LSB1", "-pipeline"},
+                {"-embed", "-in", "message.bin", "-p", "-", "-inplace", "-steg", "LSB1"},
+        };
+        for (String[] args : invalid) {
+            assertThrows(ProgramArgumentsException.class, () -> parse(args), String.join(" ", args));
+        }
+    }
+}
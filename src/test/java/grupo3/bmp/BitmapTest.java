@@ -0,0 +1,184 @@
+package grupo3.bmp;
+
+import grupo3.TestBitmaps;
+import grupo3.bmp.file.BmpFileHeader;
+import grupo3.bmp.file.BmpInfoHeader;
+import grupo3.exceptions.BmpException;
+import grupo3.steganography.CarrierLayout;
+import grupo3.steganography.LsbxSteganography;
+import grupo3.steganography.SteganographyMethod;
+import grupo3.utils.LongByteBuffer;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class BitmapTest {
+
+    @TempDir
+    Path directory;
+
+    @Test
+    void writesOverTheFileItsPixelsAreMappedFrom() throws IOException {
+        // Large carriers keep their pixels as a private mapping of the file, which writing over it must not truncate
+        Path file = directory.resolve("carrier.bmp");
+        byte[] original = TestBitmaps.create(64, 48, 24, 0, new byte[0], 1);
+        Files.write(file, original);
+
+        Bitmap bitmap;
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            ByteBuffer headers = ByteBuffer.wrap(original).order(ByteOrder.LITTLE_ENDIAN);
+            BmpFileHeader fileHeader = BmpFileHeader.readFrom(headers);
+            BmpInfoHeader infoHeader = BmpInfoHeader.readFrom(headers);
+            LongByteBuffer pixels = LongByteBuffer.map(channel, FileChannel.MapMode.PRIVATE, 54, 64 * 48 * 3);
+            bitmap = new Bitmap(64, 48, pixels, fileHeader, infoHeader);
+        }
+
+        for (long i = 0; i < bitmap.getPixels().size(); i += 7) {
+            bitmap.getPixels().put(i, (byte) ~bitmap.getPixels().get(i));
+        }
+
+        byte[] expected = original.clone();
+        for (int i = 0; i < 64 * 48 * 3; i += 7) {
+            expected[54 + i] = (byte) ~expected[54 + i];
+        }
+
+        bitmap.writeToFile(file.toString(), file.toString(), bitmap.getPixels().size());
+        assertArrayEquals(expected, Files.readAllBytes(file));
+        try (var files = Files.list(directory)) {
+            assertEquals(1, files.count(), "no temporary file is left behind");
+        }
+    }
+
+    @Test
+    void writesOverItsOwnSourceFile() throws IOException {
+        Path file = directory.resolve("carrier.bmp");
+        byte[] original = TestBitmaps.create(33, 21, 24, 2);
+        Files.write(file, original);
+
+        Bitmap bitmap = Bitmap.readFromFile(file.toString());
+        bitmap.getPixels().put(0, (byte) ~bitmap.getPixels().get(0));
+        bitmap.writeToFile(file.toString(), file.toString(), 1);
+
+        byte[] written = Files.readAllBytes(file);
+        assertEquals(original.length, written.length);
+        assertEquals((byte) ~original[54], written[54]);
+        assertArrayEquals(Arrays.copyOfRange(original, 55, 54 + 33 * 3), Arrays.copyOfRange(written, 55, 54 + 33 * 3));
+    }
+
+    /**
+     * Creates the 84 bytes of a V5 info header after its first 40, starting with the channel masks of a BGRA bitmap.
+     */
+    private static byte[] v5HeaderGap() {
+        return ByteBuffer.allocate(84).order(ByteOrder.LITTLE_ENDIAN)
+                .putInt(0x00FF0000).putInt(0x0000FF00).putInt(0x000000FF).putInt(0xFF000000).putInt(0x73524742)
+                .array();
+    }
+
+    @Test
+    void keepsV5HeadersWithBitfields() throws IOException {
+        byte[] original = TestBitmaps.create(50, 40, 32, BitmapHeaders.BI_BITFIELDS, v5HeaderGap(), 3);
+        assertEquals(138, ByteBuffer.wrap(original).order(ByteOrder.LITTLE_ENDIAN).getInt(10));
+
+        // A stale size in the source must not be carried over
+        ByteBuffer.wrap(original).order(ByteOrder.LITTLE_ENDIAN).putInt(2, original.length + 84);
+        Path source = directory.resolve("v5.bmp");
+        Files.write(source, original);
+        byte[] message = TestBitmaps.message(200, 4);
+
+        Bitmap mapped = Bitmap.readFromFile(source.toString());
+        new LsbxSteganography(1).withLayout(CarrierLayout.BGRA).hideMessageWithExtension(mapped.getPixels(), message, ".bin");
+        Path whole = directory.resolve("whole.bmp");
+        mapped.writeToFile(whole.toString());
+        Path copied = directory.resolve("copied.bmp");
+        mapped.writeToFile(copied.toString(), source.toString(), 2000);
+
+        Bitmap streamed = Bitmap.readFromStream(new ByteArrayInputStream(Files.readAllBytes(whole)));
+        ByteArrayOutputStream rewritten = new ByteArrayOutputStream();
+        streamed.writeToStream(rewritten);
+
+        for (byte[] written : new byte[][]{Files.readAllBytes(whole), Files.readAllBytes(copied), rewritten.toByteArray()}) {
+            assertEquals(original.length, written.length);
+            assertEquals(written.length, ByteBuffer.wrap(written).order(ByteOrder.LITTLE_ENDIAN).getInt(2), "bfSize");
+            assertArrayEquals(Arrays.copyOfRange(original, 6, 138), Arrays.copyOfRange(written, 6, 138), "headers and masks");
+
+            Bitmap bitmap = Bitmap.readFromBuffer(ByteBuffer.wrap(written));
+            SteganographyMethod.ExtractResult result = new LsbxSteganography(1).withLayout(CarrierLayout.BGRA)
+                    .extractMessageWithExtension(bitmap.getPixels());
+            assertArrayEquals(message, result.message);
+            assertEquals(".bin", result.fileExtension);
+        }
+    }
+
+    @Test
+    void streamsV5HeadersAsIs() throws IOException {
+        byte[] original = TestBitmaps.create(50, 40, 32, BitmapHeaders.BI_BITFIELDS, v5HeaderGap(), 5);
+        Path source = directory.resolve("v5.bmp");
+        Files.write(source, original);
+        Path output = directory.resolve("streamed.bmp");
+        try (BitmapRowStreamer streamer = BitmapRowStreamer.open(source.toString())) {
+            assertArrayEquals(v5HeaderGap(), streamer.getHeaders().getHeaderGap());
+            streamer.transferTo(output.toString(), (data, offset, length) -> true);
+        }
+
+        assertArrayEquals(original, Files.readAllBytes(output));
+    }
+
+    @Test
+    void writesOnlyTheModifiedRowsInPlace() throws IOException {
+        // 21 pixels of 3 bytes leave a byte of padding at the end of each row, which is filled so it's told apart
+        int width = 21;
+        int rowSize = 64;
+        Path file = directory.resolve("carrier.bmp");
+        byte[] original = TestBitmaps.create(width, 10, 24, 8);
+        for (int row = 0; row < 10; row++) {
+            original[54 + row * rowSize + rowSize - 1] = (byte) 0xAA;
+        }
+        Files.write(file, original);
+
+        // Every pixel changes in memory, but only the first two and a half rows are said to be modified
+        Bitmap bitmap = Bitmap.readFromFile(file.toString());
+        LongByteBuffer pixels = bitmap.getPixels();
+        for (long i = 0; i < pixels.size(); i++) {
+            pixels.put(i, (byte) ~pixels.get(i));
+        }
+        bitmap.writeInPlace(file.toString(), width * 3 * 5 / 2);
+
+        byte[] expected = original.clone();
+        for (int row = 0; row < 3; row++) {
+            for (int i = 0; i < width * 3; i++) {
+                expected[54 + row * rowSize + i] = (byte) ~expected[54 + row * rowSize + i];
+            }
+        }
+        assertArrayEquals(expected, Files.readAllBytes(file));
+
+        bitmap.writeInPlace(file.toString(), 0);
+        assertArrayEquals(expected, Files.readAllBytes(file));
+    }
+
+    @Test
+    void rejectsUnsupportedHeaders() {
+        byte[] compressed = TestBitmaps.create(8, 8, 24, 1, new byte[0], 6);
+        assertThrows(BmpException.class, () -> Bitmap.readFromBuffer(ByteBuffer.wrap(compressed)));
+
+        // A pixel array starting inside a V5 header
+        byte[] overlapping = TestBitmaps.create(8, 8, 32, BitmapHeaders.BI_BITFIELDS, v5HeaderGap(), 7);
+        ByteBuffer.wrap(overlapping).order(ByteOrder.LITTLE_ENDIAN).putInt(10, 54);
+        assertThrows(BmpException.class, () -> Bitmap.readFromBuffer(ByteBuffer.wrap(overlapping)));
+
+        byte[] core = TestBitmaps.create(8, 8, 24, 7);
+        ByteBuffer.wrap(core).order(ByteOrder.LITTLE_ENDIAN).putInt(14, 12);
+        assertThrows(BmpException.class, () -> Bitmap.readFromBuffer(ByteBuffer.wrap(core)));
+    }
+}
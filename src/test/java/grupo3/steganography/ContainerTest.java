@@ -0,0 +1,141 @@
+package grupo3.steganography;
+
+import grupo3.TestBitmaps;
+import grupo3.encryption.EncryptionMode;
+import grupo3.encryption.EncryptionOptions;
+import grupo3.encryption.algorithms.AES128Encryption;
+import grupo3.encryption.algorithms.AES256Encryption;
+import grupo3.encryption.algorithms.DESEncryption;
+import grupo3.exceptions.EncryptionException;
+import grupo3.utils.LongByteBuffer;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.concurrent.ForkJoinPool;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class ContainerTest {
+
+    /**
+     * Small enough for the message to be split in several chunks, the last of them shorter.
+     */
+    private static final int CHUNK_SIZE = 4096;
+
+    private static final EncryptionOptions[] ENCRYPTIONS = {
+            null,
+            new EncryptionOptions(AES128Encryption.getInstance(), EncryptionMode.CBC, "secret"),
+            new EncryptionOptions(AES256Encryption.getInstance(), EncryptionMode.OFB, "secret"),
+            new EncryptionOptions(DESEncryption.getInstance(), EncryptionMode.ECB, "secret"),
+    };
+
+    private static ForkJoinPool pool;
+
+    @BeforeAll
+    static void createPool() {
+        pool = new ForkJoinPool(3);
+    }
+
+    @AfterAll
+    static void shutdownPool() {
+        pool.shutdown();
+    }
+
+    /**
+     * Hides a message in a container in a random carrier.
+     */
+    private static LongByteBuffer hide(SteganographyMethod method, byte[] message, EncryptionOptions encryption, Container.Compression compression)
+            throws EncryptionException {
+        LongByteBuffer carrier = LongByteBuffer.wrap(TestBitmaps.message(400_000, 1));
+        method.hidePayload(carrier, Container.pack(method, message, ".bin", encryption, compression, CHUNK_SIZE, pool));
+        return carrier;
+    }
+
+    @Test
+    void extractsEveryLayout() throws IOException, EncryptionException {
+        // Compressible, so deflate actually shrinks the chunks
+        byte[] message = new byte[5 * CHUNK_SIZE + 123];
+        for (int i = 0; i < message.length; i++) {
+            message[i] = (byte) (i % 251 < 200 ? 'a' + i % 7 : i);
+        }
+
+        for (SteganographyMethod method : new SteganographyMethod[]{new LsbxSteganography(2), new LsbiSteganography()}) {
+            for (Container.Compression compression : Container.Compression.values()) {
+                for (EncryptionOptions encryption : ENCRYPTIONS) {
+                    LongByteBuffer carrier = hide(method, message, encryption, compression);
+                    Container container = Container.read(method.openPayload(carrier));
+                    assertNotNull(container);
+                    assertEquals(method.getName(), container.getMethodName());
+                    assertEquals(encryption != null, container.isEncrypted());
+                    assertEquals(message.length, container.getMessageSize());
+
+                    String password = encryption == null ? null : encryption.password();
+                    for (ForkJoinPool extractPool : new ForkJoinPool[]{null, pool}) {
+                        ByteArrayOutputStream output = new ByteArrayOutputStream();
+                        assertEquals(".bin", container.extract(() -> method.openPayload(carrier), password, extractPool, output));
+                        assertArrayEquals(message, output.toByteArray(), container.toString());
+                    }
+                }
+            }
+        }
+    }
+
+    @Test
+    void extractsEmptyMessages() throws IOException, EncryptionException {
+        SteganographyMethod method = new LsbxSteganography(1);
+        for (EncryptionOptions encryption : ENCRYPTIONS) {
+            LongByteBuffer carrier = hide(method, new byte[0], encryption, Container.Compression.DEFLATE);
+            ByteArrayOutputStream output = new ByteArrayOutputStream();
+            Container container = Container.read(method.openPayload(carrier));
+            assertEquals(".bin", container.extract(() -> method.openPayload(carrier), "secret", pool, output));
+            assertEquals(0, output.size());
+        }
+    }
+
+    @Test
+    void extractsRanges() throws IOException, EncryptionException {
+        byte[] message = TestBitmaps.message(5 * CHUNK_SIZE + 123, 2);
+        SteganographyMethod method = new LsbxSteganography(4);
+        long[][] ranges = {{0, 10}, {CHUNK_SIZE - 5, 10}, {CHUNK_SIZE, CHUNK_SIZE}, {100, 3 * CHUNK_SIZE}, {message.length - 50, 1000}, {message.length + 1, 10}};
+        for (Container.Compression compression : Container.Compression.values()) {
+            LongByteBuffer carrier = hide(method, message, null, compression);
+            Container container = Container.read(method.openPayload(carrier));
+            for (long[] range : ranges) {
+                ByteArrayOutputStream output = new ByteArrayOutputStream();
+                long count = container.extractRange(() -> method.openPayload(carrier), pool, range[0], range[1], output);
+                int from = (int) Math.min(range[0], message.length);
+                int to = (int) Math.min(message.length, from + range[1]);
+                assertEquals(to - from, count);
+                assertArrayEquals(Arrays.copyOfRange(message, from, to), output.toByteArray(), Arrays.toString(range));
+            }
+        }
+
+        LongByteBuffer encrypted = hide(method, message, ENCRYPTIONS[1], Container.Compression.NONE);
+        Container container = Container.read(method.openPayload(encrypted));
+        assertThrows(EncryptionException.class, () -> container.extractRange(() -> method.openPayload(encrypted), null, 0, 10, new ByteArrayOutputStream()));
+    }
+
+    @Test
+    void rejectsMissingPasswordsAndCorruptHeaders() throws EncryptionException {
+        SteganographyMethod method = new LsbxSteganography(1);
+        LongByteBuffer carrier = hide(method, TestBitmaps.message(1000, 3), ENCRYPTIONS[2], Container.Compression.NONE);
+        Container container = Container.read(method.openPayload(carrier));
+        assertThrows(EncryptionException.class, () -> container.extract(() -> method.openPayload(carrier), null, null, new ByteArrayOutputStream()));
+
+        // Flipping a hidden bit of the header breaks its checksum
+        carrier.put(100, (byte) (carrier.get(100) ^ 1));
+        assertThrows(IllegalStateException.class, () -> Container.read(method.openPayload(carrier)));
+    }
+
+    @Test
+    void legacyMessagesAreNotContainers() {
+        SteganographyMethod method = new LsbxSteganography(1);
+        byte[] carrier = TestBitmaps.message(100_000, 4);
+        method.hideMessageWithExtension(carrier, TestBitmaps.message(1000, 5), ".bin");
+        assertNull(Container.read(method.openPayload(LongByteBuffer.wrap(carrier))));
+    }
+}
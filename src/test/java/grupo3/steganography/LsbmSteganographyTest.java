@@ -0,0 +1,95 @@
+package grupo3.steganography;
+
+import grupo3.TestBitmaps;
+import grupo3.utils.LongByteBuffer;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayInputStream;
+import java.util.Arrays;
+import java.util.concurrent.ForkJoinPool;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class LsbmSteganographyTest {
+
+    private static ForkJoinPool pool;
+
+    @BeforeAll
+    static void createPool() {
+        pool = new ForkJoinPool(3);
+    }
+
+    @AfterAll
+    static void shutdownPool() {
+        pool.shutdown();
+    }
+
+    /**
+     * A random carrier with runs of 0 and 255, which can only be changed one way.
+     */
+    private static byte[] carrier() {
+        byte[] carrier = TestBitmaps.message(300_001, 1);
+        Arrays.fill(carrier, 1000, 3000, (byte) 0);
+        Arrays.fill(carrier, 5000, 7000, (byte) 0xFF);
+        return carrier;
+    }
+
+    @Test
+    void matchesTheLowestBitsOfLsb1() {
+        byte[] carrier = carrier();
+        byte[] message = TestBitmaps.message(25_000, 2);
+        for (CarrierLayout layout : new CarrierLayout[]{CarrierLayout.BGR, CarrierLayout.BGRA_WITHOUT_ALPHA}) {
+            byte[] replaced = carrier.clone();
+            new LsbxSteganography(1, layout).hideMessageWithExtension(replaced, message, ".bin");
+            byte[] matched = carrier.clone();
+            new LsbmSteganography(7).withLayout(layout).hideMessageWithExtension(matched, message, ".bin");
+
+            int changed = 0;
+            int changedUp = 0;
+            for (int i = 0; i < carrier.length; i++) {
+                int difference = Byte.toUnsignedInt(matched[i]) - Byte.toUnsignedInt(carrier[i]);
+                assertTrue(Math.abs(difference) <= 1, "byte " + i + " changed by " + difference);
+                assertEquals(replaced[i] & 1, matched[i] & 1, "byte " + i);
+                changed += difference != 0 ? 1 : 0;
+                changedUp += difference > 0 ? 1 : 0;
+            }
+
+            // Bytes that don't match are about as often incremented as decremented
+            assertTrue(Math.abs(changedUp - changed / 2) < changed / 10, changedUp + " of " + changed + " incremented");
+
+            SteganographyMethod.ExtractResult result = new LsbxSteganography(1, layout).extractMessageWithExtension(matched);
+            assertArrayEquals(message, result.message);
+            assertEquals(".bin", result.fileExtension);
+        }
+    }
+
+    @Test
+    void sameSeedGivesTheSameOutput() {
+        byte[] carrier = carrier();
+        byte[] message = TestBitmaps.message(30_000, 3);
+        byte[] expected = carrier.clone();
+        new LsbmSteganography(42).hideMessageWithExtension(expected, message, ".bin");
+
+        byte[] parallel = carrier.clone();
+        new LsbmSteganography(42).withParallelism(pool).hideMessageWithExtension(parallel, message, ".bin");
+        assertArrayEquals(expected, parallel);
+
+        byte[] streamed = carrier.clone();
+        new LsbmSteganography(42).hideMessageWithExtension(LongByteBuffer.wrap(streamed), new ByteArrayInputStream(message), message.length, ".bin");
+        assertArrayEquals(expected, streamed);
+
+        // Off-heap carriers are hidden in through windows instead of in place
+        LongByteBuffer direct = LongByteBuffer.allocateDirect(carrier.length);
+        direct.put(0, carrier, 0, carrier.length);
+        new LsbmSteganography(42).hideMessageWithExtension(direct, message, ".bin");
+        byte[] windowed = new byte[carrier.length];
+        direct.get(0, windowed, 0, windowed.length);
+        assertArrayEquals(expected, windowed);
+
+        byte[] reseeded = carrier.clone();
+        new LsbmSteganography(43).hideMessageWithExtension(reseeded, message, ".bin");
+        assertFalse(Arrays.equals(expected, reseeded));
+    }
+}
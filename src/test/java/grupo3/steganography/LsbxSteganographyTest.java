@@ -0,0 +1,179 @@
+package grupo3.steganography;
+
+import grupo3.TestBitmaps;
+import grupo3.utils.BitSource;
+import grupo3.utils.LongByteBuffer;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.Random;
+import java.util.function.LongUnaryOperator;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Checks hiding and extracting a word or a vector at a time gives the same output as the original implementation,
+ * which hid the payload one bit at a time.
+ */
+class LsbxSteganographyTest {
+
+    /**
+     * Not a whole amount of words or pixels, so the last bytes are processed one at a time.
+     */
+    private static final int CARRIER_SIZE = 50_001;
+
+    private static final CarrierLayout[] LAYOUTS = {CarrierLayout.BGR, CarrierLayout.BGRA, CarrierLayout.BGRA_WITHOUT_ALPHA};
+
+    /**
+     * Most of these don't make a whole amount of bits for bit counts other than 1, 2, 4 and 8, so the last byte of
+     * the carrier that's modified is only partly filled.
+     */
+    private static final int[] MESSAGE_LENGTHS = {0, 1, 5, 13, 1000, 4097};
+
+    private static final String[] EXTENSIONS = {null, "", ".tar.gz"};
+
+    /**
+     * Hides a payload one bit at a time in the lowest bits of the usable bytes of a carrier, the highest bit first,
+     * padding the last byte with zeroes.
+     */
+    private static byte[] hideBitByBit(byte[] carrier, byte[] payload, int bitCount, CarrierLayout layout) {
+        byte[] modified = carrier.clone();
+        long bits = payload.length * 8L;
+        long bit = 0;
+        for (int i = 0; i < modified.length && bit < bits; i++) {
+            if (!layout.isUsable(i)) {
+                continue;
+            }
+
+            int hidden = 0;
+            for (int b = 0; b < bitCount; b++, bit++) {
+                hidden = (hidden << 1) | (bit < bits ? bitOf(payload, bit) : 0);
+            }
+            modified[i] = (byte) ((modified[i] & (0xFF << bitCount)) | hidden);
+        }
+
+        return modified;
+    }
+
+    /**
+     * Reads a bit of the payload hidden in a carrier one bit at a time, or -1 past the end of the carrier.
+     */
+    private static int extractBit(byte[] carrier, long bit, int bitCount, CarrierLayout layout) {
+        long usable = bit / bitCount;
+        int i = 0;
+        for (; i < carrier.length; i++) {
+            if (layout.isUsable(i) && usable-- == 0) {
+                return (carrier[i] >>> (bitCount - 1 - bit % bitCount)) & 1;
+            }
+        }
+
+        return -1;
+    }
+
+    private static int bitOf(byte[] data, long bit) {
+        return (data[(int) (bit >>> 3)] >>> (7 - (bit & 7))) & 1;
+    }
+
+    private static byte[] frame(byte[] message, String extension) {
+        byte[] trailer = SteganographyMethod.createTrailer(extension);
+        byte[] payload = new byte[SteganographyMethod.MESSAGE_LENGTH_BYTES + message.length + trailer.length];
+        payload[0] = (byte) (message.length >>> 24);
+        payload[1] = (byte) (message.length >>> 16);
+        payload[2] = (byte) (message.length >>> 8);
+        payload[3] = (byte) message.length;
+        System.arraycopy(message, 0, payload, SteganographyMethod.MESSAGE_LENGTH_BYTES, message.length);
+        System.arraycopy(trailer, 0, payload, SteganographyMethod.MESSAGE_LENGTH_BYTES + message.length, trailer.length);
+        return payload;
+    }
+
+    @Test
+    void hidesLikeBitByBit() throws IOException {
+        byte[] carrier = TestBitmaps.message(CARRIER_SIZE, 1);
+        for (int bitCount = 1; bitCount <= 8; bitCount++) {
+            for (CarrierLayout layout : LAYOUTS) {
+                LsbxSteganography method = new LsbxSteganography(bitCount, layout);
+                for (int length : MESSAGE_LENGTHS) {
+                    byte[] message = TestBitmaps.message(length, length);
+                    for (String extension : EXTENSIONS) {
+                        String description = method.getName() + " " + layout.getBytesPerPixel() + " " + length + " " + extension;
+                        byte[] expected = hideBitByBit(carrier, frame(message, extension), bitCount, layout);
+
+                        byte[] modified = carrier.clone();
+                        method.hideMessageWithExtension(modified, message, extension);
+                        assertArrayEquals(expected, modified, description);
+
+                        // Streamed messages are hidden from a concatenation of sources
+                        modified = carrier.clone();
+                        method.hideMessageWithExtension(LongByteBuffer.wrap(modified), new ByteArrayInputStream(message), length, extension);
+                        assertArrayEquals(expected, modified, description);
+
+                        // A view is processed in windows that don't start at a whole word
+                        modified = carrier.clone();
+                        LongByteBuffer view = LongByteBuffer.permuted(LongByteBuffer.wrap(modified), 1, LongUnaryOperator.identity());
+                        method.hideMessageWithExtension(view, message, extension);
+                        assertArrayEquals(expected, modified, description);
+                    }
+                }
+            }
+        }
+    }
+
+    @Test
+    void extractsLikeBitByBit() throws IOException {
+        byte[] carrier = TestBitmaps.message(CARRIER_SIZE, 2);
+        for (int bitCount = 1; bitCount <= 8; bitCount++) {
+            for (CarrierLayout layout : LAYOUTS) {
+                LsbxSteganography method = new LsbxSteganography(bitCount, layout);
+                for (int length : MESSAGE_LENGTHS) {
+                    byte[] message = TestBitmaps.message(length, length + 1);
+                    String description = method.getName() + " " + layout.getBytesPerPixel() + " " + length;
+                    byte[] modified = hideBitByBit(carrier, frame(message, ".bin"), bitCount, layout);
+
+                    assertArrayEquals(message, method.extractMessage(modified), description);
+                    SteganographyMethod.ExtractResult result = method.extractMessageWithExtension(modified);
+                    assertArrayEquals(message, result.message, description);
+                    assertEquals(".bin", result.fileExtension, description);
+
+                    ByteArrayOutputStream streamed = new ByteArrayOutputStream();
+                    assertEquals(".bin", method.extractMessageWithExtension(LongByteBuffer.wrap(modified), streamed), description);
+                    assertArrayEquals(message, streamed.toByteArray(), description);
+                }
+            }
+        }
+    }
+
+    @Test
+    void readsHiddenBitsLikeBitByBit() {
+        // The payload is read from an arbitrary bit, in arbitrary amounts, up to past the end of the carrier
+        byte[] carrier = TestBitmaps.message(10_001, 3);
+        Random random = new Random(4);
+        for (int bitCount = 1; bitCount <= 8; bitCount++) {
+            for (CarrierLayout layout : LAYOUTS) {
+                String description = "LSB" + bitCount + " " + layout.getBytesPerPixel();
+                BitSource bits = new LsbxSteganography(bitCount, layout).openPayload(LongByteBuffer.wrap(carrier));
+                long total = layout.countUsable(carrier.length) * bitCount;
+                assertEquals(total, bits.available(), description);
+
+                long bit = 0;
+                while (bit < total) {
+                    if (random.nextInt(10) == 0) {
+                        long count = random.nextInt(1000);
+                        assertEquals(Math.min(count, total - bit), bits.skip(count), description);
+                        bit = Math.min(total, bit + count);
+                        continue;
+                    }
+
+                    int count = random.nextInt(65);
+                    long expected = 0;
+                    for (int i = 0; i < count; i++, bit++) {
+                        expected = (expected << 1) | Math.max(0, extractBit(carrier, bit, bitCount, layout));
+                    }
+                    assertEquals(expected, bits.readBits(count), description + " at bit " + (bit - count));
+                    assertEquals(Math.max(0, total - bit), bits.available(), description);
+                }
+            }
+        }
+    }
+}
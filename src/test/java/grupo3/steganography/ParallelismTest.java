@@ -0,0 +1,90 @@
+package grupo3.steganography;
+
+import grupo3.TestBitmaps;
+import grupo3.utils.LongByteBuffer;
+import grupo3.utils.ParallelChunks;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.concurrent.ForkJoinPool;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+/**
+ * Checks hiding and extracting on a pool, as with <code>-threads</code>, gives the same output as on a single thread.
+ */
+class ParallelismTest {
+
+    /**
+     * Large enough to be split into several chunks.
+     */
+    private static final int CARRIER_SIZE = (int) (7 * ParallelChunks.MIN_CHUNK_SIZE + 12_345);
+
+    private static ForkJoinPool pool;
+    private static byte[] carrier;
+
+    @BeforeAll
+    static void createPool() {
+        pool = new ForkJoinPool(3);
+        carrier = TestBitmaps.message(CARRIER_SIZE, 1);
+    }
+
+    @AfterAll
+    static void shutdownPool() {
+        pool.shutdown();
+    }
+
+    /**
+     * Hides a message filling most of the carrier with and without the pool, then extracts it on the pool.
+     */
+    private static void assertSameOutput(SteganographyMethod method) throws IOException {
+        byte[] message = TestBitmaps.message((int) (method.calculateHiddenSize(CARRIER_SIZE, ".bin") * 9 / 10), 2);
+        byte[] sequential = carrier.clone();
+        method.hideMessageWithExtension(sequential, message, ".bin");
+
+        SteganographyMethod parallel = method.withParallelism(pool);
+        byte[] modified = carrier.clone();
+        parallel.hideMessageWithExtension(modified, message, ".bin");
+        assertArrayEquals(sequential, modified, method.getName());
+
+        SteganographyMethod.ExtractResult result = parallel.extractMessageWithExtension(modified);
+        assertArrayEquals(message, result.message);
+        assertEquals(".bin", result.fileExtension);
+
+        ByteArrayOutputStream streamed = new ByteArrayOutputStream();
+        assertEquals(".bin", parallel.extractMessageWithExtension(LongByteBuffer.wrap(modified), streamed));
+        assertArrayEquals(message, streamed.toByteArray());
+    }
+
+    @Test
+    void lsbxMatchesSingleThread() throws IOException {
+        for (int bitCount : new int[]{1, 3, 8}) {
+            assertSameOutput(new LsbxSteganography(bitCount));
+            assertSameOutput(new LsbxSteganography(bitCount, CarrierLayout.BGRA_WITHOUT_ALPHA));
+        }
+    }
+
+    @Test
+    void lsbiMatchesSingleThread() throws IOException {
+        assertSameOutput(new LsbiSteganography());
+        assertSameOutput(new LsbiSteganography().withLayout(CarrierLayout.BGRA));
+        assertSameOutput(new LsbiSteganography().withPreScan(true));
+    }
+
+    @Test
+    void streamedMessageMatchesSingleThread() throws IOException {
+        SteganographyMethod method = new LsbxSteganography(2);
+        byte[] message = TestBitmaps.message(CARRIER_SIZE / 5, 3);
+        byte[] sequential = carrier.clone();
+        method.hideMessageWithExtension(sequential, message, ".bin");
+
+        byte[] modified = carrier.clone();
+        method.withParallelism(pool).hideMessageWithExtension(LongByteBuffer.wrap(modified), new ByteArrayInputStream(message), message.length, ".bin");
+        assertArrayEquals(sequential, modified);
+    }
+}
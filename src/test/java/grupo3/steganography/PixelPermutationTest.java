@@ -0,0 +1,82 @@
+package grupo3.steganography;
+
+import grupo3.TestBitmaps;
+import grupo3.utils.LongByteBuffer;
+import org.junit.jupiter.api.Test;
+
+import java.util.BitSet;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class PixelPermutationTest {
+
+    @Test
+    void mapsEveryPixelOnce() {
+        for (long pixelCount : new long[]{1, 2, 3, 1000, 65_536, 65_537}) {
+            PixelPermutation permutation = new PixelPermutation("key", pixelCount);
+            BitSet seen = new BitSet();
+            for (long i = 0; i < pixelCount; i++) {
+                long pixel = permutation.permute(i);
+                assertTrue(pixel >= 0 && pixel < pixelCount);
+                assertFalse(seen.get((int) pixel), "pixel " + pixel + " of " + pixelCount + " is mapped twice");
+                seen.set((int) pixel);
+            }
+        }
+    }
+
+    @Test
+    void dependsOnTheKey() {
+        PixelPermutation first = new PixelPermutation("key", 100_000);
+        PixelPermutation second = new PixelPermutation("other key", 100_000);
+        int same = 0;
+        for (long i = 0; i < 1000; i++) {
+            if (first.permute(i) == second.permute(i)) {
+                same++;
+            }
+        }
+        assertTrue(same < 10);
+    }
+
+    @Test
+    void viewsThePixelsInOrder() {
+        int bytesPerPixel = 3;
+        byte[] pixels = TestBitmaps.message(3 * 70_001, 1);
+        PixelPermutation permutation = new PixelPermutation("key", pixels.length / bytesPerPixel);
+        LongByteBuffer view = permutation.apply(LongByteBuffer.wrap(pixels), bytesPerPixel);
+        assertEquals(pixels.length, view.size());
+        assertFalse(view.hasArray());
+        for (long i = 0; i < view.size(); i += 997) {
+            assertEquals(pixels[(int) (permutation.permute(i / bytesPerPixel) * bytesPerPixel + i % bytesPerPixel)], view.get(i));
+        }
+
+        // Windows of the view that end in the middle of a pixel write back to the right bytes
+        byte[] expected = pixels.clone();
+        for (long i = 5; i < 100_000; i++) {
+            int index = (int) (permutation.permute(i / bytesPerPixel) * bytesPerPixel + i % bytesPerPixel);
+            expected[index] = (byte) ~expected[index];
+        }
+        view.process(5, 100_000, (data, offset, length) -> {
+            for (int i = offset; i < offset + length; i++) {
+                data[i] = (byte) ~data[i];
+            }
+            return false;
+        });
+        assertArrayEquals(expected, pixels);
+    }
+
+    @Test
+    void hidesMessagesInTheView() {
+        byte[] carrier = TestBitmaps.message(300_000, 2);
+        byte[] message = TestBitmaps.message(20_000, 3);
+        for (SteganographyMethod method : new SteganographyMethod[]{new LsbxSteganography(1), new LsbxSteganography(3), new LsbiSteganography()}) {
+            byte[] modified = carrier.clone();
+            method.hideMessageWithExtension(new PixelPermutation("key", 100_000).apply(LongByteBuffer.wrap(modified), 3), message, ".bin");
+
+            // The message isn't in the first pixels, but is there in the scattered order
+            assertThrows(IllegalStateException.class, () -> method.extractMessageWithExtension(modified));
+            SteganographyMethod.ExtractResult result = method.extractMessageWithExtension(new PixelPermutation("key", 100_000).apply(LongByteBuffer.wrap(modified), 3));
+            assertArrayEquals(message, result.message, method.getName());
+            assertEquals(".bin", result.fileExtension);
+        }
+    }
+}
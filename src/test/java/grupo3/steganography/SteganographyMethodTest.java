@@ -0,0 +1,80 @@
+package grupo3.steganography;
+
+import grupo3.TestBitmaps;
+import grupo3.exceptions.CarrierEndedException;
+import grupo3.utils.LongByteBuffer;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class SteganographyMethodTest {
+
+    private static final SteganographyMethod[] METHODS = {new LsbxSteganography(1), new LsbxSteganography(4), new LsbiSteganography()};
+
+    @Test
+    void acceptsAnyFileExtension() throws IOException {
+        // The original format took any bytes up to the terminator as the extension, which are decoded as UTF-8
+        byte[] carrier = TestBitmaps.message(100_000, 1);
+        byte[] message = TestBitmaps.message(1000, 2);
+        for (String extension : new String[]{"txt", ".tar.gz", "." + "x".repeat(300), "", ".año", ".文書"}) {
+            for (SteganographyMethod method : METHODS) {
+                byte[] modified = carrier.clone();
+                method.hideMessageWithExtension(modified, message, extension);
+
+                SteganographyMethod.ExtractResult result = method.extractMessageWithExtension(modified);
+                assertArrayEquals(message, result.message);
+                assertEquals(extension, result.fileExtension);
+
+                ByteArrayOutputStream streamed = new ByteArrayOutputStream();
+                assertEquals(extension, method.extractMessageWithExtension(LongByteBuffer.wrap(modified), streamed));
+                assertArrayEquals(message, streamed.toByteArray());
+            }
+        }
+    }
+
+    @Test
+    void acceptsEmptyMessages() throws IOException {
+        byte[] carrier = TestBitmaps.message(1000, 3);
+        for (SteganographyMethod method : METHODS) {
+            byte[] modified = carrier.clone();
+            method.hideMessageWithExtension(modified, new byte[0], ".txt");
+
+            assertEquals(0, method.extractMessage(modified).length);
+            assertEquals(0, method.extractMessageWithExtension(modified).message.length);
+            assertEquals(".txt", method.extractMessageWithExtension(LongByteBuffer.wrap(modified), new ByteArrayOutputStream()));
+        }
+    }
+
+    @Test
+    void rejectsCarriersThatEndBeforeTheMessage() {
+        byte[] carrier = TestBitmaps.message(100_000, 4);
+        byte[] message = TestBitmaps.message(1000, 5);
+        for (SteganographyMethod method : METHODS) {
+            byte[] modified = carrier.clone();
+            method.hideMessageWithExtension(modified, message, ".txt");
+
+            // Cut the carrier within the extension, and within the length
+            int extensionEnd = (int) method.calculateCarrierSize(message.length, ".txt");
+            for (int length : new int[]{extensionEnd - 8, 3}) {
+                byte[] truncated = Arrays.copyOf(modified, length);
+                CarrierEndedException e = assertThrows(CarrierEndedException.class, () -> method.extractMessageWithExtension(truncated));
+                assertEquals("The carrier ended before the hidden message did", e.getMessage());
+                assertThrows(CarrierEndedException.class, () -> method.extractMessageWithExtension(LongByteBuffer.wrap(truncated), new ByteArrayOutputStream()));
+            }
+        }
+    }
+
+    @Test
+    void rejectsExtensionsWithoutTerminator() {
+        // Every byte hides a 1, so the carrier holds a huge length and no terminator
+        byte[] carrier = new byte[1000];
+        Arrays.fill(carrier, (byte) 1);
+        for (SteganographyMethod method : new SteganographyMethod[]{new LsbxSteganography(1), new LsbxSteganography(8)}) {
+            assertThrows(IllegalStateException.class, () -> method.extractMessageWithExtension(carrier));
+        }
+    }
+}
@@ -0,0 +1,124 @@
+package grupo3.steganography;
+
+import grupo3.TestBitmaps;
+import grupo3.bmp.Bitmap;
+import grupo3.utils.LongByteBuffer;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Random;
+import java.util.function.Supplier;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+/**
+ * Checks the Vector API kernels produce the same output as the scalar code. The kernels are only compared when the
+ * tests run with <code>--add-modules jdk.incubator.vector</code> on a processor with wide enough vectors, otherwise
+ * both runs use the scalar code. Both are also checked against the example bitmaps shipped in
+ * <code>src/bmp/examples</code>, which were made by an earlier implementation.
+ */
+class VectorKernelsTest {
+
+    private static final Path EXAMPLES = Path.of("src", "bmp", "examples");
+
+    /**
+     * The file hidden in each of the examples.
+     */
+    private static final Path EXAMPLE_MESSAGE = Path.of("src", "bmp", "game", "extracted", "ITBA.png");
+
+    @AfterEach
+    void enableVectors() {
+        VectorSupport.setEnabled(true);
+    }
+
+    /**
+     * Hides a message in a copy of a carrier, then extracts it both into an array and into a stream.
+     *
+     * @return The modified carrier.
+     */
+    private static byte[] roundTrip(Supplier<SteganographyMethod> method, byte[] carrier, byte[] message, boolean vectorized) throws IOException {
+        VectorSupport.setEnabled(vectorized);
+        byte[] modified = carrier.clone();
+        method.get().hideMessageWithExtension(modified, message, ".bin");
+
+        SteganographyMethod.ExtractResult result = method.get().extractMessageWithExtension(modified);
+        assertArrayEquals(message, result.message);
+        assertEquals(".bin", result.fileExtension);
+
+        ByteArrayOutputStream streamed = new ByteArrayOutputStream();
+        assertEquals(".bin", method.get().extractMessageWithExtension(LongByteBuffer.wrap(modified), streamed));
+        assertArrayEquals(message, streamed.toByteArray());
+        return modified;
+    }
+
+    private static void assertSameOutput(Supplier<SteganographyMethod> method, byte[] carrier, byte[] message) throws IOException {
+        byte[] scalar = roundTrip(method, carrier, message, false);
+        byte[] vectorized = roundTrip(method, carrier, message, true);
+        assertArrayEquals(scalar, vectorized, method.get().getName());
+    }
+
+    @Test
+    void lsbxMatchesScalarCode() throws IOException {
+        // Odd sizes, so every kernel leaves a tail for the scalar code
+        byte[] carrier = TestBitmaps.message(300_007, 1);
+        Random random = new Random(2);
+        for (int bitCount = 1; bitCount <= 8; bitCount++) {
+            int bits = bitCount;
+            for (CarrierLayout layout : new CarrierLayout[]{CarrierLayout.BGR, CarrierLayout.BGRA}) {
+                byte[] message = TestBitmaps.message(random.nextInt(300_007 * bitCount / 8 - 64), bitCount);
+                assertSameOutput(() -> new LsbxSteganography(bits, layout), carrier, message);
+            }
+        }
+    }
+
+    @Test
+    void lsbiMatchesScalarCode() throws IOException {
+        byte[] carrier = TestBitmaps.message(300_007, 3);
+        for (CarrierLayout layout : new CarrierLayout[]{CarrierLayout.BGR, CarrierLayout.BGRA, CarrierLayout.BGRA_WITHOUT_ALPHA}) {
+            byte[] message = TestBitmaps.message(15_013, 4);
+            assertSameOutput(() -> new LsbiSteganography().withLayout(layout), carrier, message);
+        }
+    }
+
+    /**
+     * Reads the pixels of one of the example bitmaps.
+     */
+    private static byte[] examplePixels(String name) throws IOException {
+        LongByteBuffer pixels = Bitmap.readFromFile(EXAMPLES.resolve(name).toString()).getPixels();
+        byte[] copy = new byte[(int) pixels.size()];
+        pixels.get(0, copy, 0, copy.length);
+        return copy;
+    }
+
+    @Test
+    void matchesTheExamples() throws IOException {
+        byte[] carrier = examplePixels("lado.bmp");
+        byte[] message = Files.readAllBytes(EXAMPLE_MESSAGE);
+        String[] names = {"ladoLSB1.bmp", "ladoLSB4.bmp", "ladoLSBI.bmp"};
+        SteganographyMethod[] methods = {new LsbxSteganography(1), new LsbxSteganography(4), new LsbiSteganography()};
+        for (int i = 0; i < names.length; i++) {
+            byte[] example = examplePixels(names[i]);
+            for (boolean vectorized : new boolean[]{false, true}) {
+                VectorSupport.setEnabled(vectorized);
+                String description = names[i] + (vectorized ? " with vectors" : " without vectors");
+
+                SteganographyMethod.ExtractResult result = methods[i].extractMessageWithExtension(example);
+                assertArrayEquals(message, result.message, description);
+                assertEquals(".png", result.fileExtension, description);
+
+                ByteArrayOutputStream streamed = new ByteArrayOutputStream();
+                assertEquals(".png", methods[i].extractMessageWithExtension(LongByteBuffer.wrap(example), streamed), description);
+                assertArrayEquals(message, streamed.toByteArray(), description);
+
+                byte[] modified = carrier.clone();
+                methods[i].hideMessageWithExtension(modified, message, ".png");
+                assertArrayEquals(example, modified, description);
+            }
+        }
+    }
+}
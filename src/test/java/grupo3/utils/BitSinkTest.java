@@ -0,0 +1,84 @@
+package grupo3.utils;
+
+import grupo3.TestBitmaps;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Checks every BitSink writes the same bytes however many bits are written per call.
+ */
+class BitSinkTest {
+
+    private static final byte[] DATA = TestBitmaps.message(3001, 1);
+
+    /**
+     * Writes the bits of an array to a sink in random amounts, both as bits and as ranges of bytes.
+     */
+    private static void writeRandomly(BitSink sink, byte[] data, long seed) {
+        Random random = new Random(seed);
+        BitSource source = new ByteArrayBitSource(data);
+        while (source.hasNextBit()) {
+            if (random.nextBoolean()) {
+                int count = (int) Math.min(random.nextInt(65), source.available());
+
+                // Bits above the ones written must be ignored
+                sink.writeBits(source.readBits(count) | (count == 64 ? 0 : -1L << count), count);
+            } else {
+                byte[] bytes = new byte[(int) Math.min(random.nextInt(40), source.available() / 8)];
+                source.read(bytes, 0, bytes.length);
+                sink.write(bytes, 0, bytes.length);
+            }
+        }
+    }
+
+    @Test
+    void writesByteArrays() {
+        for (long seed = 0; seed < 20; seed++) {
+            byte[] written = new byte[DATA.length];
+            writeRandomly(new ByteArrayBitSink(written), DATA, seed);
+            assertArrayEquals(DATA, written, "seed " + seed);
+        }
+    }
+
+    @Test
+    void keepsTheBitsNotWritten() {
+        byte[] written = new byte[4];
+        Arrays.fill(written, (byte) 0xFF);
+        ByteArrayBitSink sink = new ByteArrayBitSink(written, 1);
+        sink.writeBits(0, 3);
+        sink.writeBits(0b1010, 4);
+        sink.writeBits(0, 2);
+        assertEquals(9, sink.position() - 8);
+        assertArrayEquals(new byte[]{(byte) 0xFF, (byte) 0b00010100, (byte) 0b01111111, (byte) 0xFF}, written);
+    }
+
+    @Test
+    void writesOutputStreams() throws IOException {
+        for (long seed = 0; seed < 20; seed++) {
+            // A small buffer, so it's drained many times
+            ByteArrayOutputStream stream = new ByteArrayOutputStream();
+            OutputStreamBitSink sink = new OutputStreamBitSink(stream, 7);
+            writeRandomly(sink, DATA, seed);
+            sink.flush();
+            assertArrayEquals(DATA, stream.toByteArray(), "seed " + seed);
+        }
+    }
+
+    @Test
+    void padsTheLastByteWithZeroes() throws IOException {
+        ByteArrayOutputStream stream = new ByteArrayOutputStream();
+        OutputStreamBitSink sink = new OutputStreamBitSink(stream);
+        sink.writeBits(0b101, 3);
+        sink.flush();
+        sink.write(new byte[]{1, 2}, 0, 2);
+        sink.writeBits(-1, 1);
+        sink.flush();
+        assertArrayEquals(new byte[]{(byte) 0b10100000, 1, 2, (byte) 0b10000000}, stream.toByteArray());
+    }
+}
@@ -0,0 +1,145 @@
+package grupo3.utils;
+
+import grupo3.TestBitmaps;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Checks every BitSource reads the same bits as reading its data one bit at a time, however many are read per call.
+ */
+class BitSourceTest {
+
+    private static final byte[] DATA = TestBitmaps.message(3001, 1);
+
+    private static int bitOf(byte[] data, long bit) {
+        return (data[(int) (bit >>> 3)] >>> (7 - (bit & 7))) & 1;
+    }
+
+    /**
+     * Reads a source in random amounts with every method, comparing what's read with the bits of an array between two
+     * bit indices, and with zeroes past the end.
+     */
+    private static void assertReadsBitByBit(BitSource source, byte[] data, long from, long to, long seed) {
+        Random random = new Random(seed);
+        long bit = from;
+        while (bit < to) {
+            assertTrue(source.hasNextBit(), "at bit " + bit);
+            assertTrue(source.available() <= to - bit, "at bit " + bit);
+
+            switch (random.nextInt(4)) {
+                case 0 -> {
+                    long count = random.nextInt(300);
+                    long skipped = source.skip(count);
+                    assertEquals(Math.min(count, to - bit), skipped, "at bit " + bit);
+                    bit += skipped;
+                }
+                case 1 -> {
+                    int length = random.nextInt(40);
+                    int offset = random.nextInt(3);
+                    byte[] dst = new byte[offset + length];
+                    int read = source.read(dst, offset, length);
+                    assertEquals(Math.min(length, (to - bit + 7) / 8), read, "at bit " + bit);
+                    for (int i = 0; i < read; i++) {
+                        assertEquals(expectedBits(data, bit, to, 8), Byte.toUnsignedLong(dst[offset + i]), "at bit " + bit);
+                        bit = Math.min(to, bit + 8);
+                    }
+                }
+                default -> {
+                    int count = random.nextInt(65);
+                    assertEquals(expectedBits(data, bit, to, count), source.readBits(count), "at bit " + bit);
+                    bit = Math.min(to, bit + count);
+                }
+            }
+        }
+
+        assertFalse(source.hasNextBit());
+        assertEquals(0, source.available());
+        assertEquals(0, source.readBits(64));
+        assertEquals(0, source.skip(10));
+        assertEquals(0, source.read(new byte[10], 0, 10));
+    }
+
+    private static long expectedBits(byte[] data, long from, long to, int count) {
+        long bits = 0;
+        for (long bit = from; bit < from + count; bit++) {
+            bits = (bits << 1) | (bit < to ? bitOf(data, bit) : 0);
+        }
+
+        return bits;
+    }
+
+    @Test
+    void readsByteArrays() {
+        long end = DATA.length * 8L;
+        for (long seed = 0; seed < 20; seed++) {
+            assertReadsBitByBit(new ByteArrayBitSource(DATA), DATA, 0, end, seed);
+            assertReadsBitByBit(new ByteArrayBitSource(DATA, 13, end - 5), DATA, 13, end - 5, seed);
+            assertReadsBitByBit(new ByteArrayBitSource(DATA, 8000, 8003), DATA, 8000, 8003, seed);
+        }
+    }
+
+    @Test
+    void readsInputStreams() {
+        // A small buffer, so a source only knows about a few of the bits left
+        for (long seed = 0; seed < 20; seed++) {
+            assertReadsBitByBit(new InputStreamBitSource(new ByteArrayInputStream(DATA), 7), DATA, 0, DATA.length * 8L, seed);
+            assertReadsBitByBit(new InputStreamBitSource(new ByteArrayInputStream(DATA)), DATA, 0, DATA.length * 8L, seed);
+        }
+    }
+
+    @Test
+    void readsConcatenations() {
+        long end = DATA.length * 8L;
+        for (long seed = 0; seed < 20; seed++) {
+            // Split partway through a byte
+            BitSource split = new ConcatBitSource(new ByteArrayBitSource(DATA, 0, 8003), new ByteArrayBitSource(DATA, 8003, end));
+            assertReadsBitByBit(split, DATA, 0, end, seed);
+
+            // A stream first, which knows about fewer bits than it has
+            BitSource stream = new InputStreamBitSource(new ByteArrayInputStream(DATA, 0, 1000), 7);
+            BitSource nested = new ConcatBitSource(stream, new ConcatBitSource(new ByteArrayBitSource(DATA, 8000, 8001), new ByteArrayBitSource(DATA, 8001, end)));
+            assertReadsBitByBit(nested, DATA, 0, end, seed);
+        }
+    }
+
+    @Test
+    void readsBitIterators() {
+        for (long seed = 0; seed < 5; seed++) {
+            assertReadsBitByBit(BitSource.of(new ByteArrayBitIterator(DATA)), DATA, 0, DATA.length * 8L, seed);
+            assertReadsBitByBit(BitSource.of(new ByteArrayBitIterator(100, 3, 200, DATA)), DATA, 803, 1600, seed);
+        }
+    }
+
+    @Test
+    void readsAsInputStream() throws IOException {
+        // Starting partway through a byte, so every byte read is split across two of the array
+        BitSourceInputStream stream = new BitSourceInputStream(new ByteArrayBitSource(DATA, 4, DATA.length * 8L), 1000);
+        byte[] expected = new byte[1000];
+        for (int i = 0; i < expected.length; i++) {
+            expected[i] = (byte) expectedBits(DATA, 4 + 8L * i, DATA.length * 8L, 8);
+        }
+        assertArrayEquals(expected, stream.readAllBytes());
+        assertEquals(-1, stream.read());
+
+        stream = new BitSourceInputStream(new ByteArrayBitSource(DATA), DATA.length + 10);
+        assertArrayEquals(DATA, stream.readAllBytes());
+    }
+
+    @Test
+    void transfersToSinks() {
+        byte[] transferred = new byte[DATA.length];
+        BitSource source = new ByteArrayBitSource(DATA);
+        source.readBits(3);
+        ByteArrayBitSink sink = new ByteArrayBitSink(transferred);
+        sink.writeBits(DATA[0] >>> 5, 3);
+        assertEquals(DATA.length - 1, source.transferTo(sink, DATA.length - 1));
+        sink.writeBits(source.readBits(5), 5);
+        assertFalse(source.hasNextBit());
+        assertArrayEquals(DATA, transferred);
+    }
+}
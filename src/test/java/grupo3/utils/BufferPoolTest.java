@@ -0,0 +1,84 @@
+package grupo3.utils;
+
+import org.junit.jupiter.api.Test;
+
+import java.nio.ByteBuffer;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class BufferPoolTest {
+
+    private static final long UNLIMITED = Long.MAX_VALUE;
+
+    @Test
+    void reusesArraysOfTheSameLength() {
+        BufferPool pool = new BufferPool(UNLIMITED);
+        byte[] array = pool.borrowArray(5000);
+        assertEquals(5000, array.length);
+        pool.release(array);
+
+        // Same size class, but arrays are only handed out with the exact length asked for
+        byte[] other = pool.borrowArray(6000);
+        assertEquals(6000, other.length);
+        assertSame(array, pool.borrowArray(5000));
+        assertNotSame(array, pool.borrowArray(5000));
+
+        assertEquals(new BufferPool.Statistics(1, 3, 1, 0, 0), pool.getStatistics());
+        assertEquals(0.25, pool.getStatistics().hitRate());
+    }
+
+    @Test
+    void roundsDirectBuffersUpToTheirClass() {
+        BufferPool pool = new BufferPool(UNLIMITED);
+        ByteBuffer buffer = pool.borrowDirect(5000);
+        assertTrue(buffer.isDirect());
+        assertEquals(8192, buffer.capacity());
+        assertEquals(5000, buffer.limit());
+
+        buffer.position(100);
+        pool.release(buffer);
+        assertEquals(8192, pool.getStatistics().retainedBytes());
+
+        ByteBuffer reused = pool.borrowDirect(7000);
+        assertSame(buffer, reused);
+        assertEquals(0, reused.position());
+        assertEquals(7000, reused.limit());
+        assertEquals(new BufferPool.Statistics(1, 1, 1, 0, 0), pool.getStatistics());
+    }
+
+    @Test
+    void ignoresBuffersItDoesNotPool() {
+        BufferPool pool = new BufferPool(UNLIMITED);
+        pool.release(pool.borrowArray(100));
+        pool.release(pool.borrowDirect(100));
+        pool.release(ByteBuffer.allocate(8192));
+        // Not a capacity the pool hands out
+        pool.release(ByteBuffer.allocateDirect(5000));
+        pool.release((byte[]) null);
+
+        assertEquals(new BufferPool.Statistics(0, 0, 0, 0, 0), pool.getStatistics());
+        assertEquals(0, pool.getStatistics().hitRate());
+    }
+
+    @Test
+    void discardsBuffersPastItsLimits() {
+        BufferPool pool = new BufferPool(10_000);
+        pool.release(new byte[8192]);
+        pool.release(new byte[8192]);
+        assertEquals(new BufferPool.Statistics(0, 0, 1, 1, 8192), pool.getStatistics());
+
+        // Each size class keeps the 8 most recently returned buffers of each kind
+        BufferPool large = new BufferPool(UNLIMITED);
+        byte[][] arrays = new byte[10][];
+        for (int i = 0; i < arrays.length; i++) {
+            arrays[i] = new byte[4096];
+            large.release(arrays[i]);
+        }
+        assertEquals(new BufferPool.Statistics(0, 0, 10, 2, 8 * 4096), large.getStatistics());
+        assertSame(arrays[9], large.borrowArray(4096));
+        for (int i = 0; i < 7; i++) {
+            assertNotSame(arrays[0], large.borrowArray(4096));
+        }
+        assertEquals(0, large.getStatistics().retainedBytes());
+    }
+}